@@ -8,11 +8,22 @@ import com.elizabethering.javawhiteboard.shared.model.Action;
 
 import javax.swing.*;
 import java.awt.*;
+import com.elizabethering.javawhiteboard.shared.protocol.ActionFrames;
+import com.elizabethering.javawhiteboard.shared.protocol.HistorySnapshots;
+import com.elizabethering.javawhiteboard.shared.protocol.WireFormat;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -22,8 +33,12 @@ public class ClientApp {
 
     private static final String SERVER_ADDRESS = "localhost";
     private static final int SERVER_PORT = 9999;
+    // 上传画板时每批打包的指令数
+    private static final int UPLOAD_BATCH_SIZE = 1024;
 
-    private ObjectOutputStream oos;
+    private DataOutputStream out;
+    // 发送使用的编码格式，可通过 -Dwhiteboard.wire=serialized 切换回 Java 序列化
+    private final WireFormat wireFormat = WireFormat.fromSystemProperties();
     private Socket socket;
 
     private LoginFrame loginFrame;
@@ -33,6 +48,11 @@ public class ClientApp {
     private String username;
     private UserRole userRole;
     private SessionMode sessionMode;
+    private String roomId;
+    // 已经应用到画板上的最大序号，以及正在接收的历史快照，只在网络线程中访问
+    private long lastSequence = 0;
+    private List<Action> pendingSnapshot;
+    private Image pendingKeyframe;
     private volatile boolean canDraw = false;
 
     public static void main(String[] args) {
@@ -45,19 +65,20 @@ public class ClientApp {
     public void start() {
         try {
             socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-            oos = new ObjectOutputStream(socket.getOutputStream());
-            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
             SwingUtilities.invokeLater(() -> loginFrame = new LoginFrame(this));
-            new Thread(() -> listenToServer(ois)).start();
+            new Thread(() -> listenToServer(in)).start();
         } catch (IOException e) {
             showErrorAndExit("无法连接到服务器: " + e.getMessage());
         }
     }
 
-    private void listenToServer(ObjectInputStream ois) {
+    private void listenToServer(DataInputStream in) {
         try {
             while (!socket.isClosed()) {
-                Action actionFromServer = (Action) ois.readObject();
+                Action actionFromServer = ActionFrames.read(in);
 
                 if (actionFromServer instanceof AuthResultAction) {
                     handleAuthResult((AuthResultAction) actionFromServer);
@@ -69,11 +90,15 @@ public class ClientApp {
                     handleIncomingPermissionRequest((IncomingPermissionRequestAction) actionFromServer);
                 } else if (actionFromServer instanceof UserListUpdateAction) {
                     handleUserListUpdate((UserListUpdateAction) actionFromServer);
-                } else if (actionFromServer instanceof ShapeAction || actionFromServer instanceof TextAction || actionFromServer instanceof ClearAction) {
+                } else if (actionFromServer instanceof KeyframeAction) {
+                    handleKeyframe((KeyframeAction) actionFromServer);
+                } else if (actionFromServer instanceof HistorySnapshotAction) {
+                    handleHistorySnapshot((HistorySnapshotAction) actionFromServer);
+                } else if (actionFromServer instanceof DrawingAction) {
                     handleDrawingAction(actionFromServer);
                 }
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             if (!socket.isClosed()) {
                 showErrorAndExit("与服务器的连接已断开。");
             }
@@ -133,17 +158,67 @@ public class ClientApp {
     }
 
     private void handleDrawingAction(Action action) {
+        if (action instanceof DrawingAction) {
+            long sequence = ((DrawingAction) action).getSequence();
+            if (sequence != 0 && sequence <= lastSequence) {
+                return; // 已经包含在快照中
+            }
+            lastSequence = Math.max(lastSequence, sequence);
+        }
         if (sessionMode == SessionMode.SHARED && mainFrame != null) {
             mainFrame.getDrawingPanel().processServerAction(action);
         }
     }
 
     /**
-     * 用户选择模式后的核心处理方法。
+     * 画板底图标志着一个新快照的开始，之后的片段从底图覆盖的位置接续。
+     */
+    private void handleKeyframe(KeyframeAction keyframe) throws IOException {
+        pendingKeyframe = ImageIO.read(new ByteArrayInputStream(keyframe.getPng()));
+        if (pendingKeyframe == null) {
+            throw new StreamCorruptedException("无法解码画板底图");
+        }
+        pendingSnapshot = new ArrayList<>();
+    }
+
+    /**
+     * 收集历史快照片段，收到最后一个片段后一次性替换画板内容。
+     */
+    private void handleHistorySnapshot(HistorySnapshotAction snapshot) throws IOException {
+        if (snapshot.getStartIndex() == 0 || pendingSnapshot == null) {
+            pendingSnapshot = new ArrayList<>();
+            pendingKeyframe = null;
+        }
+        pendingSnapshot.addAll(HistorySnapshots.unpack(snapshot));
+        if (!snapshot.isLast()) return;
+
+        List<Action> history = pendingSnapshot;
+        Image keyframe = pendingKeyframe;
+        pendingSnapshot = null;
+        pendingKeyframe = null;
+        lastSequence = snapshot.getThroughSequence();
+        if (sessionMode == SessionMode.SHARED && mainFrame != null) {
+            mainFrame.getDrawingPanel().processServerSnapshot(keyframe, history);
+        }
+    }
+
+    /**
+     * 用户选择模式后的核心处理方法。共享模式下加入默认房间。
      * @param mode 用户选择的模式 (PRIVATE 或 SHARED)。
      */
     public void enterMode(SessionMode mode) {
+        enterMode(mode, null);
+    }
+
+    /**
+     * 用户选择模式后的核心处理方法。
+     * @param mode 用户选择的模式 (PRIVATE 或 SHARED)。
+     * @param roomId 共享模式下要加入的房间号，为空时加入默认房间。
+     */
+    public void enterMode(SessionMode mode, String roomId) {
         this.sessionMode = mode;
+        StartSessionAction startSession = new StartSessionAction(roomId);
+        this.roomId = startSession.getRoomId();
 
         // 直接在当前线程（Swing事件分发线程）中创建主窗口。
         // 这能确保在发送任何网络请求之前，mainFrame变量一定已经被赋值。
@@ -157,7 +232,7 @@ public class ClientApp {
             mainFrame.configureForRole(this.userRole, this.canDraw);
         } else { // 共享模式
             // 现在可以安全地发送请求，因为我们知道mainFrame已经准备好了
-            sendAction(new StartSessionAction());
+            sendAction(startSession);
         }
     }
 
@@ -168,11 +243,11 @@ public class ClientApp {
         });
     }
 
-    public void sendAction(Action action) {
+    public synchronized void sendAction(Action action) {
         try {
-            if (oos != null && !socket.isClosed()) {
-                oos.writeObject(action);
-                oos.flush();
+            if (out != null && !socket.isClosed()) {
+                ActionFrames.write(out, action, wireFormat);
+                out.flush();
             }
         } catch (IOException e) {
             if (!socket.isClosed()) {
@@ -181,9 +256,24 @@ public class ClientApp {
         }
     }
 
+    /**
+     * 把整个画板分批上传到服务器，替换房间的画板。服务器收齐后一次性加载，再向所有成员发送一份快照。
+     * 打包和发送都在调用线程中进行，不要在事件分发线程中调用。
+     */
+    public void uploadCanvas(List<Action> actions) throws IOException {
+        int start = 0;
+        do {
+            int end = Math.min(actions.size(), start + UPLOAD_BATCH_SIZE);
+            // 与服务器发送快照使用同样的打包格式，批次之间可以穿插其他指令
+            sendAction(HistorySnapshots.pack(actions.subList(start, end), start, end == actions.size(), 0));
+            start = end;
+        } while (start < actions.size());
+    }
+
     public String getUsername() { return username; }
     public UserRole getUserRole() { return userRole; }
     public SessionMode getSessionMode() { return sessionMode; }
+    public String getRoomId() { return roomId; }
     public boolean canDraw() { return canDraw; }
 
     public void attemptLogin(String u, String p) { sendAction(new LoginAction(u, p)); }
@@ -0,0 +1,221 @@
+package com.elizabethering.javawhiteboard.client.gui;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.render.ActionRenderer;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * 画板上的指令，既按绘制顺序保存，又按范围建立网格索引。
+ * <p>
+ * 重绘一个区域时只取出与它相交的指令，擦除和选择时也只检查附近的指令，
+ * 开销取决于该区域内的图形密度，而不是整个历史的长度。
+ * 覆盖格子太多的大图形单独存放，每次查询都作为候选。
+ * <p>
+ * 已撤销的指令仍然留在原来的位置上，只是被标记为隐藏，查询时跳过；重做时取消标记即可恢复原来的绘制顺序。
+ * <p>
+ * 本类不是线程安全的，由调用方加锁。
+ */
+final class ActionIndex {
+
+    private static final int CELL_SHIFT = 7; // 128 像素的格子
+    private static final int MAX_CELLS_PER_ENTRY = 64;
+
+    // 按绘制顺序排列的所有指令
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+    private final List<Entry> large = new ArrayList<>();
+    private long nextOrder = 0;
+    private int queryStamp = 0;
+    // 所有图形范围的并集，没有图形时为 null
+    private Rectangle2D extent;
+
+    /**
+     * 加入一条指令。
+     * @return 指令在画板上影响的范围，不改变画板内容的指令返回 null。
+     */
+    Rectangle2D add(Action action) {
+        Entry entry = new Entry(action, nextOrder++, ActionRenderer.bounds(action));
+        entries.add(entry);
+        Rectangle2D bounds = entry.bounds;
+        if (bounds == null) return null; // 不改变画板内容的指令不需要索引
+        if (extent == null) {
+            extent = (Rectangle2D) bounds.clone();
+        } else {
+            extent.add(bounds);
+        }
+        if (isLarge(bounds)) {
+            large.add(entry);
+            return bounds;
+        }
+        for (int x = cell(bounds.getMinX()); x <= cell(bounds.getMaxX()); x++) {
+            for (int y = cell(bounds.getMinY()); y <= cell(bounds.getMaxY()); y++) {
+                cells.computeIfAbsent(key(x, y), k -> new ArrayList<>()).add(entry);
+            }
+        }
+        return bounds;
+    }
+
+    void addAll(List<Action> actions) {
+        for (Action action : actions) {
+            add(action);
+        }
+    }
+
+    /**
+     * 隐藏或恢复满足条件的指令。
+     * @return 状态发生变化的指令的范围的并集，没有改变画板内容时返回 null。
+     */
+    Rectangle2D setHidden(Predicate<Action> filter, boolean hidden) {
+        Rectangle2D changed = null;
+        for (Entry entry : entries) {
+            if (entry.hidden != hidden && filter.test(entry.action)) {
+                entry.hidden = hidden;
+                changed = union(changed, entry.bounds);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 移除满足条件的指令。
+     * @return 被移除的指令的范围的并集，没有改变画板内容时返回 null。
+     */
+    Rectangle2D removeIf(Predicate<Action> filter) {
+        Rectangle2D[] removed = new Rectangle2D[1];
+        // ArrayList.removeIf 一次性压缩数组，移除多条指令也只需线性时间
+        entries.removeIf(entry -> {
+            if (!filter.test(entry.action)) return false;
+            unindex(entry);
+            // 已隐藏的指令不在画板上，移除它不改变画板内容
+            if (!entry.hidden) {
+                removed[0] = union(removed[0], entry.bounds);
+            }
+            return true;
+        });
+        return removed[0];
+    }
+
+    private static Rectangle2D union(Rectangle2D area, Rectangle2D bounds) {
+        if (bounds == null) return area;
+        if (area == null) return (Rectangle2D) bounds.clone();
+        area.add(bounds);
+        return area;
+    }
+
+    private void unindex(Entry entry) {
+        Rectangle2D bounds = entry.bounds;
+        if (bounds == null) return;
+        if (isLarge(bounds)) {
+            large.remove(entry);
+            return;
+        }
+        for (int x = cell(bounds.getMinX()); x <= cell(bounds.getMaxX()); x++) {
+            for (int y = cell(bounds.getMinY()); y <= cell(bounds.getMaxY()); y++) {
+                Long key = key(x, y);
+                List<Entry> cell = cells.get(key);
+                if (cell != null && cell.remove(entry) && cell.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+        // 范围的并集只增不减，清空时才重置，多出的部分只会让查询多检查几个空格子
+    }
+
+    void clear() {
+        entries.clear();
+        cells.clear();
+        large.clear();
+        extent = null;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * 按绘制顺序返回所有未隐藏的指令。
+     */
+    List<Action> actions() {
+        List<Action> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (!entry.hidden) {
+                result.add(entry.action);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按绘制顺序返回范围与指定区域相交、且未隐藏的指令。
+     */
+    List<Action> query(Rectangle2D area) {
+        if (extent == null) return new ArrayList<>();
+        if (area.contains(extent)) return actions();
+
+        int stamp = ++queryStamp;
+        List<Entry> found = new ArrayList<>();
+        collect(large, area, stamp, found);
+        int x0 = cell(Math.max(area.getMinX(), extent.getMinX()));
+        int x1 = cell(Math.min(area.getMaxX(), extent.getMaxX()));
+        int y0 = cell(Math.max(area.getMinY(), extent.getMinY()));
+        int y1 = cell(Math.min(area.getMaxY(), extent.getMaxY()));
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                List<Entry> cell = cells.get(key(x, y));
+                if (cell != null) {
+                    collect(cell, area, stamp, found);
+                }
+            }
+        }
+        found.sort((a, b) -> Long.compare(a.order, b.order));
+        List<Action> result = new ArrayList<>(found.size());
+        for (Entry entry : found) {
+            result.add(entry.action);
+        }
+        return result;
+    }
+
+    private static void collect(List<Entry> candidates, Rectangle2D area, int stamp, List<Entry> found) {
+        for (Entry entry : candidates) {
+            // 同一个图形可能登记在多个格子中，用查询编号去重
+            if (entry.stamp != stamp && !entry.hidden && entry.bounds.intersects(area)) {
+                entry.stamp = stamp;
+                found.add(entry);
+            }
+        }
+    }
+
+    private static boolean isLarge(Rectangle2D bounds) {
+        long columns = (long) cell(bounds.getMaxX()) - cell(bounds.getMinX()) + 1;
+        long rows = (long) cell(bounds.getMaxY()) - cell(bounds.getMinY()) + 1;
+        return columns * rows > MAX_CELLS_PER_ENTRY;
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate) >> CELL_SHIFT;
+    }
+
+    private static Long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static final class Entry {
+        final Action action;
+        final long order;      // 绘制顺序
+        final Rectangle2D bounds;
+        int stamp;             // 最近一次选中它的查询编号
+        boolean hidden;        // 已撤销
+
+        Entry(Action action, long order, Rectangle2D bounds) {
+            this.action = action;
+            this.order = order;
+            this.bounds = bounds;
+        }
+    }
+}
@@ -5,25 +5,119 @@ import com.elizabethering.javawhiteboard.shared.model.*;
 import com.elizabethering.javawhiteboard.shared.model.Action;
 import com.elizabethering.javawhiteboard.shared.model.ShapeAction;
 import com.elizabethering.javawhiteboard.shared.model.TextAction;
+import com.elizabethering.javawhiteboard.shared.protocol.BinaryActionCodec;
+import com.elizabethering.javawhiteboard.shared.render.ActionHitTester;
+import com.elizabethering.javawhiteboard.shared.render.ActionRenderer;
+import com.elizabethering.javawhiteboard.shared.render.BoardExporter;
+import com.elizabethering.javawhiteboard.shared.render.TileRasterizer;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.geom.Ellipse2D;
-import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
  * 绘图面板，用户在这里进行绘图操作。
  */
 public class DrawingPanel extends JPanel {
-    private final List<Action> actions = new ArrayList<>();
+    // 拖动时本地按鼠标事件实时绘制，网络上每隔这段时间才把新增的点打包成一条笔画发送
+    private static final int STROKE_FLUSH_INTERVAL_MS = 40;
+    // 笔画坐标的量化步长，1 为无损；可通过 -Dwhiteboard.stroke.quantization 调整
+    private static final int STROKE_QUANTIZATION = Math.max(1, Integer.getInteger("whiteboard.stroke.quantization", 1));
+    // 提交笔画时简化折线的容差（像素），0 表示不简化；可通过 -Dwhiteboard.stroke.tolerance 调整
+    private static final double STROKE_TOLERANCE = Double.parseDouble(System.getProperty("whiteboard.stroke.tolerance", "0.5"));
+
+    // 共享模式下最多保留多少条等待服务器回显的本地指令
+    private static final int MAX_UNCONFIRMED = 256;
+    // 私人模式下最多可以撤销的步数
+    private static final int MAX_UNDO_STEPS = 100;
+    private static final BinaryActionCodec CODEC = new BinaryActionCodec();
+
+    private static final Color ERASER_TRAIL = new Color(128, 128, 128, 96);
+
+    // 缩放级别的范围，每 4 级放大一倍
+    private static final int ZOOM_STEPS_PER_DOUBLING = 4;
+    private static final int MIN_ZOOM_LEVEL = -12;
+    private static final int MAX_ZOOM_LEVEL = 12;
+    // 每帧的间隔，服务器发来的指令每帧只处理一次、重绘一次
+    private static final int FRAME_INTERVAL_MS = 16;
+    // 每帧用于应用和绘制服务器指令的时间，其余的留到下一帧，指令再多界面也能保持响应
+    private static final long FRAME_BUDGET_NANOS = FRAME_INTERVAL_MS / 2 * 1_000_000L;
+    // 每次加锁应用的指令数，每批之后检查一次时间
+    private static final int INCOMING_BATCH = 64;
+    // 最多积累多少条尚未画进图块的指令或失效区域，超过时下次重绘直接丢弃所有图块（例如窗口最小化时）
+    private static final int MAX_PENDING_UPDATES = 4096;
+
+    // 画板上的所有指令及其空间索引，由自身的锁保护
+    private final ActionIndex actions = new ActionIndex();
+    // 共享模式下本地已经画出、尚未收到服务器回显的指令，按发送顺序排列；与 actions 一起由 actions 的锁保护
+    private final Deque<Unconfirmed> unconfirmed = new ArrayDeque<>();
+    // 私人模式下的撤销和重做步骤，每一步是一次拖动画出的所有笔画或一个图形；与 actions 一起由 actions 的锁保护
+    // 共享模式下的撤销由服务器按用户记录
+    private final Deque<List<Action>> undoSteps = new ArrayDeque<>();
+    private final Deque<List<Action>> redoSteps = new ArrayDeque<>();
+    // 当前拖动正在画的一步
+    private List<Action> gesture;
+    // 服务器渲染的画板底图，actions 中的指令画在它上面；与 actions 一起由 actions 的锁保护
+    private Image keyframe;
+
+    // 画板内容的分块光栅缓存，只由事件分发线程访问。新的指令增量地画进图块，重绘时只需把可见的图块复制到屏幕
+    private final TileCache tiles = new TileCache();
+    // 屏幕像素与逻辑坐标之比，高分辨率屏幕上大于 1；只由事件分发线程访问
+    private double screenScale = 1;
+    // 已加入画板、尚未画进图块的指令，按绘制顺序排列；与 actions 一起由 actions 的锁保护
+    private List<Action> unrendered = new ArrayList<>();
+    // 内容已经变化、对应的图块需要重新画的区域（画板坐标）；与 actions 一起由 actions 的锁保护
+    private final List<Rectangle2D> staleAreas = new ArrayList<>();
+    // 所有图块都已失效；与 actions 一起由 actions 的锁保护
+    private boolean tilesStale = true;
+
+    // 视图：缩放级别和窗口左上角对应的画板坐标，只由事件分发线程访问
+    private int zoomLevel = 0;
+    private double viewX = 0;
+    private double viewY = 0;
+    // 正在用右键或中键拖动视图时，按下的位置和当时的视图
+    private Point panStart;
+    private double panViewX;
+    private double panViewY;
+
+    // 网络线程收到、尚未应用到画板的指令（Action）和快照（Snapshot），由事件分发线程每帧取出一次
+    private final ConcurrentLinkedQueue<Object> incoming = new ConcurrentLinkedQueue<>();
+    // 已经安排了一帧来处理 incoming
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    private final Timer frameTimer;
+    // 上一帧开始的时间，只由事件分发线程访问
+    private long lastFrameNanos;
+
+    // 等待重绘的区域（画板坐标），null 表示没有；与 actions 一起由 actions 的锁保护
+    private Rectangle2D dirtyArea;
+    // 需要重绘整个面板
+    private boolean dirtyAll;
+    // 已经向事件分发线程提交了一次重绘，之后标记的区域都合并到这一次
+    private boolean repaintScheduled;
     private Point startPoint;
     private final MainFrame mainFrame;
 
+    // 正在绘制、尚未发送的笔画点，交错存放 x, y
+    private int[] pendingStroke = new int[64];
+    private int pendingStrokeLength = 0;
+    private final Timer strokeFlushTimer;
+
     // 绘图属性
     private ShapeType currentTool = ShapeType.LINE;
     private Color currentColor = Color.BLACK;
@@ -35,40 +129,148 @@ public class DrawingPanel extends JPanel {
         setBackground(Color.WHITE);
         setEnabled(false); // 初始时禁用，由MainFrame根据模式和权限启用
 
+        strokeFlushTimer = new Timer(STROKE_FLUSH_INTERVAL_MS, e -> flushStroke());
+        frameTimer = new Timer(FRAME_INTERVAL_MS, e -> drainIncoming());
+        frameTimer.setRepeats(false);
+        // 定时器会在自己的回调中重新启动，合并事件可能把这次触发当作重复事件丢掉，之后再也不会处理新的指令
+        frameTimer.setCoalesce(false);
+
         MouseAdapter adapter = new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
-                if (!getClientApp().canDraw()) return; // 最终权限检查
+                // 右键或中键拖动视图，没有绘图权限时也可以
+                if (!SwingUtilities.isLeftMouseButton(e)) {
+                    if (startPoint == null) {
+                        panStart = e.getPoint();
+                        panViewX = viewX;
+                        panViewY = viewY;
+                    }
+                    return;
+                }
+                if (!getClientApp().canDraw() || panStart != null) return; // 最终权限检查
 
-                startPoint = e.getPoint();
-                if (currentTool == ShapeType.TEXT) {
-                    handleTextCreation(e.getPoint());
+                startPoint = toWorld(e.getPoint());
+                if (currentTool == ShapeType.LINE || currentTool == ShapeType.ERASER) {
+                    beginStroke(startPoint);
+                } else if (currentTool == ShapeType.TEXT) {
+                    handleTextCreation(startPoint);
                     startPoint = null; // 文本工具不需要拖拽
                 }
             }
 
             @Override
             public void mouseDragged(MouseEvent e) {
+                if (panStart != null) {
+                    double zoom = zoom();
+                    viewX = panViewX - (e.getX() - panStart.x) / zoom;
+                    viewY = panViewY - (e.getY() - panStart.y) / zoom;
+                    repaint();
+                    return;
+                }
                 if (!getClientApp().canDraw() || startPoint == null) return;
 
                 if (currentTool == ShapeType.LINE || currentTool == ShapeType.ERASER) {
-                    handleContinuousDrawing(e.getPoint());
-                    startPoint = e.getPoint(); // 更新起点以实现连续绘图
+                    handleContinuousDrawing(toWorld(e.getPoint()));
                 }
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
+                if (!SwingUtilities.isLeftMouseButton(e)) {
+                    panStart = null;
+                    return;
+                }
                 if (!getClientApp().canDraw() || startPoint == null) return;
 
                 if (currentTool == ShapeType.RECTANGLE || currentTool == ShapeType.OVAL || currentTool == ShapeType.TRIANGLE) {
-                    handleShapeCreation(e.getPoint());
+                    handleShapeCreation(toWorld(e.getPoint()));
+                } else if (currentTool == ShapeType.LINE || currentTool == ShapeType.ERASER) {
+                    finishStroke();
                 }
                 startPoint = null;
             }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                // 滚轮以鼠标所在的位置为中心缩放
+                zoomAt(e.getPoint(), -e.getWheelRotation());
+            }
         };
         addMouseListener(adapter);
         addMouseMotionListener(adapter);
+        addMouseWheelListener(adapter);
+    }
+
+    // --- 视图 ---
+
+    private double zoom() {
+        return Math.pow(2, (double) zoomLevel / ZOOM_STEPS_PER_DOUBLING);
+    }
+
+    /**
+     * 画板坐标到屏幕设备像素的比例。
+     */
+    private double deviceScale() {
+        return zoom() * screenScale;
+    }
+
+    /**
+     * 视图左上角的设备像素坐标，取整后图块正好落在整数像素上。
+     */
+    private long deviceOffsetX() {
+        return Math.round(viewX * deviceScale());
+    }
+
+    private long deviceOffsetY() {
+        return Math.round(viewY * deviceScale());
+    }
+
+    /**
+     * 把面板上的位置换算为画板坐标。
+     */
+    private Point toWorld(Point p) {
+        double scale = deviceScale();
+        return new Point((int) Math.floor((p.x * screenScale + deviceOffsetX()) / scale),
+                (int) Math.floor((p.y * screenScale + deviceOffsetY()) / scale));
+    }
+
+    /**
+     * 把画板上的区域换算为面板上需要重绘的区域，向外取整并留出 1 像素余量。
+     */
+    private Rectangle toScreen(Rectangle2D area) {
+        double scale = deviceScale();
+        double x0 = (area.getMinX() * scale - deviceOffsetX()) / screenScale;
+        double y0 = (area.getMinY() * scale - deviceOffsetY()) / screenScale;
+        double x1 = (area.getMaxX() * scale - deviceOffsetX()) / screenScale;
+        double y1 = (area.getMaxY() * scale - deviceOffsetY()) / screenScale;
+        Rectangle r = new Rectangle((int) Math.floor(x0), (int) Math.floor(y0),
+                (int) (Math.ceil(x1) - Math.floor(x0)), (int) (Math.ceil(y1) - Math.floor(y0)));
+        r.grow(1, 1);
+        return r;
+    }
+
+    private void zoomAt(Point p, int steps) {
+        int level = Math.max(MIN_ZOOM_LEVEL, Math.min(MAX_ZOOM_LEVEL, zoomLevel + steps));
+        if (level == zoomLevel) return;
+        // 保持鼠标下的画板位置不动
+        double zoom = zoom();
+        double x = viewX + p.x / zoom;
+        double y = viewY + p.y / zoom;
+        zoomLevel = level;
+        zoom = zoom();
+        viewX = x - p.x / zoom;
+        viewY = y - p.y / zoom;
+        repaint();
+    }
+
+    /**
+     * 恢复原始大小并回到画板原点。
+     */
+    public void resetView() {
+        zoomLevel = 0;
+        viewX = 0;
+        viewY = 0;
+        repaint();
     }
 
     // --- 绘图逻辑处理 ---
@@ -82,12 +284,104 @@ public class DrawingPanel extends JPanel {
         }
     }
 
+    private void beginStroke(Point p) {
+        synchronized (actions) {
+            gesture = null;
+        }
+        pendingStrokeLength = 0;
+        appendStrokePoint(p);
+        strokeFlushTimer.start();
+    }
+
+    /**
+     * 拖动时只记录新的点并在本地重绘，由定时器负责批量发送。
+     */
     private void handleContinuousDrawing(Point endPoint) {
-        Color color = (currentTool == ShapeType.ERASER) ? getBackground() : currentColor;
-        float stroke = (currentTool == ShapeType.ERASER) ? currentStroke + 10 : currentStroke;
-        Shape line = new Line2D.Float(startPoint, endPoint);
-        ShapeAction action = new ShapeAction(currentTool, line, color, stroke);
-        processLocalAction(action);
+        if (pendingStrokeLength < 2) return;
+        int x = pendingStroke[pendingStrokeLength - 2];
+        int y = pendingStroke[pendingStrokeLength - 1];
+        appendStrokePoint(endPoint);
+        // 只重绘新增的一小段
+        repaint(segmentBounds(new int[]{x, y, endPoint.x, endPoint.y}));
+    }
+
+    /**
+     * 以当前线宽画出这些点时覆盖的屏幕区域，包含圆形线帽和抗锯齿的余量。
+     */
+    private Rectangle segmentBounds(int[] points) {
+        return toScreen(ActionHitTester.eraserBounds(points, strokeWidth()));
+    }
+
+    private void appendStrokePoint(Point p) {
+        if (pendingStrokeLength >= 2 && pendingStroke[pendingStrokeLength - 2] == p.x && pendingStroke[pendingStrokeLength - 1] == p.y) {
+            return; // 忽略重复的点
+        }
+        if (pendingStrokeLength + 2 > pendingStroke.length) {
+            pendingStroke = Arrays.copyOf(pendingStroke, pendingStroke.length * 2);
+        }
+        pendingStroke[pendingStrokeLength++] = p.x;
+        pendingStroke[pendingStrokeLength++] = p.y;
+    }
+
+    /**
+     * 把已收集的点作为一条笔画提交，并保留最后一个点作为下一段的起点，使各段首尾相连。
+     */
+    private void flushStroke() {
+        if (pendingStrokeLength < 4) return;
+        int[] points = Arrays.copyOf(pendingStroke, pendingStrokeLength);
+        pendingStroke[0] = points[points.length - 2];
+        pendingStroke[1] = points[points.length - 1];
+        pendingStrokeLength = 2;
+        if (currentTool == ShapeType.ERASER) {
+            // 已提交的轨迹不再画出，擦掉屏幕上的这一段
+            repaint(segmentBounds(points));
+            eraseAlong(points);
+        } else {
+            // 删去几乎共线的点再发送，网络、服务器历史和存档都随之变小；首尾两点保留，各段依然首尾相连
+            int[] simplified = StrokePoints.simplify(points, STROKE_TOLERANCE);
+            processLocalAction(new StrokeAction(currentTool, simplified, STROKE_QUANTIZATION, strokeColor(), strokeWidth()));
+        }
+    }
+
+    /**
+     * 擦除橡皮擦轨迹碰到的图形。共享模式下由服务器决定擦除哪些图形并通知所有人，私人模式下直接在本地擦除。
+     */
+    private void eraseAlong(int[] points) {
+        if (getClientApp().getSessionMode() == SessionMode.SHARED) {
+            getClientApp().sendAction(new EraseAction(points, strokeWidth()));
+            return;
+        }
+        synchronized (actions) {
+            // 先用空间索引找出橡皮擦附近的图形，再逐个精确判断
+            Set<Action> hits = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Action action : actions.query(ActionHitTester.eraserBounds(points, strokeWidth()))) {
+                if (ActionHitTester.hits(action, points, strokeWidth())) {
+                    hits.add(action);
+                }
+            }
+            if (!hits.isEmpty()) {
+                invalidateArea(actions.removeIf(hits::contains));
+            }
+        }
+        scheduleRepaint();
+    }
+
+    private void finishStroke() {
+        strokeFlushTimer.stop();
+        flushStroke();
+        pendingStrokeLength = 0;
+        synchronized (actions) {
+            gesture = null;
+        }
+    }
+
+    private Color strokeColor() {
+        // 橡皮擦只显示一条半透明的轨迹，碰到的图形随后被整体擦除
+        return (currentTool == ShapeType.ERASER) ? ERASER_TRAIL : currentColor;
+    }
+
+    private float strokeWidth() {
+        return (currentTool == ShapeType.ERASER) ? currentStroke + 10 : currentStroke;
     }
 
     private void handleShapeCreation(Point endPoint) {
@@ -117,76 +411,463 @@ public class DrawingPanel extends JPanel {
     }
 
     private void processLocalAction(Action action) {
-        addActionAndRepaint(action);
         if (getClientApp().getSessionMode() == SessionMode.SHARED) {
+            synchronized (actions) {
+                appendAction(action);
+                unconfirmed.addLast(new Unconfirmed(action, contentKey(action)));
+                if (unconfirmed.size() > MAX_UNCONFIRMED) {
+                    unconfirmed.removeFirst(); // 被服务器拒绝的指令永远不会有回显
+                }
+            }
+            scheduleRepaint();
             getClientApp().sendAction(action);
+        } else {
+            synchronized (actions) {
+                appendAction(action);
+                recordStep(action);
+            }
+            scheduleRepaint();
+        }
+    }
+
+    /**
+     * 把一条指令加入画板，下次重绘时画进离屏缓冲。调用时必须持有 actions 的锁。
+     */
+    private void appendAction(Action action) {
+        markDirty(actions.add(action));
+        unrendered.add(action);
+        if (unrendered.size() > MAX_PENDING_UPDATES) {
+            invalidateTiles();
+        }
+    }
+
+    /**
+     * 画板上一块区域的内容发生了变化（撤销、擦除或移除），下次显示时重新画出与它相交的图块。
+     * 调用时必须持有 actions 的锁。
+     * @param area 变化的区域，null 表示没有变化。
+     */
+    private void invalidateArea(Rectangle2D area) {
+        if (area == null) return;
+        staleAreas.add(area);
+        markDirty(area);
+        if (staleAreas.size() > MAX_PENDING_UPDATES) {
+            invalidateTiles();
+        }
+    }
+
+    /**
+     * 整个画板的内容被替换（清空或载入），丢弃所有图块。调用时必须持有 actions 的锁。
+     */
+    private void invalidateTiles() {
+        tilesStale = true;
+        unrendered.clear();
+        staleAreas.clear();
+        dirtyAll = true;
+    }
+
+    /**
+     * 标记一块需要重绘的区域。调用时必须持有 actions 的锁。
+     */
+    private void markDirty(Rectangle2D area) {
+        if (area == null) return;
+        if (dirtyArea == null) {
+            dirtyArea = (Rectangle2D) area.clone();
+        } else {
+            dirtyArea.add(area);
+        }
+    }
+
+    /**
+     * 请求重绘已标记的区域。在事件分发线程处理到这次请求之前标记的区域合并为一次重绘。可以在任意线程调用。
+     * 服务器发来的指令不经过这里，由每一帧统一重绘。
+     */
+    private void scheduleRepaint() {
+        synchronized (actions) {
+            if (repaintScheduled || (dirtyArea == null && !dirtyAll)) return;
+            repaintScheduled = true;
+        }
+        SwingUtilities.invokeLater(this::repaintDirty);
+    }
+
+    private void repaintDirty() {
+        Rectangle2D area;
+        boolean all;
+        synchronized (actions) {
+            area = dirtyArea;
+            all = dirtyAll;
+            dirtyArea = null;
+            dirtyAll = false;
+            repaintScheduled = false;
+        }
+        if (all) {
+            repaint();
+        } else if (area != null) {
+            repaint(toScreen(area));
+        }
+    }
+
+    /**
+     * 私人模式下记录一步绘图。拖动过程中分段提交的笔画归入同一步。调用时必须持有 actions 的锁。
+     */
+    private void recordStep(Action action) {
+        // 有了新的绘图就不能再重做，已撤销的指令可以真正删除了
+        for (List<Action> step : redoSteps) {
+            Set<Action> undone = Collections.newSetFromMap(new IdentityHashMap<>());
+            undone.addAll(step);
+            actions.removeIf(undone::contains);
+        }
+        redoSteps.clear();
+        if (gesture == null) {
+            gesture = new ArrayList<>();
+            undoSteps.addLast(gesture);
+            if (undoSteps.size() > MAX_UNDO_STEPS) {
+                undoSteps.removeFirst();
+            }
+        }
+        gesture.add(action);
+        if (!(action instanceof StrokeAction)) {
+            gesture = null; // 图形和文本各自成为一步
+        }
+    }
+
+    /**
+     * 撤销自己最近画的一步。共享模式下由服务器决定撤销哪些图形并通知所有人。
+     */
+    public void undo() {
+        undoOrRedo(false);
+    }
+
+    /**
+     * 重做最近撤销的一步。
+     */
+    public void redo() {
+        undoOrRedo(true);
+    }
+
+    private void undoOrRedo(boolean redo) {
+        if (!getClientApp().canDraw()) return;
+        if (getClientApp().getSessionMode() == SessionMode.SHARED) {
+            getClientApp().sendAction(new UndoAction(redo));
+            return;
         }
+        synchronized (actions) {
+            List<Action> step = redo ? redoSteps.pollLast() : undoSteps.pollLast();
+            if (step == null) return;
+            gesture = null;
+            (redo ? undoSteps : redoSteps).addLast(step);
+            Set<Action> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+            targets.addAll(step);
+            invalidateArea(actions.setHidden(targets::contains, !redo));
+        }
+        scheduleRepaint();
     }
 
+    /**
+     * 接收服务器发来的一条指令。可以在网络线程中调用：指令先放入无锁队列，由事件分发线程在下一帧统一应用。
+     */
     public void processServerAction(Action action) {
-        if (action instanceof ClearAction) {
-            clearCanvasInternal();
+        enqueue(action);
+    }
+
+    /**
+     * 接收服务器发送的快照，在下一帧用它替换画板内容：先画底图，再画底图之后的指令。
+     * 快照与之后的指令经过同一个队列，应用的顺序与收到的顺序一致。
+     * @param keyframe 画板底图，可以为 null。
+     */
+    public void processServerSnapshot(Image keyframe, List<Action> history) {
+        enqueue(new Snapshot(keyframe, history));
+    }
+
+    private void enqueue(Object item) {
+        incoming.add(item);
+        if (frameScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::scheduleFrame);
+        }
+    }
+
+    /**
+     * 安排处理下一帧，距离上一帧不足一帧的间隔时等到间隔满了再处理。
+     */
+    private void scheduleFrame() {
+        long wait = FRAME_INTERVAL_MS - (System.nanoTime() - lastFrameNanos) / 1_000_000;
+        if (wait <= 0) {
+            drainIncoming();
         } else {
-            addActionAndRepaint(action);
+            frameTimer.setInitialDelay((int) wait);
+            frameTimer.restart();
         }
     }
 
     /**
-     * 绘制所有图形和文本。
-     * 使用经典的 instanceof 和类型转换以兼容 Java 8。
+     * 一帧：分批应用队列里的指令并画进图块，用完这一帧的时间后停下，再把它们改变的区域合并为一次重绘。
+     * 只在事件分发线程中调用。
+     */
+    private void drainIncoming() {
+        lastFrameNanos = System.nanoTime();
+        // 先清除标记再取指令，之后到达的指令会安排新的一帧
+        frameScheduled.set(false);
+        do {
+            synchronized (actions) {
+                Object item;
+                for (int n = 0; n < INCOMING_BATCH && (item = incoming.poll()) != null; n++) {
+                    if (item instanceof Snapshot) {
+                        Snapshot snapshot = (Snapshot) item;
+                        replaceContent(snapshot.keyframe, snapshot.actions);
+                    } else {
+                        applyServerAction((Action) item);
+                    }
+                }
+            }
+            // 绘制的开销远大于应用，在这一帧内完成，重绘时只需复制图块
+            renderUnrendered();
+        } while (!incoming.isEmpty() && System.nanoTime() - lastFrameNanos < FRAME_BUDGET_NANOS);
+        if (!incoming.isEmpty() && frameScheduled.compareAndSet(false, true)) {
+            scheduleFrame();
+        }
+        repaintDirty();
+    }
+
+    /**
+     * 把服务器发来的一条指令应用到画板。调用时必须持有 actions 的锁。
+     */
+    private void applyServerAction(Action action) {
+        if (action instanceof ClearAction) {
+            clearContent();
+        } else if (action instanceof RemoveAction) {
+            removeActions((RemoveAction) action);
+        } else if (action instanceof TombstoneAction) {
+            hideActions((TombstoneAction) action);
+        } else if (!confirmLocal(action)) {
+            appendAction(action);
+        }
+    }
+
+    /**
+     * 服务器回显了本地画出的指令时，把服务器分配的序号记到本地的那一份上，而不是再画一遍，
+     * 之后按序号擦除时才能找到它。调用时必须持有 actions 的锁。
+     * @return 是否找到了对应的本地指令。
+     */
+    private boolean confirmLocal(Action received) {
+        if (unconfirmed.isEmpty() || !(received instanceof DrawingAction)) return false;
+        byte[] key = contentKey(received);
+        if (key == null) return false;
+        for (Iterator<Unconfirmed> it = unconfirmed.iterator(); it.hasNext(); ) {
+            Unconfirmed local = it.next();
+            if (Arrays.equals(local.key, key)) {
+                it.remove();
+                ((DrawingAction) local.action).assignSequence(((DrawingAction) received).getSequence());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 指令内容的二进制编码，不含序号和序号范围，用于比较本地指令和服务器的回显是否相同。
+     */
+    private static byte[] contentKey(Action action) {
+        try {
+            return CODEC.encodeContent(action);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 删除服务器通知移除的图形。调用时必须持有 actions 的锁。
+     */
+    private void removeActions(RemoveAction remove) {
+        invalidateArea(actions.removeIf(action -> action instanceof DrawingAction
+                && remove.covers(((DrawingAction) action).getSequence())));
+    }
+
+    /**
+     * 隐藏服务器通知撤销的图形，或恢复重做的图形。调用时必须持有 actions 的锁。
+     */
+    private void hideActions(TombstoneAction tombstone) {
+        invalidateArea(actions.setHidden(action -> action instanceof DrawingAction
+                && tombstone.covers(((DrawingAction) action).getSequence()), !tombstone.isRestore()));
+    }
+
+    /**
+     * 把可见的图块复制到屏幕，再画出正在绘制的笔画。
      */
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g.create();
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-        for (Action action : new ArrayList<>(actions)) {
-            // ******** 这里是修正点 ********
-            // 将新的 instanceof 模式匹配改写为经典的 if-else if 结构
-            if (action instanceof ShapeAction) {
-                ShapeAction sa = (ShapeAction) action; // 手动进行类型转换
-                g2d.setColor(sa.getColor());
-                g2d.setStroke(new BasicStroke(sa.getStrokeWidth(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                g2d.draw(sa.getShape());
-            } else if (action instanceof TextAction) {
-                TextAction ta = (TextAction) action; // 手动进行类型转换
-                g2d.setColor(ta.getColor());
-                g2d.setFont(ta.getFont());
-                g2d.drawString(ta.getText(), ta.getX(), ta.getY());
+        // 高分辨率屏幕上按设备像素画图块，复制时一个图块像素正好对应一个屏幕像素
+        double scale = g2d.getTransform().getScaleX();
+        if (!(scale > 0)) scale = 1;
+        if (scale != screenScale) {
+            screenScale = scale;
+            tiles.clear();
+        }
+        long offsetX = deviceOffsetX();
+        long offsetY = deviceOffsetY();
+        g2d.scale(1 / screenScale, 1 / screenScale);
+        g2d.translate(-offsetX, -offsetY);
+
+        // 只处理与需要重绘的区域相交的图块
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle((int) offsetX, (int) offsetY,
+                    (int) Math.ceil(getWidth() * screenScale), (int) Math.ceil(getHeight() * screenScale));
+        }
+        int size = TileCache.TILE_SIZE;
+        long tx0 = Math.floorDiv((long) clip.x, size);
+        long ty0 = Math.floorDiv((long) clip.y, size);
+        long tx1 = Math.floorDiv((long) clip.x + clip.width - 1, size);
+        long ty1 = Math.floorDiv((long) clip.y + clip.height - 1, size);
+        tiles.ensureCapacity((int) ((Math.ceil(getWidth() * screenScale / size) + 1) * (Math.ceil(getHeight() * screenScale / size) + 1)));
+        for (TileCache.Tile tile : updateTiles(tx0, ty0, tx1, ty1)) {
+            g2d.drawImage(tile.image, (int) (tile.tx * size), (int) (tile.ty * size), null);
+        }
+
+        // 正在绘制、尚未提交的笔画
+        if (pendingStrokeLength >= 4) {
+            g2d.scale(deviceScale(), deviceScale());
+            ActionRenderer.configure(g2d);
+            int n = pendingStrokeLength / 2;
+            int[] xs = new int[n];
+            int[] ys = new int[n];
+            for (int i = 0; i < n; i++) {
+                xs[i] = pendingStroke[i * 2];
+                ys[i] = pendingStroke[i * 2 + 1];
             }
+            g2d.setColor(strokeColor());
+            g2d.setStroke(new BasicStroke(strokeWidth(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2d.drawPolyline(xs, ys, n);
         }
         g2d.dispose();
     }
 
+    /**
+     * 让指定范围内的图块与画板内容一致，返回这些图块。新加入的指令画进已缓存的图块，
+     * 失效的图块被丢弃，缺少的图块从头画出。
+     * 指令在锁内取出、在锁外绘制，网络线程加入新指令时不必等待绘制完成。
+     */
+    private List<TileCache.Tile> updateTiles(long tx0, long ty0, long tx1, long ty1) {
+        double scale = deviceScale();
+        List<TileCache.Tile> visible = new ArrayList<>();
+        List<TileCache.Tile> missing = new ArrayList<>();
+        List<List<Action>> contents = new ArrayList<>();
+        List<Action> appended;
+        Image base;
+        synchronized (actions) {
+            appended = takeUnrendered();
+            for (long ty = ty0; ty <= ty1; ty++) {
+                for (long tx = tx0; tx <= tx1; tx++) {
+                    TileCache.Tile tile = tiles.get(zoomLevel, tx, ty);
+                    if (tile == null) {
+                        tile = new TileCache.Tile(zoomLevel, tx, ty, scale);
+                        missing.add(tile);
+                        contents.add(actions.query(tile.world));
+                    }
+                    visible.add(tile);
+                }
+            }
+            base = keyframe;
+        }
+
+        // 新画的图块已经包含了新加入的指令，先更新已缓存的图块，再放入新的图块
+        tiles.draw(appended);
+        // 缺少的图块互不相关，并行画出（载入、缩放和撤销之后通常整屏都需要重画）
+        Color background = getBackground();
+        TileRasterizer.forEach(missing.size(), i -> missing.get(i).render(background, base, contents.get(i)));
+        for (TileCache.Tile tile : missing) {
+            tiles.put(tile);
+        }
+        return visible;
+    }
+
+    /**
+     * 把已加入画板、尚未画进图块的指令画进已缓存的图块。只在事件分发线程中调用。
+     */
+    private void renderUnrendered() {
+        List<Action> appended;
+        synchronized (actions) {
+            appended = takeUnrendered();
+        }
+        tiles.draw(appended);
+    }
+
+    /**
+     * 先丢弃失效的图块，再取出尚未画进图块的指令。调用时必须持有 actions 的锁，且只在事件分发线程中调用。
+     */
+    private List<Action> takeUnrendered() {
+        if (tilesStale) {
+            tiles.clear();
+            tilesStale = false;
+        }
+        for (Rectangle2D area : staleAreas) {
+            tiles.invalidate(area);
+        }
+        staleAreas.clear();
+        List<Action> appended = unrendered;
+        unrendered = new ArrayList<>();
+        return appended;
+    }
+
     // --- 公共方法 ---
 
     public void clearCanvas() {
-        clearCanvasInternal();
+        synchronized (actions) {
+            clearContent();
+        }
+        scheduleRepaint();
         if (getClientApp().getSessionMode() == SessionMode.SHARED && getClientApp().canDraw()) {
             getClientApp().sendAction(new ClearAction());
         }
     }
 
-    private void clearCanvasInternal() {
+    /**
+     * 清空画板。调用时必须持有 actions 的锁。
+     */
+    private void clearContent() {
         actions.clear();
-        repaint();
+        unconfirmed.clear();
+        clearSteps();
+        keyframe = null;
+        invalidateTiles();
     }
 
+    /**
+     * 用载入的文件替换画板内容。
+     */
     public void setActions(List<Action> newActions) {
+        synchronized (actions) {
+            replaceContent(null, newActions);
+        }
+        scheduleRepaint();
+    }
+
+    /**
+     * 替换画板内容：先画底图，再画底图之后的指令。调用时必须持有 actions 的锁。
+     * @param keyframe 画板底图，可以为 null。
+     */
+    private void replaceContent(Image keyframe, List<Action> newActions) {
         actions.clear();
         actions.addAll(newActions);
-        repaint();
+        // 还没有回显的本地指令之后会以普通指令的形式到达
+        unconfirmed.clear();
+        clearSteps();
+        this.keyframe = keyframe;
+        invalidateTiles();
     }
 
-    private void addActionAndRepaint(Action action) {
-        actions.add(action);
-        repaint();
+    private void clearSteps() {
+        undoSteps.clear();
+        redoSteps.clear();
+        gesture = null;
     }
 
+    /**
+     * 切换是否可以绘图。没有绘图权限时仍然可以平移和缩放视图，组件本身始终保持启用，只切换光标；
+     * 绘图前另有 {@link ClientApp#canDraw()} 检查。
+     */
     @Override
     public void setEnabled(boolean enabled) {
-        super.setEnabled(enabled);
         if (enabled) {
             setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
         } else {
@@ -195,10 +876,53 @@ public class DrawingPanel extends JPanel {
     }
 
 
-    public List<Action> getActions() { return new ArrayList<>(actions); }
+    public List<Action> getActions() {
+        synchronized (actions) {
+            return actions.actions();
+        }
+    }
+
+    /**
+     * 为画板的当前内容创建导出器，包括加入房间时收到的底图。可以在任意线程中调用。
+     */
+    public BoardExporter createExporter() {
+        synchronized (actions) {
+            BoardExporter exporter = new BoardExporter(actions.actions(), action -> true);
+            if (keyframe != null) {
+                exporter.setBaseImage(keyframe);
+            }
+            return exporter;
+        }
+    }
     private ClientApp getClientApp() { return mainFrame.getClientApp(); }
     public void setCurrentTool(ShapeType tool) { this.currentTool = tool; }
     public Color getCurrentColor() { return this.currentColor; }
     public void setCurrentColor(Color color) { this.currentColor = color; }
     public void setCurrentStroke(float stroke) { this.currentStroke = stroke; }
+
+    /**
+     * 服务器发送的一份完整快照。
+     */
+    private static final class Snapshot {
+        final Image keyframe;
+        final List<Action> actions;
+
+        Snapshot(Image keyframe, List<Action> actions) {
+            this.keyframe = keyframe;
+            this.actions = actions;
+        }
+    }
+
+    /**
+     * 一条等待服务器回显的本地指令。
+     */
+    private static final class Unconfirmed {
+        final Action action;
+        final byte[] key;
+
+        Unconfirmed(Action action, byte[] key) {
+            this.action = action;
+            this.key = key;
+        }
+    }
 }
\ No newline at end of file
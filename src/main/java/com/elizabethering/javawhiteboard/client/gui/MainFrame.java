@@ -3,10 +3,15 @@ package com.elizabethering.javawhiteboard.client.gui;
 import com.elizabethering.javawhiteboard.client.ClientApp;
 import com.elizabethering.javawhiteboard.shared.model.*;
 import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.render.BoardExporter;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.*;
@@ -47,9 +52,26 @@ public class MainFrame extends JFrame {
         add(drawingPanel, BorderLayout.CENTER);
         add(userListPanel, BorderLayout.EAST);
 
+        // Ctrl+Z 撤销，Ctrl+Y 重做
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo", drawingPanel::undo);
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo", drawingPanel::redo);
+        // Ctrl+0 复位视图
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_0, InputEvent.CTRL_DOWN_MASK), "resetView", drawingPanel::resetView);
+
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     }
 
+    private void bindKey(KeyStroke key, String name, Runnable command) {
+        JRootPane root = getRootPane();
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(key, name);
+        root.getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                command.run();
+            }
+        });
+    }
+
     private JToolBar createToolBar() {
         JToolBar toolBar = new JToolBar();
         toolBar.setFloatable(false);
@@ -83,6 +105,15 @@ public class MainFrame extends JFrame {
         toolBar.add(strokeSlider);
         toolBar.addSeparator();
 
+        // 撤销和重做
+        JButton undoButton = new JButton("撤销");
+        undoButton.addActionListener(e -> drawingPanel.undo());
+        toolBar.add(undoButton);
+        JButton redoButton = new JButton("重做");
+        redoButton.addActionListener(e -> drawingPanel.redo());
+        toolBar.add(redoButton);
+        toolBar.addSeparator();
+
         // 文件和画布操作
         JButton clearButton = new JButton("清空");
         clearButton.addActionListener(e -> drawingPanel.clearCanvas());
@@ -93,6 +124,12 @@ public class MainFrame extends JFrame {
         JButton loadButton = new JButton("加载");
         loadButton.addActionListener(e -> loadCanvas());
         toolBar.add(loadButton);
+        JButton exportButton = new JButton("导出");
+        exportButton.addActionListener(e -> exportCanvas());
+        toolBar.add(exportButton);
+        JButton resetViewButton = new JButton("复位视图");
+        resetViewButton.addActionListener(e -> drawingPanel.resetView());
+        toolBar.add(resetViewButton);
         toolBar.addSeparator();
 
         // 角色特定控件
@@ -213,29 +250,71 @@ public class MainFrame extends JFrame {
         }
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * 加载保存的画板。读取文件和上传都在后台线程中进行，加载大画板时界面不会卡住。
+     * 共享模式下老师加载的画板会分批上传到服务器，由服务器一次性替换房间的画板。
+     */
     private void loadCanvas() {
         JFileChooser fileChooser = new JFileChooser();
-        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(fileChooser.getSelectedFile()))) {
-                List<Action> loadedActions = (List<Action>) ois.readObject();
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+        boolean upload = clientApp.getSessionMode() == SessionMode.SHARED && clientApp.getUserRole() == UserRole.TEACHER;
+        Thread loader = new Thread(() -> {
+            try {
+                List<Action> loadedActions = readCanvas(file);
                 drawingPanel.setActions(loadedActions);
-                if (clientApp.getSessionMode() == SessionMode.SHARED && clientApp.getUserRole() == UserRole.TEACHER) {
-                    clientApp.sendAction(new ClearAction());
-                    for (Action action : loadedActions) {
-                        clientApp.sendAction(action);
-                    }
+                if (upload) {
+                    clientApp.uploadCanvas(loadedActions);
                 }
             } catch (IOException | ClassNotFoundException ex) {
-                JOptionPane.showMessageDialog(this, "加载失败: " + ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
+                SwingUtilities.invokeLater(() ->
+                        JOptionPane.showMessageDialog(this, "加载失败: " + ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE));
             }
+        }, "canvas-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 把画板导出为 PNG 或 SVG 图像，按文件扩展名选择格式，默认为 PNG。导出在后台线程中进行。
+     */
+    private void exportCanvas() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(new FileNameExtensionFilter("图像 (*.png, *.svg)", "png", "svg"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File selected = fileChooser.getSelectedFile();
+        String name = selected.getName().toLowerCase();
+        boolean svg = name.endsWith(".svg");
+        File file = svg || name.endsWith(".png") ? selected : new File(selected.getPath() + ".png");
+        BoardExporter exporter = drawingPanel.createExporter();
+        Thread worker = new Thread(() -> {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                if (svg) {
+                    exporter.writeSvg(out);
+                } else {
+                    exporter.writePng(out);
+                }
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "画布已导出到 " + file.getName()));
+            } catch (IOException ex) {
+                SwingUtilities.invokeLater(() ->
+                        JOptionPane.showMessageDialog(this, "导出失败: " + ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "canvas-exporter");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Action> readCanvas(File file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (List<Action>) ois.readObject();
         }
     }
 
     private String createTitle() {
         SessionMode mode = clientApp.getSessionMode();
         UserRole role = clientApp.getUserRole();
-        String modeStr = mode == SessionMode.PRIVATE ? "私人模式" : "共享模式";
+        String modeStr = mode == SessionMode.PRIVATE ? "私人模式" : "共享模式 [房间: " + clientApp.getRoomId() + "]";
         String roleStr = role != null ? " (" + role.toString().toLowerCase() + ")" : "";
         return "协作画板 - " + clientApp.getUsername() + " | " + modeStr + roleStr;
     }
@@ -2,6 +2,7 @@ package com.elizabethering.javawhiteboard.client.gui;
 
 import com.elizabethering.javawhiteboard.client.ClientApp;
 import com.elizabethering.javawhiteboard.shared.model.SessionMode;
+import com.elizabethering.javawhiteboard.shared.model.StartSessionAction;
 
 import javax.swing.*;
 import java.awt.*;
@@ -44,7 +45,10 @@ public class ModeSelectionFrame extends JFrame {
         });
 
         sharedButton.addActionListener(e -> {
-            clientApp.enterMode(SessionMode.SHARED);
+            String roomId = (String) JOptionPane.showInputDialog(this, "请输入要加入的房间号：", "加入共享会话",
+                    JOptionPane.QUESTION_MESSAGE, null, null, StartSessionAction.DEFAULT_ROOM);
+            if (roomId == null) return; // 用户取消
+            clientApp.enterMode(SessionMode.SHARED, roomId);
             dispose();
         });
 
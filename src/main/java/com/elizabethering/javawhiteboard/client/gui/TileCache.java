@@ -0,0 +1,155 @@
+package com.elizabethering.javawhiteboard.client.gui;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.render.ActionRenderer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 画板的分块光栅缓存。
+ * <p>
+ * 每个缩放级别下，设备像素坐标被划分为 {@link #TILE_SIZE} 见方的图块，每块在第一次显示时才画出，之后保留在缓存中。
+ * 新的指令直接画进它碰到的已缓存图块；移除或撤销的指令使它碰到的图块失效，下次显示时重新画。
+ * 缓存按最近使用的顺序淘汰，图块总数有上限，占用的内存与画板大小无关。
+ * <p>
+ * 图块按绝对坐标划分，平移视图不会使缓存失效。本类不是线程安全的，只由事件分发线程访问。
+ */
+final class TileCache {
+
+    /** 图块的边长，以设备像素计。 */
+    static final int TILE_SIZE = 256;
+
+    // 每块 256 KB，默认最多占用 64 MB；可通过 -Dwhiteboard.tile.cache 调整
+    private static final int DEFAULT_CAPACITY = Math.max(16, Integer.getInteger("whiteboard.tile.cache", 256));
+
+    private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private int capacity = DEFAULT_CAPACITY;
+
+    /**
+     * 取出缓存的图块并标记为最近使用，没有时返回 null。
+     */
+    Tile get(int level, long tx, long ty) {
+        return tiles.get(key(level, tx, ty));
+    }
+
+    /**
+     * 放入新画好的图块，超出容量时淘汰最久未使用的图块。
+     */
+    void put(Tile tile) {
+        tiles.put(key(tile.level, tile.tx, tile.ty), tile);
+        for (Iterator<Tile> it = tiles.values().iterator(); tiles.size() > capacity && it.hasNext(); ) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * 保证容量足够同时容纳一屏的图块，窗口很大时一屏的图块不会互相淘汰。
+     */
+    void ensureCapacity(int visibleTiles) {
+        capacity = Math.max(DEFAULT_CAPACITY, visibleTiles * 2);
+    }
+
+    /**
+     * 把新加入的指令画进它们碰到的已缓存图块。
+     */
+    void draw(List<Action> actions) {
+        if (tiles.isEmpty() || actions.isEmpty()) return;
+        Rectangle2D[] bounds = new Rectangle2D[actions.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = ActionRenderer.bounds(actions.get(i));
+        }
+        for (Tile tile : tiles.values()) {
+            Graphics2D g2d = null;
+            for (int i = 0; i < bounds.length; i++) {
+                if (bounds[i] == null || !bounds[i].intersects(tile.world)) continue;
+                if (g2d == null) {
+                    g2d = tile.createGraphics();
+                }
+                ActionRenderer.draw(g2d, actions.get(i));
+            }
+            if (g2d != null) {
+                g2d.dispose();
+            }
+        }
+    }
+
+    /**
+     * 丢弃与指定区域（画板坐标）相交的所有图块。
+     */
+    void invalidate(Rectangle2D area) {
+        tiles.values().removeIf(tile -> tile.world.intersects(area));
+    }
+
+    void clear() {
+        tiles.clear();
+    }
+
+    private static Long key(int level, long tx, long ty) {
+        return ((long) (level & 0x3F) << 58) | ((tx & 0x1FFFFFFFL) << 29) | (ty & 0x1FFFFFFFL);
+    }
+
+    /**
+     * 一个图块：画板在某个缩放比例下的一块设备像素。
+     */
+    static final class Tile {
+        final int level;
+        final long tx;
+        final long ty;
+        // 画板坐标到设备像素的比例
+        final double scale;
+        // 图块覆盖的画板区域
+        final Rectangle2D world;
+        final BufferedImage image;
+
+        Tile(int level, long tx, long ty, double scale) {
+            this.level = level;
+            this.tx = tx;
+            this.ty = ty;
+            this.scale = scale;
+            this.world = new Rectangle2D.Double(tx * TILE_SIZE / scale, ty * TILE_SIZE / scale,
+                    TILE_SIZE / scale, TILE_SIZE / scale);
+            this.image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        }
+
+        /**
+         * 在图块上绘图的 Graphics，坐标系为画板坐标。
+         */
+        Graphics2D createGraphics() {
+            Graphics2D g2d = image.createGraphics();
+            g2d.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+            g2d.scale(scale, scale);
+            ActionRenderer.configure(g2d);
+            return g2d;
+        }
+
+        /**
+         * 从头画出图块：背景、画板底图，以及按绘制顺序排列的、与图块相交的指令。
+         */
+        void render(Color background, Image keyframe, List<Action> actions) {
+            Graphics2D g2d = image.createGraphics();
+            g2d.setColor(background);
+            g2d.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+            g2d.dispose();
+
+            g2d = createGraphics();
+            if (keyframe != null) {
+                // 加入房间时收到的画板底图，之后的指令画在它上面
+                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g2d.drawImage(keyframe, 0, 0, null);
+            }
+            for (Action action : actions) {
+                ActionRenderer.draw(g2d, action);
+            }
+            g2d.dispose();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+
+import java.util.List;
+
+/**
+ * 房间绘图历史的存储方式。
+ * <p>
+ * 写入（{@link #append} 和 {@link #clear}）只能由一个线程执行，即房间的定序线程；
+ * {@link #snapshot()} 可以在任意线程中调用，得到的快照在之后的追加和清空中保持不变。
+ */
+public interface ActionHistory {
+
+    /**
+     * 在末尾追加一条指令，只能由写线程调用。
+     */
+    void append(Action action);
+
+    /**
+     * 清空历史，只能由写线程调用。已经取得的快照不受影响。
+     */
+    void clear();
+
+    /**
+     * 只保留前 {@code size} 条指令，只能由写线程调用。已经取得的快照不受影响。
+     * 用于从某个位置开始改写历史：先截断，再追加新的内容。
+     */
+    void truncate(int size);
+
+    int size();
+
+    /**
+     * 释放历史占用的存储，只能由写线程调用，之后不能再写入。已经取得的快照不受影响。
+     */
+    default void close() {
+    }
+
+    /**
+     * 返回当前历史的一致快照。快照是只读的，支持随机访问。
+     */
+    List<Action> snapshot();
+}
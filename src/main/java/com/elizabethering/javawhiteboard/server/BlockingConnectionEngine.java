@@ -0,0 +1,62 @@
+package com.elizabethering.javawhiteboard.server;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * 传统的连接引擎：为每个连接的客户端创建一个独立的线程进行阻塞读取。
+ */
+public class BlockingConnectionEngine implements ConnectionEngine {
+
+    private final ServerApp server;
+    private final int port;
+    private final int queueCapacity;
+
+    public BlockingConnectionEngine(ServerApp server, int port, int queueCapacity) {
+        this.server = server;
+        this.port = port;
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public void start() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("多功能协作画板服务器已启动（阻塞模式），正在监听 " + port + " 端口...");
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                SocketConnection connection;
+                try {
+                    connection = new SocketConnection(clientSocket, queueCapacity);
+                } catch (IOException e) {
+                    // 单个连接在建立过程中出错（例如对方立即重置）不影响其他连接
+                    System.err.println("无法建立新的连接: " + e.getMessage());
+                    try {
+                        clientSocket.close();
+                    } catch (IOException ignored) {
+                        // 忽略关闭异常
+                    }
+                    continue;
+                }
+                ClientHandler clientHandler = server.createClientHandler(connection);
+                connection.startWriter("writer-" + connection.getRemoteAddress());
+                new Thread(() -> readLoop(connection, clientHandler)).start();
+            }
+        }
+    }
+
+    private void readLoop(SocketConnection connection, ClientHandler clientHandler) {
+        try {
+            while (true) {
+                clientHandler.handleAction(connection.readAction());
+            }
+        } catch (StreamCorruptedException e) {
+            System.err.println("客户端 " + connection.getRemoteAddress() + " 发送了无法解析的数据，连接已关闭: " + e.getMessage());
+        } catch (IOException e) {
+            // 客户端断开
+        } finally {
+            clientHandler.onDisconnect();
+        }
+    }
+}
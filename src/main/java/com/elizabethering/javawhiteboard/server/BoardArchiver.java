@@ -0,0 +1,99 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.render.BoardExporter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每天在固定时刻把所有房间的画板导出为 PNG 和 SVG，作为当天课堂的存档。
+ * <p>
+ * 文件写入 {@code <导出目录>/<日期>/<房间号>.png} 和 {@code .svg}，房间号中的特殊字符与日志文件名一样被转义。
+ * 导出在单独的低优先级线程中进行，每个房间读取调用时刻的历史快照，不会阻塞定序线程。
+ * 没有图形的房间不导出。
+ */
+final class BoardArchiver {
+
+    private final RoomRegistry rooms;
+    private final Path dir;
+    private final LocalTime time;
+
+    BoardArchiver(RoomRegistry rooms, Path dir, LocalTime time) {
+        this.rooms = rooms;
+        this.dir = dir;
+        this.time = time;
+    }
+
+    /**
+     * 启动每天一次的导出任务。
+     */
+    void start() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "board-archiver");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = now.toLocalDate().atTime(time);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        // 按固定间隔调度，夏令时切换的那天会相差一小时，对存档没有影响
+        scheduler.scheduleAtFixedRate(this::exportAll, Duration.between(now, next).toMillis(),
+                TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+        System.out.println("每天 " + time + " 把所有房间的画板导出到 " + dir.toAbsolutePath());
+    }
+
+    /**
+     * 把所有房间的画板导出到以当天日期命名的目录中。单个房间导出失败不影响其他房间。
+     */
+    void exportAll() {
+        Path target = dir.resolve(LocalDate.now().toString());
+        int exported = 0;
+        long start = System.nanoTime();
+        for (Room room : rooms.getRooms()) {
+            if (room.getDrawingHistory().isEmpty()) continue;
+            try {
+                export(room, target);
+                exported++;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("导出房间 [" + room.getId() + "] 的画板失败: " + e.getMessage());
+            }
+        }
+        System.out.println("已导出 " + exported + " 个房间的画板到 " + target + "，耗时 "
+                + (System.nanoTime() - start) / 1_000_000 + " ms。");
+    }
+
+    private static void export(Room room, Path target) throws IOException {
+        Files.createDirectories(target);
+        String name = fileName(room.getId());
+        BoardExporter exporter = room.createExporter();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.resolve(name + ".png")))) {
+            exporter.writePng(out);
+        }
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target.resolve(name + ".svg")))) {
+            exporter.writeSvg(out);
+        }
+    }
+
+    private static String fileName(String roomId) {
+        try {
+            return URLEncoder.encode(roomId, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.elizabethering.javawhiteboard.server;
+
+/**
+ * 一个客户端连接的传输层抽象。
+ * {@link ClientHandler} 只负责指令分发，具体的读写由阻塞式或 NIO 式的实现完成。
+ */
+public interface ClientConnection {
+
+    /**
+     * 该连接的出站队列。入队后由连接自己的写线程负责发送。
+     */
+    OutboundQueue getOutboundQueue();
+
+    /**
+     * 关闭连接。重复调用是安全的。
+     */
+    void close();
+
+    boolean isOpen();
+
+    /**
+     * 远端地址，仅用于日志。
+     */
+    String getRemoteAddress();
+}
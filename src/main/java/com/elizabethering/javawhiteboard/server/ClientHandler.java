@@ -2,62 +2,93 @@ package com.elizabethering.javawhiteboard.server;
 
 import com.elizabethering.javawhiteboard.shared.model.*;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * 为每个连接的客户端创建一个独立的线程进行处理。
+ * 每个连接的客户端对应一个处理器，负责解析后的指令分发。
+ * 网络读写由 {@link ClientConnection} 的实现负责，处理器本身与传输方式无关。
  */
-public class ClientHandler implements Runnable {
+public class ClientHandler {
 
-    private final Socket clientSocket;
+    // 登录和注册访问数据库，在这个线程中进行，不占用 Selector 线程；SQLite 的写入本来就是串行的
+    private static final ExecutorService DATABASE = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "database");
+        t.setDaemon(true);
+        return t;
+    });
+    // 房间定序缓冲区已满、重新同步的请求没能提交时，稍后在这个线程中重试
+    private static final ScheduledExecutorService RETRY = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "resync-retry");
+        t.setDaemon(true);
+        return t;
+    });
+    /** 重新同步请求的重试间隔（毫秒）。 */
+    private static final long RESYNC_RETRY_MILLIS = 100;
+    // 等待登录结果期间最多暂存的指令数
+    private static final int MAX_DEFERRED = 1024;
+
+    private final ClientConnection connection;
     private final ServerApp server;
     private final DatabaseManager dbManager;
-    private final SessionManager sessionManager;
-    private ObjectOutputStream oos;
     private volatile String username = null;
     private volatile UserRole role = null;
-    private volatile boolean inSharedMode = false;
+    // 当前所在的共享画板房间，为 null 表示不在共享模式
+    private volatile Room room = null;
+    private final OverflowPolicy overflowPolicy;
+    private volatile boolean resyncPending = false;
+    // 正在访问数据库时收到的指令按顺序暂存，完成后再处理；由 authLock 保护
+    private final Object authLock = new Object();
+    private final Deque<Action> deferred = new ArrayDeque<>();
+    private boolean authPending = false;
 
-    public ClientHandler(Socket socket, ServerApp server, DatabaseManager dbManager, SessionManager sessionManager) {
-        this.clientSocket = socket;
+    public ClientHandler(ClientConnection connection, ServerApp server, DatabaseManager dbManager,
+                         OverflowPolicy overflowPolicy) {
+        this.connection = connection;
         this.server = server;
         this.dbManager = dbManager;
-        this.sessionManager = sessionManager;
+        this.overflowPolicy = overflowPolicy;
+        connection.getOutboundQueue().setDrainedListener(this::onOutboundDrained);
     }
 
-    @Override
-    public void run() {
-        try {
-            oos = new ObjectOutputStream(clientSocket.getOutputStream());
-            ObjectInputStream ois = new ObjectInputStream(clientSocket.getInputStream());
-            while (true) {
-                Action receivedAction = (Action) ois.readObject();
-                handleAction(receivedAction);
-            }
-        } catch (IOException | ClassNotFoundException e) {
-            // 客户端断开
-        } finally {
-            server.removeClient(this);
-            try {
-                if (!clientSocket.isClosed()) clientSocket.close();
-            } catch (IOException e) {
-                // 忽略关闭异常
+    /**
+     * 连接断开时由连接引擎调用。
+     */
+    void onDisconnect() {
+        server.removeClient(this);
+        connection.close();
+    }
+
+    /**
+     * 处理客户端发来的一条指令，由连接引擎的读取线程调用（NIO 模式下为 Selector 线程），不会阻塞。
+     */
+    void handleAction(Action action) {
+        synchronized (authLock) {
+            if (authPending) {
+                if (deferred.size() < MAX_DEFERRED) {
+                    deferred.addLast(action);
+                }
+                return;
             }
         }
+        dispatch(action);
     }
 
-    private void handleAction(Action action) throws IOException {
-        if (username == null) {
-            // 处理登录和注册
+    /**
+     * 在数据库线程中完成登录或注册，再按顺序处理期间暂存的指令。
+     */
+    private void authenticate(Action action) {
+        try {
             if (action instanceof RegisterAction) {
                 RegisterAction ra = (RegisterAction) action;
                 boolean success = dbManager.registerUser(ra.getUsername(), ra.getPassword());
                 sendAction(new AuthResultAction(success, success ? "注册成功！请登录。" : "注册失败，用户名可能已存在。", null));
-            } else if (action instanceof LoginAction) {
+            } else {
                 LoginAction la = (LoginAction) action;
                 boolean success = dbManager.loginUser(la.getUsername(), la.getPassword());
                 if (success) {
@@ -68,57 +99,223 @@ public class ClientHandler implements Runnable {
                     sendAction(new AuthResultAction(false, "登录失败，用户名或密码错误。", null));
                 }
             }
-            return;
+        } catch (RuntimeException e) {
+            System.err.println("处理登录或注册时出错: " + e.getMessage());
         }
+        // 暂存期间 authPending 保持为 true，新到的指令继续排在后面，顺序不会被打乱
+        while (true) {
+            Action next;
+            synchronized (authLock) {
+                // 等待期间连接已断开时，暂存的指令（例如加入房间）不再处理
+                next = connection.isOpen() ? deferred.pollFirst() : null;
+                if (next == null) {
+                    deferred.clear();
+                    authPending = false;
+                    return;
+                }
+            }
+            if (dispatch(next)) return; // 又开始了一次登录，由它完成后继续处理
+        }
+    }
 
+    /**
+     * @return 是否把指令交给了数据库线程。
+     */
+    private boolean dispatch(Action action) {
+        if (username == null) {
+            // 登录和注册在数据库线程中处理，完成前收到的指令暂存
+            if (action instanceof RegisterAction || action instanceof LoginAction) {
+                synchronized (authLock) {
+                    authPending = true;
+                }
+                DATABASE.execute(() -> authenticate(action));
+                return true;
+            }
+            return false;
+        }
 
-        if (action instanceof StartSessionAction) {
-            this.inSharedMode = true;
-            this.role = sessionManager.addUserToSession(this); // 加入会话并获取角色
-            boolean canDraw = sessionManager.canDraw(this);   // 获取初始权限
-
-            System.out.println("用户 " + this.username + " 已进入共享模式，角色为: " + this.role + "，初始权限: " + canDraw);
-
-            // 1. 立即向该用户发送其角色和权限信息
-            sendAction(new SessionJoinResultAction(this.role, canDraw));
 
-            // 2. 接着发送绘图历史
-            List<Action> history = server.getDrawingHistory();
-            for (Action histAction : history) {
-                sendAction(histAction);
+        if (action instanceof StartSessionAction) {
+            // 切换房间前先离开原来的房间
+            leaveRoom();
+            String roomId = ((StartSessionAction) action).getRoomId();
+            Room target = server.getRoomRegistry().getOrCreate(roomId);
+            if (target == null) {
+                // 房间数已达上限，沿用认证结果指令把原因显示给用户
+                sendAction(new AuthResultAction(false, "服务器上的房间数已达上限，暂时无法创建新房间，请稍后再试。", username));
+                return false;
             }
+            // 先记录所在房间，之后读到的绘图指令会排在加入事件之后由房间的定序线程处理
+            this.room = target;
+            if (!target.join(this)) {
+                this.room = null;
+                System.out.println("房间 [" + roomId + "] 的定序缓冲区已满，用户 " + username + " 无法加入，断开连接。");
+                connection.close();
+            }
+            return false;
+        }
 
-            // 3. 最后，向会话中的所有人（包括刚加入的）广播更新后的用户列表
-            server.updateAndBroadcastUserList();
-
+        Room current = room;
+        if (action instanceof LogoutAction) {
+            connection.close();
+        } else if (current == null) {
+            // 不在任何房间中时，会话与绘图指令都没有意义
+            return false;
         } else if (action instanceof PermissionRequestAction) {
-            sessionManager.handlePermissionRequest(this);
+            current.getSessionManager().handlePermissionRequest(this);
         } else if (action instanceof PermissionResponseAction) {
             PermissionResponseAction pra = (PermissionResponseAction) action;
-            sessionManager.handlePermissionResponse(pra.getStudentUsername(), pra.isGranted());
-            server.updateAndBroadcastUserList();
+            current.getSessionManager().handlePermissionResponse(pra.getStudentUsername(), pra.isGranted());
+            current.updateAndBroadcastUserList();
         } else if (action instanceof RevokePermissionAction) {
             RevokePermissionAction rpa = (RevokePermissionAction) action;
-            sessionManager.handleRevokePermission(rpa.getStudentUsername());
-            server.updateAndBroadcastUserList();
-        } else if (action instanceof LogoutAction) {
-            try { clientSocket.close(); } catch (IOException e) {}
+            current.getSessionManager().handleRevokePermission(rpa.getStudentUsername());
+            current.updateAndBroadcastUserList();
+        } else if (action instanceof HistorySnapshotAction) {
+            // 老师加载画板时分批上传的历史
+            if (!current.upload((HistorySnapshotAction) action, this)) {
+                onSequencerFull(current);
+            }
         } else {
             // 其他绘图指令
-            if (inSharedMode) {
-                server.processAndBroadcastSharedAction(action, this);
+            if (!current.submit(action, this)) {
+                onSequencerFull(current);
             }
         }
+        return false;
+    }
+
+    /**
+     * 由房间的定序线程在处理加入事件时调用，记录分配的角色。
+     */
+    void setRole(UserRole role) {
+        this.role = role;
+    }
+
+    /**
+     * 离开当前所在的房间（如果有）。
+     */
+    void leaveRoom() {
+        Room current = room;
+        if (current != null) {
+            current.leave(this);
+            room = null;
+        }
+    }
+
+    /**
+     * 将指令放入该客户端的出站队列，不会阻塞调用线程。
+     */
+    public void sendAction(Action action) {
+        sendMessage(new OutboundMessage(action));
+    }
+
+    /**
+     * 将一条可能被多个客户端共享的消息放入出站队列。
+     * 队列已满时按照 {@link OverflowPolicy} 处理。
+     */
+    public void sendMessage(OutboundMessage message) {
+        if (!connection.isOpen()) return;
+        Action action = message.getAction();
+        OutboundQueue queue = connection.getOutboundQueue();
+        if (resyncPending && isSnapshotContent(action)) {
+            // 等待重新同步期间，画板内容会包含在快照中，无需单独发送
+            queue.recordDropped();
+            return;
+        }
+        if (queue.offer(message)) return;
+
+        switch (overflowPolicy) {
+            case DISCONNECT:
+                System.out.println("用户 " + username + " 的出站队列已满 (" + queue.getCapacity() + ")，断开连接。");
+                connection.close();
+                break;
+            case DROP_EPHEMERAL:
+                if (isEphemeral(action)) {
+                    queue.recordDropped();
+                    return;
+                }
+                if (queue.removeIf(ClientHandler::isEphemeral) > 0 && queue.offer(message)) {
+                    return;
+                }
+                markForResync(queue, "用户 " + username + " 的出站队列已满");
+                break;
+            case RESYNC:
+            default:
+                markForResync(queue, "用户 " + username + " 的出站队列已满");
+                break;
+        }
     }
 
-    public void sendAction(Action action) throws IOException {
-        if (oos != null && !clientSocket.isClosed()) {
-            oos.writeObject(action);
-            oos.flush();
+    /**
+     * 房间的定序缓冲区已满，发来的指令被丢弃。不等待定序线程，按 {@link OverflowPolicy} 处理发送者：
+     * 断开，或者让它重新同步，用服务器上的画板替换本地已经画出但没有提交成功的内容。
+     */
+    private void onSequencerFull(Room current) {
+        if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+            System.out.println("房间 [" + current.getId() + "] 的定序缓冲区已满，断开用户 " + username + "。");
+            connection.close();
+        } else if (!resyncPending) {
+            markForResync(connection.getOutboundQueue(), "房间 [" + current.getId() + "] 的定序缓冲区已满");
         }
     }
 
+    private void markForResync(OutboundQueue queue, String reason) {
+        if (room == null) {
+            // 不在共享会话中就没有快照可以重发，只能断开
+            connection.close();
+            return;
+        }
+        // 先丢弃再标记：两步之间新入队的绘图消息排在快照之前，客户端收到快照后会整体替换画板，不影响结果
+        int dropped = queue.removeIf(ClientHandler::isSnapshotContent);
+        resyncPending = true;
+        queue.wakeUp();
+        System.out.println(reason + "，丢弃用户 " + username + " 的 " + dropped + " 条待发绘图消息，等待重新同步。");
+    }
+
+    /**
+     * 写线程取空队列时调用。如果该客户端被标记为需要重新同步，则发送一次完整快照。
+     */
+    private void onOutboundDrained() {
+        Room current = room;
+        if (resyncPending && connection.isOpen() && current != null && !current.requestResync(this)) {
+            // 等待快照期间绘图消息不入队，写线程可能不会再次取空，需要主动重试
+            RETRY.schedule(connection.getOutboundQueue()::wakeUp, RESYNC_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 由房间的定序线程调用，原子地清除重新同步标记并将快照放入队列。
+     * @param snapshot 完整画板内容的快照（底图和历史片段），客户端收到最后一个片段后整体替换画板，不需要先发送清空指令。
+     */
+    void deliverResync(List<OutboundMessage> snapshot) {
+        resyncPending = false;
+        connection.getOutboundQueue().forceOfferAll(snapshot);
+    }
+
+    boolean isResyncPending() { return resyncPending; }
+
+    /**
+     * 可以被后续消息完全替代的临时消息。
+     */
+    static boolean isEphemeral(Action action) {
+        return action instanceof UserListUpdateAction;
+    }
+
+    /**
+     * 会被完整画板快照覆盖的消息。
+     */
+    static boolean isSnapshotContent(Action action) {
+        return action instanceof ShapeAction || action instanceof StrokeAction || action instanceof TextAction
+                || action instanceof ClearAction || action instanceof RemoveAction || action instanceof TombstoneAction
+                || action instanceof HistorySnapshotAction
+                || action instanceof KeyframeAction;
+    }
+
+    public int getOutboundQueueDepth() { return connection.getOutboundQueue().size(); }
+    public OutboundQueue getOutboundQueue() { return connection.getOutboundQueue(); }
     public String getUsername() { return username; }
     public UserRole getRole() { return role; }
-    public boolean isInSharedMode() { return inSharedMode; }
+    public boolean isInSharedMode() { return room != null; }
+    public Room getRoom() { return room; }
 }
\ No newline at end of file
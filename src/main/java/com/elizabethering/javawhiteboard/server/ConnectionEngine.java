@@ -0,0 +1,15 @@
+package com.elizabethering.javawhiteboard.server;
+
+import java.io.IOException;
+
+/**
+ * 服务器的连接引擎，负责接受连接并驱动每个连接的读写。
+ * 所有实现都把解析出的指令交给同一个 {@link ClientHandler} 进行分发。
+ */
+public interface ConnectionEngine {
+
+    /**
+     * 启动引擎并阻塞当前线程，直到服务器停止。
+     */
+    void start() throws IOException;
+}
@@ -0,0 +1,309 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.ClearAction;
+import com.elizabethering.javawhiteboard.shared.protocol.ActionFrames;
+import com.elizabethering.javawhiteboard.shared.protocol.WireFormat;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 一个房间的画板历史日志，只追加写入磁盘，服务器重启后据此恢复画板。
+ * <p>
+ * 每条记录是一个二进制格式的帧加上负载的 CRC32：{@code [int 长度][负载][int CRC32]}。
+ * 帧直接复用广播时已经编码好的 {@link OutboundMessage}，不需要再次编码。
+ * <p>
+ * 定序线程只把消息放入内存队列，从不等待磁盘。独立的写线程每次取出队列中积压的全部消息，
+ * 一次写入并只调用一次 {@code force}（组提交），积压越多每条记录分摊的 fsync 开销越小。
+ * 遇到 {@link ClearAction} 时把清空之后的记录写入临时文件并落盘，再原子地替换原日志，
+ * 日志的大小因此不会超过当前画板的历史，替换过程中崩溃也只会留下旧的或新的完整日志。
+ * <p>
+ * 写入失败后日志标记为失败并停止记录：跳过一批记录后再继续追加，重放出来的画板会缺少中间的修改。
+ */
+class HistoryJournal {
+
+    /** 日志文件的扩展名。 */
+    static final String EXTENSION = ".journal";
+    // 单次组提交的最大记录数
+    private static final int MAX_BATCH = 8192;
+    // 写线程空闲时检查是否正在关闭的间隔
+    private static final long CLOSE_POLL_MILLIS = 100;
+    // 清空时写入替换内容的临时文件的后缀，不会被当作日志文件加载
+    private static final String REPLACEMENT_SUFFIX = ".tmp";
+
+    private final String roomId;
+    private final Path file;
+    // 清空后会换成新文件的通道，启动后只由写线程访问
+    private FileChannel channel;
+    private final LinkedBlockingQueue<OutboundMessage> pending = new LinkedBlockingQueue<>();
+    private Thread writer;
+    private volatile boolean closing = false;
+    private volatile boolean failed = false;
+
+    // 只由写线程访问
+    private byte[] buffer = new byte[64 * 1024];
+    private long committed = 0;
+
+    private HistoryJournal(String roomId, Path file) throws IOException {
+        this.roomId = roomId;
+        this.file = file;
+        this.channel = openChannel(file);
+    }
+
+    private static FileChannel openChannel(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 打开（或创建）房间的日志文件。
+     */
+    static HistoryJournal open(Path dir, String roomId) throws IOException {
+        return new HistoryJournal(roomId, dir.resolve(fileName(roomId)));
+    }
+
+    /**
+     * 房间号对应的日志文件名，房间号中的特殊字符会被转义。
+     */
+    static String fileName(String roomId) {
+        try {
+            return URLEncoder.encode(roomId, "UTF-8") + EXTENSION;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 由日志文件名还原房间号，不是日志文件时返回 null。
+     */
+    static String roomIdOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(EXTENSION)) return null;
+        try {
+            return URLDecoder.decode(name.substring(0, name.length() - EXTENSION.length()), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按顺序重放日志中的所有指令，必须在 {@link #start()} 之前调用。
+     * 文件末尾不完整或校验失败的记录（例如写入过程中断电）会被截掉。
+     * @return 重放的记录数。
+     */
+    int replay(Consumer<Action> consumer) throws IOException {
+        channel.position(0);
+        InputStream raw = Channels.newInputStream(channel);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 256 * 1024));
+        long valid = 0;
+        int records = 0;
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                int length = in.readInt();
+                ActionFrames.checkLength(length);
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int checksum = in.readInt();
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("校验失败");
+                }
+                consumer.accept(ActionFrames.decode(payload, 0, length));
+                valid += ActionFrames.HEADER_SIZE + length + 4;
+                records++;
+            }
+        } catch (EOFException e) {
+            // 正常结束，或者最后一条记录不完整
+        } catch (IOException e) {
+            System.out.println("房间 [" + roomId + "] 的日志在第 " + (records + 1) + " 条记录处损坏: " + e.getMessage());
+        }
+        if (valid < channel.size()) {
+            System.out.println("截掉房间 [" + roomId + "] 日志末尾 " + (channel.size() - valid) + " 字节的不完整记录。");
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        committed = valid;
+        return records;
+    }
+
+    /**
+     * 启动后台写线程。
+     */
+    void start() {
+        writer = new Thread(this::runWriter, "journal-" + roomId);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 追加一条已经定序的绘图消息，不会阻塞。只由定序线程调用。
+     * 日志已经写入失败时直接丢弃。
+     */
+    void append(OutboundMessage message) {
+        if (failed) return;
+        pending.offer(message);
+    }
+
+    /**
+     * 日志是否因为写入失败而停止记录。
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * 写完所有已提交的消息后关闭日志。
+     */
+    void close() {
+        closing = true;
+        Thread t = writer;
+        if (t != null) {
+            try {
+                t.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("关闭房间 [" + roomId + "] 的日志失败: " + e.getMessage());
+        }
+    }
+
+    private void runWriter() {
+        List<OutboundMessage> batch = new ArrayList<>();
+        while (true) {
+            try {
+                // 不能用中断唤醒写线程：FileChannel 在写入时被中断会直接关闭
+                OutboundMessage first = pending.poll(CLOSE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch, MAX_BATCH);
+            if (!batch.isEmpty()) {
+                try {
+                    commit(batch);
+                } catch (IOException e) {
+                    System.err.println("写入房间 [" + roomId + "] 的日志失败，停止记录，之后的修改不会保存到磁盘: " + e.getMessage());
+                    failed = true;
+                    pending.clear();
+                    return;
+                }
+                batch.clear();
+            } else if (closing) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 把一批消息写入文件并强制落盘。
+     */
+    private void commit(List<OutboundMessage> batch) throws IOException {
+        int size = 0;
+        boolean cleared = false;
+        CRC32 crc = new CRC32();
+        for (OutboundMessage message : batch) {
+            if (message.getAction() instanceof ClearAction) {
+                // 清空之前的记录都不再需要
+                cleared = true;
+                size = 0;
+                continue;
+            }
+            byte[] frame = message.frame(WireFormat.BINARY);
+            int needed = size + frame.length + 4;
+            if (needed > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+            }
+            System.arraycopy(frame, 0, buffer, size, frame.length);
+            size += frame.length;
+            crc.reset();
+            crc.update(frame, ActionFrames.HEADER_SIZE, frame.length - ActionFrames.HEADER_SIZE);
+            int checksum = (int) crc.getValue();
+            buffer[size] = (byte) (checksum >>> 24);
+            buffer[size + 1] = (byte) (checksum >>> 16);
+            buffer[size + 2] = (byte) (checksum >>> 8);
+            buffer[size + 3] = (byte) checksum;
+            size += 4;
+        }
+        if (cleared) {
+            replace(size);
+            return;
+        }
+        ByteBuffer out = ByteBuffer.wrap(buffer, 0, size);
+        while (out.hasRemaining()) {
+            committed += channel.write(out, committed);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * 用缓冲区中的前 size 字节替换整个日志。新内容先在临时文件中落盘再改名，
+     * 崩溃时磁盘上要么是旧日志，要么是完整的新日志。
+     */
+    private void replace(int size) throws IOException {
+        Path replacement = file.resolveSibling(file.getFileName() + REPLACEMENT_SUFFIX);
+        try (FileChannel out = FileChannel.open(replacement, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer data = ByteBuffer.wrap(buffer, 0, size);
+            long written = 0;
+            while (data.hasRemaining()) {
+                written += out.write(data, written);
+            }
+            out.force(false);
+        }
+        Files.move(replacement, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        FileChannel old = channel;
+        channel = openChannel(file);
+        committed = size;
+        try {
+            old.close();
+        } catch (IOException e) {
+            System.err.println("关闭房间 [" + roomId + "] 的旧日志失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 让改名操作本身落盘。有的平台不能打开目录，这时只能依赖文件系统自己的顺序保证。
+     */
+    private void forceDirectory() {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir == null) return;
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // 忽略，例如 Windows 不支持打开目录
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,248 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.DrawingAction;
+import com.elizabethering.javawhiteboard.shared.model.KeyframeAction;
+import com.elizabethering.javawhiteboard.shared.render.ActionRenderer;
+import com.elizabethering.javawhiteboard.shared.render.TileRasterizer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 在后台为一个房间的画板维护栅格底图（关键帧）。
+ * <p>
+ * 历史每增长一定数量的指令，就把新增的指令增量地画到一张无界面的图像上，编码为 PNG 后发布。
+ * 新成员加入时先收到最新的底图，再只重放底图之后的指令，加入的开销只与画板尺寸有关，而与历史长度无关。
+ * 如果历史中有指令超出了底图的范围，底图只覆盖它之前（按片段对齐）的指令，它和之后的指令都随历史片段重放，
+ * 直到下一次清空或改写。已撤销的图形不画进底图。
+ * <p>
+ * {@link #onAppend}、{@link #invalidate} 和 {@link #latest} 只由房间的定序线程调用，渲染在共享的后台线程中进行；
+ * 一次渲染结束时如果历史又增长了足够多，渲染线程会直接开始下一次，使底图不会长期落后。
+ * 清空、撤销之后需要从头重画时，底图分成图块由 {@link TileRasterizer} 并行画出。
+ */
+class KeyframeBuilder {
+
+    // 所有房间共用一个渲染线程，渲染不会占用定序线程
+    private static final ExecutorService RENDERER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "keyframe-renderer");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // 从头重画时每次大约取出的指令数，整个历史不必同时复制一份
+    private static final int CHUNK_SIZE = 8192;
+
+    private final String roomId;
+    private final ActionHistory history;
+    private final Supplier<Tombstones> tombstones;
+    private final int interval;
+    private final int width;
+    private final int height;
+    private final int alignment;
+    private final AtomicBoolean rendering = new AtomicBoolean(false);
+
+    // 只由定序线程修改，清空或改写一次加一
+    private volatile int generation = 0;
+
+    // 只由渲染线程访问
+    private BufferedImage canvas;
+    private int renderedGeneration = -1;
+    private int renderedCount = 0;
+    // 底图最多能覆盖的指令数：第一条超出底图范围的指令所在片段的开头。由渲染线程写入，定序线程也会读取
+    private volatile int limit = Integer.MAX_VALUE;
+    private volatile int limitGeneration = -1;
+
+    private volatile Keyframe latest;
+
+    /**
+     * @param interval 每新增多少条指令渲染一次，0 表示不渲染。
+     * @param alignment 底图覆盖的指令数必须是它的整数倍，使之后的历史片段可以直接复用。
+     */
+    KeyframeBuilder(String roomId, ActionHistory history, Supplier<Tombstones> tombstones,
+                    int interval, int width, int height, int alignment) {
+        this.roomId = roomId;
+        this.history = history;
+        this.tombstones = tombstones;
+        this.interval = interval <= 0 ? 0 : Math.max(alignment, interval / alignment * alignment);
+        this.width = width;
+        this.height = height;
+        this.alignment = alignment;
+    }
+
+    /**
+     * 历史追加了新指令后调用，必要时在后台开始渲染新的底图。
+     */
+    void onAppend() {
+        if (interval == 0) return;
+        // 先读代数再取快照：两者之间如果发生清空或撤销，渲染结果会带着旧的代数被丢弃
+        int gen = generation;
+        List<Action> snapshot = history.snapshot();
+        Tombstones undone = tombstones.get();
+        Keyframe current = latest;
+        int covered = current != null && current.generation == gen ? current.coveredCount : 0;
+        int target = Math.min(snapshot.size() / alignment * alignment, limitGeneration == gen ? limit : Integer.MAX_VALUE);
+        if (target - covered < interval || !rendering.compareAndSet(false, true)) return;
+        RENDERER.execute(() -> {
+            boolean rendered = false;
+            try {
+                rendered = render(snapshot, undone, gen, target);
+            } catch (RuntimeException | IOException e) {
+                System.err.println("房间 [" + roomId + "] 渲染画板底图失败: " + e.getMessage());
+            } finally {
+                rendering.set(false);
+            }
+            if (rendered) {
+                onAppend();
+            }
+        });
+    }
+
+    /**
+     * 画板被清空、历史被改写或有图形被撤销、重做后调用，之前的底图全部失效。
+     */
+    void invalidate() {
+        generation++;
+    }
+
+    /**
+     * 有图形被撤销或重做后调用。只有改动的图形可能已经画进底图时才让底图失效，从头重画；
+     * 之后的图形不在底图里，新成员通过快照末尾的撤销状态得知它们是否显示。
+     * @param firstChanged 改动的图形中最小的序号。
+     */
+    void onTombstonesChanged(long firstChanged) {
+        Keyframe current = latest();
+        // 正在进行的渲染用的是改动前的撤销状态，不知道会覆盖到哪里，也要作废
+        if (rendering.get() || (current != null && firstChanged <= current.throughSequence)) {
+            invalidate();
+            onAppend();
+        }
+    }
+
+    /**
+     * 返回当前画板可用的最新底图，没有时返回 null。
+     */
+    Keyframe latest() {
+        Keyframe current = latest;
+        return current != null && current.generation == generation ? current : null;
+    }
+
+    /**
+     * @return 是否发布了新的底图。
+     */
+    private boolean render(List<Action> history, Tombstones undone, int gen, int target) throws IOException {
+        if (gen != renderedGeneration) {
+            if (canvas == null) {
+                canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+            Graphics2D g = canvas.createGraphics();
+            g.setColor(Color.WHITE); // 与客户端画板的背景色一致
+            g.fillRect(0, 0, width, height);
+            g.dispose();
+            renderedGeneration = gen;
+            renderedCount = 0;
+            limit = Integer.MAX_VALUE;
+        }
+        target = Math.min(target, limit);
+        if (target <= renderedCount) return false;
+
+        long start = System.nanoTime();
+        if (renderedCount == 0) {
+            // 从头重画：逐块取出历史送入图块并行画出，最后拼合到底图上
+            TileRasterizer tiles = new TileRasterizer(0, 0, width, height, TileRasterizer.DEFAULT_TILE_SIZE, Color.WHITE);
+            int step = Math.max(alignment, CHUNK_SIZE / alignment * alignment);
+            for (int from = 0; from < target; from += step) {
+                List<Action> chunk = visible(history, undone, from, Math.min(target, from + step));
+                tiles.draw(chunk);
+                ActionRenderer.releaseCaches(chunk);
+                target = Math.min(target, limit);
+            }
+            if (target == 0) return false;
+            Graphics2D g = canvas.createGraphics();
+            tiles.compositeTo(g);
+            g.dispose();
+        } else {
+            List<Action> added = visible(history, undone, renderedCount, target);
+            target = Math.min(target, limit);
+            if (target <= renderedCount) return false;
+            Graphics2D g2d = canvas.createGraphics();
+            try {
+                ActionRenderer.configure(g2d);
+                for (Action action : added) {
+                    ActionRenderer.draw(g2d, action);
+                }
+            } finally {
+                g2d.dispose();
+            }
+            ActionRenderer.releaseCaches(added);
+        }
+        renderedCount = target;
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(canvas, "png", png);
+        long sequence = ((DrawingAction) history.get(target - 1)).getSequence();
+        latest = new Keyframe(gen, target, sequence, new OutboundMessage(
+                new KeyframeAction(width, height, target, sequence, png.toByteArray())));
+        System.out.println("房间 [" + roomId + "] 已渲染画板底图，覆盖 " + target + " 条指令，PNG " + png.size() + " 字节，耗时 "
+                + (System.nanoTime() - start) / 1_000_000 + " ms。");
+        return true;
+    }
+
+    /**
+     * 取出历史中 [from, to) 范围内未撤销的指令，from 必须按片段对齐。
+     * 遇到超出底图范围的指令时，把 {@link #limit} 降到它所在片段的开头，只返回该位置之前的指令。
+     */
+    private List<Action> visible(List<Action> history, Tombstones undone, int from, int to) {
+        List<Action> result = new ArrayList<>(to - from);
+        // 当前片段开头之前的指令个数
+        int beforeChunk = 0;
+        for (int i = from; i < to; i++) {
+            if (i % alignment == 0) beforeChunk = result.size();
+            Action action = history.get(i);
+            if (undone.contains(((DrawingAction) action).getSequence())) continue;
+            Rectangle2D bounds = ActionRenderer.bounds(action);
+            // 客户端可以平移到负坐标，底图只覆盖从原点开始的区域，四个方向都要检查
+            if (bounds != null && (bounds.getMinX() < 0 || bounds.getMinY() < 0
+                    || bounds.getMaxX() > width || bounds.getMaxY() > height)) {
+                limit = i / alignment * alignment;
+                limitGeneration = renderedGeneration;
+                System.out.println("房间 [" + roomId + "] 的第 " + (i + 1) + " 条指令超出了底图范围 " + width + "x" + height
+                        + "，清空前底图最多覆盖前 " + limit + " 条指令。");
+                return result.subList(0, beforeChunk);
+            }
+            result.add(action);
+        }
+        return result;
+    }
+
+    /**
+     * 一张已经编码好的底图。
+     */
+    static final class Keyframe {
+        final int generation;
+        final int coveredCount;
+        // 底图包含的最后一条指令的序号
+        final long throughSequence;
+        // 所有新成员共享同一条消息，编码结果只计算一次
+        final OutboundMessage message;
+
+        Keyframe(int generation, int coveredCount, long throughSequence, OutboundMessage message) {
+            this.generation = generation;
+            this.coveredCount = coveredCount;
+            this.throughSequence = throughSequence;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.protocol.BinaryActionCodec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 保存在堆外内存映射文件中的绘图历史。
+ * <p>
+ * 每条指令以 {@link BinaryActionCodec} 编码后顺序写入数据分段，偏移索引（每条 12 字节：分段号、偏移、长度）
+ * 写入单独的索引分段，两者都是内存映射文件，不占用 Java 堆。堆中只保留分段的引用，
+ * 画板再大，堆的占用也基本不变，垃圾回收不需要扫描数以百万计的图形对象。
+ * <p>
+ * 读取时按索引定位并解码，每次 {@link List#get} 都会得到一个新的指令对象。
+ * 已写入的字节永不修改，快照只记录当前的目录和长度，可以在任意线程中安全遍历。
+ * <p>
+ * 截断后重新追加的指令写在数据分段末尾，被截掉的字节成为废弃字节。废弃字节超过阈值并且多于有效字节时，
+ * 有效的指令被重写到新的分段中。被替换的分段不等垃圾回收，在没有仍在使用的快照引用它们之后立即解除映射，
+ * 清空和关闭时也一样，映射文件占用的磁盘和内存随之释放。
+ * <p>
+ * 映射文件只是临时的存储，创建后立即标记为关闭时删除，不用于持久化（持久化由 {@link HistoryJournal} 负责）。
+ * 写入只能由一个线程执行，即房间的定序线程。
+ */
+public final class MappedActionLog implements ActionHistory {
+
+    /** 默认每个数据分段的字节数，单条指令不会跨分段。 */
+    private static final int DATA_SEGMENT_BYTES = 64 * 1024 * 1024;
+    /** 默认每个索引分段 2^16 条（768 KB），截断时最多复制一个索引分段。 */
+    private static final int INDEX_SHIFT = 16;
+    private static final int INDEX_ENTRY_BYTES = 12;
+
+    private static final BinaryActionCodec CODEC = new BinaryActionCodec();
+    private static final Consumer<ByteBuffer> UNMAPPER = findUnmapper();
+
+    private final Path dir;
+    private final int dataSegmentBytes;
+    private final int indexShift;
+    private final int indexMask;
+    private final long indexSegmentBytes;
+    private volatile Directory current = Directory.empty();
+
+    // 只由写线程访问：当前数据分段的写入视图和分段号
+    private ByteBuffer writeBuffer;
+    private int writeSegment = -1;
+    // 只由写线程访问：历史中的指令占用的字节数，以及当前所有数据分段中写入过的字节数
+    private long liveBytes;
+    private long writtenBytes;
+
+    // 仍可能被使用的快照，以及等它们不再使用后才能解除映射的分段；都由 live 的锁保护
+    private final Set<SnapshotRef> live = new HashSet<>();
+    private final ReferenceQueue<Snapshot> collected = new ReferenceQueue<>();
+    private final List<ByteBuffer> retired = new ArrayList<>();
+
+    /**
+     * @param dir 存放映射文件的目录。
+     */
+    public MappedActionLog(Path dir) throws IOException {
+        this(dir, DATA_SEGMENT_BYTES, INDEX_SHIFT);
+    }
+
+    MappedActionLog(Path dir, int dataSegmentBytes, int indexShift) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.dataSegmentBytes = dataSegmentBytes;
+        this.indexShift = indexShift;
+        this.indexMask = (1 << indexShift) - 1;
+        this.indexSegmentBytes = (long) INDEX_ENTRY_BYTES << indexShift;
+    }
+
+    @Override
+    public void append(Action action) {
+        try {
+            Directory dir = current;
+            int index = dir.size;
+            Directory written = write(dir, CODEC.encode(action));
+            if (written != dir) {
+                current = written;
+            }
+            written.size = index + 1; // volatile 写，发布写入的字节
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法写入映射历史", e);
+        }
+    }
+
+    /**
+     * 把一条编码后的指令写到目录末尾的位置，不修改目录的长度。
+     * @return 写入后的目录，分段数组扩容时是一个新的目录。
+     */
+    private Directory write(Directory dir, byte[] payload) throws IOException {
+        int index = dir.size;
+        if (writeBuffer == null || writeBuffer.remaining() < payload.length) {
+            dir = startDataSegment(dir, payload.length);
+        }
+        int indexSegment = index >>> indexShift;
+        if (indexSegment == dir.index.length) {
+            dir = new Directory(dir.data, Arrays.copyOf(dir.index, indexSegment * 2), index);
+        }
+        if (dir.index[indexSegment] == null) {
+            dir.index[indexSegment] = map(indexSegmentBytes);
+        }
+        int offset = writeBuffer.position();
+        writeBuffer.put(payload);
+        ByteBuffer entries = dir.index[indexSegment];
+        int base = (index & indexMask) * INDEX_ENTRY_BYTES;
+        entries.putInt(base, writeSegment);
+        entries.putInt(base + 4, offset);
+        entries.putInt(base + 8, payload.length);
+        liveBytes += payload.length;
+        writtenBytes += payload.length;
+        return dir;
+    }
+
+    /**
+     * 映射一个新的数据分段作为写入位置。
+     */
+    private Directory startDataSegment(Directory dir, int needed) throws IOException {
+        int segment = writeSegment + 1;
+        if (segment == dir.data.length) {
+            dir = new Directory(Arrays.copyOf(dir.data, segment * 2), dir.index, dir.size);
+        }
+        MappedByteBuffer buffer = map(Math.max(dataSegmentBytes, needed));
+        dir.data[segment] = buffer;
+        writeBuffer = buffer.duplicate();
+        writeSegment = segment;
+        return dir;
+    }
+
+    private MappedByteBuffer map(long size) throws IOException {
+        Path file = Files.createTempFile(dir, "history-", ".seg");
+        // 关闭通道后映射仍然有效，文件随之删除，磁盘空间和内存在解除映射时释放
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    @Override
+    public void clear() {
+        writeBuffer = null;
+        writeSegment = -1;
+        liveBytes = 0;
+        writtenBytes = 0;
+        synchronized (live) {
+            Directory dir = current;
+            current = Directory.empty();
+            retireAll(dir);
+            releaseRetired();
+        }
+    }
+
+    /**
+     * 清空历史并释放所有分段。仍在使用的快照引用的分段在快照不再使用后释放。
+     */
+    @Override
+    public void close() {
+        clear();
+    }
+
+    /**
+     * 截断点之后的索引项会被之后的追加覆盖。只有仍有快照能看到这些索引项时才复制截断点所在的索引分段，
+     * 否则直接在原地覆盖；截断点之后的其他索引分段被释放。
+     * 数据分段只追加、从不覆盖，被截掉的指令所占的字节计为废弃字节，积累到一定程度后整体重写。
+     */
+    @Override
+    public void truncate(int size) {
+        Directory dir = current;
+        if (size >= dir.size) return;
+        if (size <= 0) {
+            clear();
+            return;
+        }
+        liveBytes -= bytesBetween(dir, size, dir.size);
+        long dead = writtenBytes - liveBytes;
+        try {
+            if (dead >= dataSegmentBytes / 2 && dead > liveBytes) {
+                rewrite(dir, size);
+                return;
+            }
+            synchronized (live) {
+                releaseRetired();
+                ByteBuffer[] index = Arrays.copyOf(dir.index, dir.index.length);
+                List<ByteBuffer> dropped = new ArrayList<>();
+                int boundary = size >>> indexShift;
+                if ((size & indexMask) != 0) {
+                    if (isVisibleBeyond(index[boundary], boundary, size)) {
+                        ByteBuffer copy = map(indexSegmentBytes);
+                        ByteBuffer source = index[boundary].duplicate();
+                        source.position(0);
+                        source.limit((size & indexMask) * INDEX_ENTRY_BYTES);
+                        copy.duplicate().put(source);
+                        dropped.add(index[boundary]);
+                        index[boundary] = copy;
+                    }
+                    boundary++;
+                }
+                for (int i = boundary; i < index.length; i++) {
+                    if (index[i] != null) {
+                        dropped.add(index[i]);
+                        index[i] = null;
+                    }
+                }
+                current = new Directory(dir.data, index, size);
+                retired.addAll(dropped);
+                releaseRetired();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法截断映射历史", e);
+        }
+    }
+
+    /**
+     * 把前 {@code size} 条指令复制到新的分段中，替换原来的所有分段。
+     */
+    private void rewrite(Directory dir, int size) throws IOException {
+        long start = System.nanoTime();
+        long dead = writtenBytes - liveBytes;
+        writeBuffer = null;
+        writeSegment = -1;
+        liveBytes = 0;
+        writtenBytes = 0;
+        Directory fresh = Directory.empty();
+        for (int i = 0; i < size; i++) {
+            fresh = write(fresh, read(dir.data, dir.index, i));
+            fresh.size = i + 1;
+        }
+        synchronized (live) {
+            current = fresh;
+            retireAll(dir);
+            releaseRetired();
+        }
+        System.out.println("映射历史重写了 " + size + " 条指令（" + liveBytes / 1024 + " KB），回收废弃数据 "
+                + dead / 1024 + " KB，耗时 " + (System.nanoTime() - start) / 1_000_000 + " ms。");
+    }
+
+    /**
+     * 第 {@code from} 到 {@code to - 1} 条指令占用的字节数。
+     */
+    private long bytesBetween(Directory dir, int from, int to) {
+        long bytes = 0;
+        for (int i = from; i < to; i++) {
+            bytes += dir.index[i >>> indexShift].getInt((i & indexMask) * INDEX_ENTRY_BYTES + 8);
+        }
+        return bytes;
+    }
+
+    /**
+     * 是否有仍在使用的快照能看到某个索引分段中第 {@code size} 条之后的索引项。只在持有 live 的锁时调用。
+     */
+    private boolean isVisibleBeyond(ByteBuffer segment, int position, int size) {
+        for (SnapshotRef ref : live) {
+            if (ref.size > size && ref.index.length > position && ref.index[position] == segment) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把目录中的所有分段加入待释放列表。只在持有 live 的锁时调用。
+     */
+    private void retireAll(Directory dir) {
+        for (ByteBuffer buffer : dir.data) {
+            if (buffer != null) retired.add(buffer);
+        }
+        for (ByteBuffer buffer : dir.index) {
+            if (buffer != null) retired.add(buffer);
+        }
+    }
+
+    /**
+     * 解除不再被任何快照引用的废弃分段的映射。只在持有 live 的锁时调用。
+     */
+    private void releaseRetired() {
+        for (Reference<? extends Snapshot> ref; (ref = collected.poll()) != null; ) {
+            live.remove(ref);
+        }
+        for (Iterator<ByteBuffer> it = retired.iterator(); it.hasNext(); ) {
+            ByteBuffer buffer = it.next();
+            if (!isReferenced(buffer)) {
+                it.remove();
+                unmap(buffer);
+            }
+        }
+    }
+
+    private boolean isReferenced(ByteBuffer buffer) {
+        for (SnapshotRef ref : live) {
+            for (ByteBuffer b : ref.data) {
+                if (b == buffer) return true;
+            }
+            for (ByteBuffer b : ref.index) {
+                if (b == buffer) return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return current.size;
+    }
+
+    /**
+     * 取得快照和写线程替换目录都在 live 的锁内进行，写线程释放分段时一定能看到引用它们的所有快照。
+     */
+    @Override
+    public List<Action> snapshot() {
+        synchronized (live) {
+            releaseRetired();
+            Directory dir = current;
+            Snapshot snapshot = new Snapshot(dir.data, dir.index, dir.size);
+            live.add(new SnapshotRef(snapshot, collected));
+            return snapshot;
+        }
+    }
+
+    /**
+     * 当前映射着的分段数，包括等待释放的分段。
+     */
+    int mappedSegments() {
+        synchronized (live) {
+            Directory dir = current;
+            int count = retired.size();
+            for (ByteBuffer buffer : dir.data) {
+                if (buffer != null) count++;
+            }
+            for (ByteBuffer buffer : dir.index) {
+                if (buffer != null) count++;
+            }
+            return count;
+        }
+    }
+
+    private byte[] read(ByteBuffer[] data, ByteBuffer[] index, int i) {
+        // 绝对位置的读取不修改缓冲区状态，多个线程可以同时读
+        ByteBuffer entries = index[i >>> indexShift];
+        int base = (i & indexMask) * INDEX_ENTRY_BYTES;
+        ByteBuffer source = data[entries.getInt(base)].duplicate();
+        source.position(entries.getInt(base + 4));
+        byte[] payload = new byte[entries.getInt(base + 8)];
+        source.get(payload);
+        return payload;
+    }
+
+    /**
+     * 立即解除一个由 {@link #map} 返回的映射，解除后不能再访问。无法解除时交给垃圾回收。
+     */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            UNMAPPER.accept(buffer);
+        } catch (RuntimeException e) {
+            System.err.println("无法解除映射历史分段，将在垃圾回收时释放: " + e.getMessage());
+        }
+    }
+
+    private static Consumer<ByteBuffer> findUnmapper() {
+        try {
+            // Java 9 及以上
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java 8 没有 invokeCleaner
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object c = invoke(cleaner, buffer);
+                if (c != null) invoke(clean, c);
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("无法主动解除内存映射，废弃的映射历史分段将在垃圾回收时释放。");
+            return buffer -> { };
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e.toString(), e);
+        }
+    }
+
+    private static final class Directory {
+        final ByteBuffer[] data;
+        final ByteBuffer[] index;
+        volatile int size;
+
+        Directory(ByteBuffer[] data, ByteBuffer[] index, int size) {
+            this.data = data;
+            this.index = index;
+            this.size = size;
+        }
+
+        static Directory empty() {
+            return new Directory(new ByteBuffer[4], new ByteBuffer[4], 0);
+        }
+    }
+
+    /**
+     * 记录一个快照引用的分段。快照被回收后，这些分段才可能被解除映射。
+     */
+    private static final class SnapshotRef extends WeakReference<Snapshot> {
+        final ByteBuffer[] data;
+        final ByteBuffer[] index;
+        final int size;
+
+        SnapshotRef(Snapshot snapshot, ReferenceQueue<Snapshot> queue) {
+            super(snapshot, queue);
+            this.data = snapshot.data;
+            this.index = snapshot.index;
+            this.size = snapshot.size;
+        }
+    }
+
+    private final class Snapshot extends AbstractList<Action> implements RandomAccess {
+        private final ByteBuffer[] data;
+        private final ByteBuffer[] index;
+        private final int size;
+
+        Snapshot(ByteBuffer[] data, ByteBuffer[] index, int size) {
+            this.data = data;
+            this.index = index;
+            this.size = size;
+        }
+
+        @Override
+        public Action get(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+            }
+            byte[] payload;
+            // 持有快照的锁，读取映射内存期间快照一定可达，它引用的分段不会被解除映射
+            synchronized (this) {
+                payload = read(data, index, i);
+            }
+            try {
+                return CODEC.decode(payload, 0, payload.length);
+            } catch (IOException e) {
+                // 数据由本进程写入，不应无法解码
+                throw new UncheckedIOException("映射历史已损坏", e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
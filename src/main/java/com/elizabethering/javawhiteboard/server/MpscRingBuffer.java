@@ -0,0 +1,133 @@
+package com.elizabethering.javawhiteboard.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 多生产者、单消费者的有界环形缓冲区。
+ * <p>
+ * 生产者通过 CAS 领取槽位，写入元素后发布该槽位的序号，整个过程不加锁；
+ * 唯一的消费者按领取顺序依次取出元素，因此所有生产者的元素形成一个全局顺序。
+ * {@link #offer} 在积压达到上限时立即返回失败，不等待，可以在 Selector 等不能阻塞的线程中调用；
+ * {@link #put} 在环已满时等待消费者追上，只用于可以阻塞的后台线程。环为空时消费者挂起，由下一个生产者唤醒。
+ */
+final class MpscRingBuffer<E> {
+
+    private final Object[] buffer;
+    private final int mask;
+    // 每个槽位最近一次发布的位置 + 1，消费者据此判断槽位中的元素是否已经写好
+    private final AtomicLongArray published;
+    private final AtomicLong producerIndex = new AtomicLong();
+    // 只由消费者写入
+    private final AtomicLong consumerIndex = new AtomicLong();
+    private volatile Thread waitingConsumer;
+
+    /**
+     * @param capacity 容量，必须是 2 的幂。
+     */
+    MpscRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("容量必须是 2 的幂: " + capacity);
+        }
+        this.buffer = new Object[capacity];
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * 尝试发布一个元素，可由任意线程调用，从不阻塞。
+     * @param limit 允许的最大积压，不超过容量。调用方可以用较小的上限为更重要的元素预留槽位。
+     * @return 积压已经达到上限时返回 false，元素没有发布。
+     */
+    boolean offer(E element, int limit) {
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() >= Math.min(limit, buffer.length)) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        publish(index, element);
+        return true;
+    }
+
+    /**
+     * 发布一个元素，环已满时等待消费者腾出槽位。只能在允许阻塞的线程中调用。
+     */
+    void put(E element) {
+        long index = producerIndex.getAndIncrement();
+        for (int spins = 0; index - consumerIndex.get() >= buffer.length; spins++) {
+            if (spins < 100) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(50_000L);
+            }
+        }
+        publish(index, element);
+    }
+
+    private void publish(long index, E element) {
+        int slot = (int) index & mask;
+        buffer[slot] = element;
+        published.set(slot, index + 1); // volatile 写，保证消费者能看到上面写入的元素
+        Thread waiter = waitingConsumer;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * 依次取出已发布的元素交给处理器，只能由消费者线程调用。
+     * @param max 本次最多处理的元素个数。
+     * @return 实际处理的元素个数。
+     */
+    @SuppressWarnings("unchecked")
+    int drain(Consumer<E> handler, int max) {
+        long index = consumerIndex.get();
+        int count = 0;
+        while (count < max) {
+            int slot = (int) index & mask;
+            if (published.get(slot) != index + 1) break;
+            E element = (E) buffer[slot];
+            buffer[slot] = null;
+            index++;
+            count++;
+            consumerIndex.lazySet(index); // 释放槽位给生产者
+            handler.accept(element);
+        }
+        return count;
+    }
+
+    /**
+     * 挂起消费者线程，直到有新元素发布。
+     */
+    void awaitNotEmpty() {
+        waitingConsumer = Thread.currentThread();
+        try {
+            // 先登记再检查：与生产者的“先发布再检查”配合，不会错过唤醒
+            while (isEmpty()) {
+                LockSupport.park(this);
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    private boolean isEmpty() {
+        long index = consumerIndex.get();
+        return published.get((int) index & mask) != index + 1;
+    }
+
+    /**
+     * 已发布但尚未被消费的元素个数的近似值。
+     */
+    int size() {
+        return (int) Math.max(0, producerIndex.get() - consumerIndex.get());
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+}
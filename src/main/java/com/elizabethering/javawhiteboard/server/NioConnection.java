@@ -0,0 +1,188 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.protocol.ActionFrames;
+import com.elizabethering.javawhiteboard.shared.protocol.WireFormat;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 由 {@link SelectorLoop} 驱动的非阻塞连接。
+ * 读取、解析和写出都在所属的 Selector 线程上完成；任何线程都可以向 {@link OutboundQueue} 入队，
+ * 队列由空变为非空时会请求 Selector 线程写出。
+ */
+class NioConnection implements ClientConnection {
+
+    private static final int INITIAL_READ_BUFFER = 4 * 1024;
+    /** 一次聚集写最多合并的帧数。 */
+    private static final int MAX_GATHER = 64;
+
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private final OutboundQueue outboundQueue;
+    private final AtomicBoolean writeRequested = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final String remoteAddress;
+
+    // 以下字段只在 Selector 线程上访问
+    private ClientHandler handler;
+    private SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private final OutboundMessage[] batch = new OutboundMessage[MAX_GATHER];
+    private final ByteBuffer[] pendingFrames = new ByteBuffer[MAX_GATHER];
+    private int pendingStart = 0;
+    private int pendingEnd = 0;
+    // 跟随客户端最近一次发来的帧的格式
+    private WireFormat wireFormat = WireFormat.BINARY;
+
+    NioConnection(SocketChannel channel, SelectorLoop loop, int queueCapacity) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+        this.outboundQueue = new OutboundQueue(queueCapacity);
+        this.outboundQueue.setReadyListener(this::requestWrite);
+    }
+
+    /**
+     * 在 Selector 线程上注册读事件。
+     */
+    void register(ClientHandler handler) {
+        this.handler = handler;
+        try {
+            key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+            if (outboundQueue.size() > 0) flushFromLoop();
+        } catch (ClosedChannelException e) {
+            closeNow();
+        }
+    }
+
+    void onReadable() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new EOFException();
+        }
+        readBuffer.flip();
+        while (readBuffer.remaining() >= ActionFrames.HEADER_SIZE) {
+            int length = readBuffer.getInt(readBuffer.position());
+            ActionFrames.checkLength(length);
+            int frameSize = ActionFrames.HEADER_SIZE + length;
+            if (readBuffer.remaining() < frameSize) {
+                if (readBuffer.capacity() < frameSize) {
+                    // 帧比当前缓冲区大：扩容后继续以写模式接收
+                    ByteBuffer larger = ByteBuffer.allocate(frameSize);
+                    larger.put(readBuffer);
+                    readBuffer = larger;
+                    return;
+                }
+                break;
+            }
+            int payloadStart = readBuffer.position() + ActionFrames.HEADER_SIZE;
+            byte[] array = readBuffer.array();
+            int offset = readBuffer.arrayOffset() + payloadStart;
+            wireFormat = WireFormat.detect(array, offset, length);
+            Action action = wireFormat.codec().decode(array, offset, length);
+            readBuffer.position(payloadStart + length);
+            handler.handleAction(action);
+            if (closed.get()) return;
+        }
+        if (!readBuffer.hasRemaining() && readBuffer.capacity() > INITIAL_READ_BUFFER) {
+            // 大帧处理完毕，收回多余的内存，空闲连接只保留小缓冲区
+            readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        } else {
+            readBuffer.compact();
+        }
+    }
+
+    void onWritable() throws IOException {
+        while (true) {
+            if (pendingStart == pendingEnd) {
+                int n = outboundQueue.pollBatch(batch, MAX_GATHER);
+                if (n == 0) break;
+                for (int i = 0; i < n; i++) {
+                    // 包装共享的已编码帧，每个连接只持有自己的读写位置
+                    pendingFrames[i] = ByteBuffer.wrap(batch[i].frame(wireFormat));
+                    batch[i] = null;
+                }
+                pendingStart = 0;
+                pendingEnd = n;
+            }
+            // 聚集写：一次系统调用写出多帧
+            channel.write(pendingFrames, pendingStart, pendingEnd - pendingStart);
+            while (pendingStart < pendingEnd && !pendingFrames[pendingStart].hasRemaining()) {
+                pendingFrames[pendingStart++] = null;
+            }
+            if (pendingStart < pendingEnd) {
+                // 内核发送缓冲区已满，等待下一次可写事件
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        writeRequested.set(false);
+        // 清除标记之后可能又有新的消息入队
+        if (outboundQueue.size() > 0 && writeRequested.compareAndSet(false, true)) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void requestWrite() {
+        if (!closed.get() && writeRequested.compareAndSet(false, true)) {
+            loop.execute(this::flushFromLoop);
+        }
+    }
+
+    private void flushFromLoop() {
+        if (key == null || !key.isValid()) return;
+        try {
+            onWritable();
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (loop.inLoop()) {
+            closeNow();
+        } else {
+            loop.execute(this::closeNow);
+        }
+    }
+
+    /**
+     * 在 Selector 线程上立即关闭连接并通知处理器。
+     */
+    void closeNow() {
+        if (!closed.compareAndSet(false, true)) return;
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+        outboundQueue.close();
+        if (handler != null) {
+            handler.onDisconnect();
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+}
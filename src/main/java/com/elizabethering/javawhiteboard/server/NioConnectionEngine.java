@@ -0,0 +1,65 @@
+package com.elizabethering.javawhiteboard.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 基于 NIO Selector 的连接引擎。
+ * 接受线程把新连接轮流分配给固定数量的 {@link SelectorLoop}，
+ * 因此线程数与连接数无关，适合大量空闲的课堂连接。
+ */
+public class NioConnectionEngine implements ConnectionEngine {
+
+    private final ServerApp server;
+    private final int port;
+    private final int selectorThreads;
+    private final int queueCapacity;
+
+    public NioConnectionEngine(ServerApp server, int port, int selectorThreads, int queueCapacity) {
+        this.server = server;
+        this.port = port;
+        this.selectorThreads = selectorThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public void start() throws IOException {
+        SelectorLoop[] loops = new SelectorLoop[selectorThreads];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop("selector-" + i);
+            loops[i].start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("多功能协作画板服务器已启动（NIO 模式，" + loops.length + " 个 Selector 线程），正在监听 " + port + " 端口...");
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                SelectorLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    NioConnection connection = new NioConnection(channel, loop, queueCapacity);
+                    ClientHandler clientHandler = server.createClientHandler(connection);
+                    loop.execute(() -> connection.register(clientHandler));
+                } catch (IOException e) {
+                    // 单个连接在建立过程中出错（例如对方立即重置）不影响其他连接
+                    System.err.println("无法建立新的连接: " + e.getMessage());
+                    closeQuietly(channel);
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.protocol.ActionFrames;
+import com.elizabethering.javawhiteboard.shared.protocol.WireFormat;
+
+import java.io.IOException;
+
+/**
+ * 一条待发送的消息。
+ * 广播时同一个实例会进入所有接收者的出站队列，每种 {@link WireFormat} 的帧（含长度前缀）只编码一次，
+ * 之后所有连接共享同一份不可变的字节数组，因此序列化开销与接收人数无关。
+ */
+public final class OutboundMessage {
+
+    private final Action action;
+    private final byte[][] frames = new byte[WireFormat.values().length][];
+
+    public OutboundMessage(Action action) {
+        this.action = action;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * 获取指定格式的完整帧。首次调用时编码，之后直接返回缓存的结果。
+     * 返回的数组被所有连接共享，调用方不得修改。
+     */
+    public byte[] frame(WireFormat format) throws IOException {
+        int slot = format.ordinal();
+        byte[] frame;
+        synchronized (frames) {
+            frame = frames[slot];
+            if (frame == null) {
+                byte[] payload = ActionFrames.encode(action, format);
+                frame = new byte[ActionFrames.HEADER_SIZE + payload.length];
+                frame[0] = (byte) (payload.length >>> 24);
+                frame[1] = (byte) (payload.length >>> 16);
+                frame[2] = (byte) (payload.length >>> 8);
+                frame[3] = (byte) payload.length;
+                System.arraycopy(payload, 0, frame, ActionFrames.HEADER_SIZE, payload.length);
+                frames[slot] = frame;
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,258 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * 每个客户端独占的有界出站队列。
+ * 广播线程只负责入队，由连接自己的写线程（阻塞模式）或 Selector 线程（NIO 模式）取出并写到网络，
+ * 因此一个网络很慢的客户端不会拖住其他人。
+ */
+public class OutboundQueue {
+
+    private final int capacity;
+    private final ArrayDeque<OutboundMessage> items = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private volatile Runnable readyListener;
+    private volatile Runnable drainedListener;
+    private volatile boolean closed = false;
+    private boolean wakeRequested = false;
+    private int peakSize = 0;
+    private long droppedCount = 0;
+
+    public OutboundQueue(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * 设置队列由空变为非空时的回调，NIO 连接用它来唤醒 Selector 线程。
+     */
+    public void setReadyListener(Runnable readyListener) {
+        this.readyListener = readyListener;
+    }
+
+    /**
+     * 设置写线程发现队列已被取空时的回调。
+     */
+    public void setDrainedListener(Runnable drainedListener) {
+        this.drainedListener = drainedListener;
+    }
+
+    /**
+     * 尝试入队。
+     * @return 队列已满时返回 false，调用方根据 {@link OverflowPolicy} 决定后续处理。
+     */
+    public boolean offer(OutboundMessage message) {
+        boolean wasEmpty;
+        lock.lock();
+        try {
+            if (closed) return true;
+            if (items.size() >= capacity) return false;
+            wasEmpty = enqueue(message);
+        } finally {
+            lock.unlock();
+        }
+        if (wasEmpty) fireReady();
+        return true;
+    }
+
+    /**
+     * 不受容量限制地批量入队，仅用于重新同步时发送快照。
+     */
+    public void forceOfferAll(Collection<OutboundMessage> messages) {
+        if (messages.isEmpty()) return;
+        boolean wasEmpty = false;
+        lock.lock();
+        try {
+            if (closed) return;
+            for (OutboundMessage message : messages) {
+                wasEmpty |= enqueue(message);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (wasEmpty) fireReady();
+    }
+
+    private boolean enqueue(OutboundMessage message) {
+        boolean wasEmpty = items.isEmpty();
+        items.addLast(message);
+        if (items.size() > peakSize) peakSize = items.size();
+        notEmpty.signal();
+        return wasEmpty;
+    }
+
+    /**
+     * 非阻塞地取出队首元素，供 Selector 线程使用。
+     */
+    public OutboundMessage poll() {
+        OutboundMessage message;
+        lock.lock();
+        try {
+            message = items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+        if (message == null) fireDrained();
+        return message;
+    }
+
+    /**
+     * 非阻塞地取出最多 {@code max} 条消息，用于聚集写。队列为空时触发取空回调。
+     * @return 实际取出的数量。
+     */
+    public int pollBatch(OutboundMessage[] into, int max) {
+        int n = 0;
+        lock.lock();
+        try {
+            while (n < max && !items.isEmpty()) {
+                into[n++] = items.pollFirst();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (n == 0) fireDrained();
+        return n;
+    }
+
+    /**
+     * 阻塞地取出队首元素，供阻塞模式的写线程使用。
+     * @return 队列被关闭时返回 null。
+     */
+    public OutboundMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (items.isEmpty() && !closed) {
+                lock.unlock();
+                try {
+                    fireDrained();
+                } finally {
+                    lock.lock();
+                }
+                if (items.isEmpty() && !closed && !wakeRequested) {
+                    notEmpty.await();
+                }
+                wakeRequested = false;
+            }
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 唤醒写线程，使其即使在队列为空时也重新检查一次并触发取空回调。
+     */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            wakeRequested = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        fireReady();
+    }
+
+    /**
+     * 移除所有满足条件的排队消息。
+     * @return 被移除的数量。
+     */
+    public int removeIf(Predicate<Action> filter) {
+        lock.lock();
+        try {
+            int removed = 0;
+            for (Iterator<OutboundMessage> it = items.iterator(); it.hasNext(); ) {
+                if (filter.test(it.next().getAction())) {
+                    it.remove();
+                    removed++;
+                }
+            }
+            droppedCount += removed;
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空队列。
+     * @return 被丢弃的消息数量。
+     */
+    public int clear() {
+        return removeIf(action -> true);
+    }
+
+    /**
+     * 记录一条在入队前就被丢弃的消息。
+     */
+    public void recordDropped() {
+        lock.lock();
+        try {
+            droppedCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭队列并唤醒等待中的写线程。
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            items.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPeakSize() {
+        lock.lock();
+        try {
+            return peakSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() { return capacity; }
+
+    private void fireReady() {
+        Runnable listener = readyListener;
+        if (listener != null) listener.run();
+    }
+
+    private void fireDrained() {
+        Runnable listener = drainedListener;
+        if (listener != null) listener.run();
+    }
+}
@@ -0,0 +1,20 @@
+package com.elizabethering.javawhiteboard.server;
+
+/**
+ * 客户端出站队列溢出，或者房间的定序缓冲区已满、客户端发来的指令无法提交时的处理策略。
+ */
+public enum OverflowPolicy {
+    /**
+     * 直接断开该客户端。
+     */
+    DISCONNECT,
+    /**
+     * 丢弃可被后续消息替代的临时消息（例如用户列表更新）。
+     * 如果队列里没有可以丢弃的消息，则退化为 {@link #RESYNC}。
+     */
+    DROP_EPHEMERAL,
+    /**
+     * 清空队列并标记该客户端需要重新同步，待写线程追上后发送一次完整的画板快照。
+     */
+    RESYNC
+}
@@ -0,0 +1,1009 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.*;
+import com.elizabethering.javawhiteboard.shared.protocol.HistorySnapshots;
+import com.elizabethering.javawhiteboard.shared.render.ActionHitTester;
+import com.elizabethering.javawhiteboard.shared.render.ActionRenderer;
+import com.elizabethering.javawhiteboard.shared.render.BoardExporter;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 一个共享画板房间。
+ * 每个房间拥有自己的老师、学生、权限（由独立的 {@link SessionManager} 管理）和绘图历史，
+ * 不同房间之间的绘图和广播互不争用。
+ * <p>
+ * 房间内所有改变画板或成员的事件都由各客户端的读线程发布到一个无锁的 {@link MpscRingBuffer}，
+ * 再由房间唯一的定序线程依次处理：分配序号、追加历史、交给各成员的出站队列。
+ * 历史和成员列表只由定序线程修改，因此不需要加锁，所有客户端看到的绘图顺序完全一致。
+ */
+public class Room {
+
+    /** 定序环形缓冲区的容量。 */
+    private static final int SEQUENCER_CAPACITY = 1 << 16;
+    /** 为成员加入、离开和重新同步等控制事件预留的定序槽位，客户端的绘图指令不能占用。 */
+    private static final int CONTROL_RESERVE = 1024;
+    /** 定序线程每批处理的最大事件数。 */
+    private static final int SEQUENCER_BATCH = 256;
+    /** 每个历史快照片段包含的指令数。 */
+    private static final int SNAPSHOT_CHUNK_SIZE = 1024;
+
+    private final String id;
+    private final SessionManager sessionManager = new SessionManager();
+    // 当前在房间中的客户端
+    private final List<ClientHandler> members = new CopyOnWriteArrayList<>();
+    // 与 members 内容相同，供定序线程快速判断成员身份，只在定序线程中访问
+    private final Set<ClientHandler> memberSet = new HashSet<>();
+    private final ActionHistory drawingHistory;
+    // 已经打包好的完整快照片段，历史只追加，片段一旦填满就不再变化，可供所有新成员共享；只在定序线程中访问
+    private final List<OutboundMessage> snapshotChunks = new ArrayList<>();
+    private final KeyframeBuilder keyframes;
+    // 历史中图形的空间索引，用于擦除；只在定序线程中访问
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+    // 各用户的撤销和重做步骤，只在定序线程中访问
+    private final UndoStacks undoStacks = new UndoStacks();
+    // 尚未压缩的历史中各图形所属的撤销步骤（序号 -> 步骤编号），压缩只合并同一步中的图形；只在定序线程中访问
+    private final Map<Long, Long> undoSteps = new HashMap<>();
+    // 历史中已撤销、暂不绘制的图形；只由定序线程修改，底图的渲染线程也会读取
+    private volatile Tombstones tombstones = Tombstones.EMPTY;
+    // 正在上传画板的成员及已经收到的指令，只在定序线程中访问
+    private final Map<ClientHandler, Upload> uploads = new HashMap<>();
+    // 以底图加入的成员及其底图覆盖到的序号，只在定序线程中访问
+    private final Map<ClientHandler, Long> keyframeMembers = new HashMap<>();
+    // 房间历史的磁盘日志，未启用时为 null
+    private final HistoryJournal journal;
+    private final MpscRingBuffer<RoomEvent> sequencer = new MpscRingBuffer<>(SEQUENCER_CAPACITY);
+    private final int compactionWindow;
+    private final int maxUploadActions;
+    // 历史开头已经压缩过的指令数，只在定序线程中访问
+    private int compactedCount = 0;
+    // 历史被清空或改写的次数，后台压缩的结果只在期间历史没有被改写时才应用；只在定序线程中访问
+    private int historyGeneration = 0;
+    // 是否有正在后台进行的压缩
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    // 只由定序线程修改
+    private volatile long lastSequence = 0;
+    // 已经从注册表取得房间、但加入事件还没有被处理的客户端数，由 RoomRegistry 在持锁时增加
+    private final AtomicInteger pendingJoins = new AtomicInteger();
+    // 房间最近一次变空的时刻（毫秒），有成员时为 Long.MAX_VALUE；只由定序线程修改
+    private volatile long emptySince = System.currentTimeMillis();
+    // 房间已关闭，定序线程退出；只由定序线程修改
+    private volatile boolean closed = false;
+
+    public Room(String id, ServerConfig config) {
+        this.id = id;
+        this.drawingHistory = createHistory(config);
+        this.keyframes = new KeyframeBuilder(id, drawingHistory, () -> tombstones, config.getKeyframeInterval(),
+                config.getKeyframeWidth(), config.getKeyframeHeight(), SNAPSHOT_CHUNK_SIZE);
+        this.compactionWindow = config.getCompactionWindow();
+        this.maxUploadActions = config.getMaxUploadActions();
+        this.journal = openJournal(config);
+        Thread thread = new Thread(this::runSequencer, "room-" + id + "-sequencer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 按配置创建历史存储。映射文件无法创建时退回到堆内存储。
+     */
+    private ActionHistory createHistory(ServerConfig config) {
+        if (config.getHistoryStore() == ServerConfig.HistoryStore.MAPPED) {
+            try {
+                return new MappedActionLog(config.getHistoryDir());
+            } catch (IOException e) {
+                System.err.println("无法为房间 [" + id + "] 创建映射历史，改用堆内存储: " + e.getMessage());
+            }
+        }
+        return new SegmentedHistory();
+    }
+
+    /**
+     * 打开房间的历史日志并重放其中的指令。此时定序线程尚未启动，可以直接修改历史。
+     * 日志无法打开时房间照常工作，只是历史不会被持久化。
+     */
+    private HistoryJournal openJournal(ServerConfig config) {
+        if (config.getJournalDir() == null) return null;
+        HistoryJournal opened = null;
+        try {
+            Files.createDirectories(config.getJournalDir());
+            opened = HistoryJournal.open(config.getJournalDir(), id);
+            long start = System.nanoTime();
+            int records = opened.replay(this::restore);
+            if (records > 0) {
+                System.out.println("已从日志恢复房间 [" + id + "] 的 " + drawingHistory.size() + " 条历史指令（日志记录 "
+                        + records + " 条），耗时 " + (System.nanoTime() - start) / 1_000_000 + " ms。");
+                keyframes.onAppend();
+                maybeCompact();
+            }
+            opened.start();
+            return opened;
+        } catch (IOException e) {
+            System.err.println("无法打开房间 [" + id + "] 的历史日志，本房间的历史不会被保存: " + e.getMessage());
+            if (opened != null) opened.close();
+            return null;
+        }
+    }
+
+    /**
+     * 应用一条从日志中重放的指令。
+     */
+    private void restore(Action action) {
+        if (action instanceof DrawingAction) {
+            lastSequence = Math.max(lastSequence, ((DrawingAction) action).getSequence());
+        }
+        if (action instanceof ClearAction) {
+            clearHistory();
+        } else if (action instanceof RemoveAction) {
+            RemoveAction remove = (RemoveAction) action;
+            removeFromHistory(remove.getFirstSequences(), remove.getTargetSequences());
+        } else if (action instanceof TombstoneAction) {
+            TombstoneAction tombstone = (TombstoneAction) action;
+            long[] targets = sequencesOf(entriesIn(tombstone.getFirstSequences(), tombstone.getTargetSequences()));
+            tombstones = tombstone.isRestore() ? tombstones.without(targets) : tombstones.with(targets);
+        } else if (action instanceof ShapeAction || action instanceof StrokeAction || action instanceof TextAction) {
+            appendToHistory(action);
+        }
+    }
+
+    /**
+     * 将客户端加入房间。角色信息、绘图历史和之后的广播由定序线程按顺序放入其出站队列，
+     * 新成员既不会漏掉也不会重复收到加入前后的绘图指令。
+     * 房间必须是通过 {@link RoomRegistry#getOrCreate} 取得的，每次取得对应一次加入。
+     * @return 定序缓冲区连预留的槽位也已占满时返回 false，客户端没有加入。
+     */
+    public boolean join(ClientHandler client) {
+        if (sequencer.offer(new RoomEvent(RoomEvent.JOIN, null, client), SEQUENCER_CAPACITY)) {
+            return true;
+        }
+        pendingJoins.decrementAndGet();
+        return false;
+    }
+
+    /**
+     * 将客户端移出房间。离开不能丢失，只有预留的槽位也已占满时才会等待定序线程。
+     */
+    public void leave(ClientHandler client) {
+        RoomEvent event = new RoomEvent(RoomEvent.LEAVE, null, client);
+        if (!sequencer.offer(event, SEQUENCER_CAPACITY)) {
+            sequencer.put(event);
+        }
+    }
+
+    /**
+     * 提交来自客户端的绘图指令，权限检查和广播由定序线程完成。不会阻塞调用线程。
+     * @param action 客户端发送的指令。
+     * @param sender 发送指令的客户端处理器。
+     * @return 定序缓冲区积压已满时返回 false，指令被丢弃，由调用方按溢出策略处理发送者。
+     */
+    public boolean submit(Action action, ClientHandler sender) {
+        return sequencer.offer(new RoomEvent(RoomEvent.ACTION, action, sender), SEQUENCER_CAPACITY - CONTROL_RESERVE);
+    }
+
+    /**
+     * 提交客户端上传的一批画板历史。解包在调用线程（客户端的读线程）中进行，不占用定序线程；
+     * 收齐最后一批后，定序线程一次性用它替换画板。只有房间的老师可以加载，一次最多加载配置的指令数。
+     * @return 定序缓冲区积压已满时返回 false，这一批被丢弃，之后的批次不再连续，整个上传会被放弃。
+     */
+    public boolean upload(HistorySnapshotAction chunk, ClientHandler sender) {
+        if (sender.getRole() != UserRole.TEACHER) {
+            // 定序线程中还会按房间当前的角色再检查一次，这里只是避免为学生的上传解包
+            System.out.println("用户 " + sender.getUsername() + " 不是房间 [" + id + "] 的老师，加载被拒绝。");
+            return true;
+        }
+        List<Action> actions;
+        try {
+            actions = HistorySnapshots.unpack(chunk);
+        } catch (IOException e) {
+            System.err.println("用户 " + sender.getUsername() + " 上传的画板数据无法解码: " + e.getMessage());
+            actions = null;
+        }
+        List<Action> batch = actions;
+        return sequencer.offer(new RoomEvent(() -> receiveUpload(chunk, batch, sender)), SEQUENCER_CAPACITY - CONTROL_RESERVE);
+    }
+
+    /**
+     * 请求向一个落后的成员重新发送完整的画板快照。不会阻塞调用线程。
+     * @return 定序缓冲区连预留的槽位也已占满时返回 false，调用方稍后重试。
+     */
+    public boolean requestResync(ClientHandler client) {
+        return sequencer.offer(new RoomEvent(RoomEvent.RESYNC, null, client), SEQUENCER_CAPACITY);
+    }
+
+    private void runSequencer() {
+        while (!closed) {
+            if (sequencer.drain(this::dispatch, SEQUENCER_BATCH) == 0) {
+                sequencer.awaitNotEmpty();
+            }
+        }
+    }
+
+    private void dispatch(RoomEvent event) {
+        if (closed) return;
+        try {
+            switch (event.kind) {
+                case RoomEvent.ACTION:
+                    processAndBroadcast(event.action, event.client);
+                    break;
+                case RoomEvent.JOIN:
+                    addMember(event.client);
+                    break;
+                case RoomEvent.LEAVE:
+                    removeMember(event.client);
+                    break;
+                case RoomEvent.RESYNC:
+                    resyncClient(event.client);
+                    break;
+                case RoomEvent.TASK:
+                    event.task.run();
+                    break;
+                default:
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // 单个事件出错不能让定序线程退出，否则整个房间都会停止
+            System.err.println("房间 [" + id + "] 处理事件时出错: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void addMember(ClientHandler client) {
+        // 先标记房间有人，再减少待加入数，清理线程看到待加入数为 0 时一定也能看到房间不空
+        emptySince = Long.MAX_VALUE;
+        pendingJoins.decrementAndGet();
+        UserRole role = sessionManager.addUserToSession(client);
+        client.setRole(role);
+        boolean canDraw = sessionManager.canDraw(client);
+        System.out.println("用户 " + client.getUsername() + " 已进入房间 [" + id + "]，角色为: " + role + "，初始权限: " + canDraw);
+
+        // 1. 立即向该用户发送其角色和权限信息
+        client.sendAction(new SessionJoinResultAction(role, canDraw));
+        // 2. 接着以批量快照的形式发送绘图历史，之后的实时指令紧随其后
+        List<OutboundMessage> snapshot = snapshotMessages();
+        client.getOutboundQueue().forceOfferAll(snapshot);
+        recordKeyframe(client, snapshot);
+        members.add(client);
+        memberSet.add(client);
+        // 3. 最后，向房间中的所有人（包括刚加入的）广播更新后的用户列表
+        updateAndBroadcastUserList();
+    }
+
+    /**
+     * 为历史中所有填满但尚未打包的片段生成快照消息。只在定序线程中调用。
+     * @return 完整片段的个数。
+     */
+    private int cacheFullChunks(List<Action> history) {
+        int fullChunks = history.size() / SNAPSHOT_CHUNK_SIZE;
+        try {
+            while (snapshotChunks.size() < fullChunks) {
+                int start = snapshotChunks.size() * SNAPSHOT_CHUNK_SIZE;
+                List<Action> chunk = history.subList(start, start + SNAPSHOT_CHUNK_SIZE);
+                snapshotChunks.add(new OutboundMessage(HistorySnapshots.pack(chunk, start, false, 0)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return fullChunks;
+    }
+
+    private void removeMember(ClientHandler client) {
+        if (memberSet.remove(client)) {
+            members.remove(client);
+            keyframeMembers.remove(client);
+            uploads.remove(client);
+            sessionManager.removeUserFromSession(client);
+            updateAndBroadcastUserList();
+            if (memberSet.isEmpty()) {
+                emptySince = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * 只能由服务器生成的指令：移除和撤销标记由擦除、撤销和压缩的结果产生，底图由服务器渲染。
+     * 客户端发来这些指令可以任意删除别人的图形，或者让其他成员的画板与历史不一致。
+     */
+    static boolean isServerGenerated(Action action) {
+        return action instanceof RemoveAction || action instanceof TombstoneAction || action instanceof KeyframeAction;
+    }
+
+    /**
+     * 处理来自客户端的绘图指令，并根据权限决定是否广播。只在定序线程中调用。
+     */
+    private void processAndBroadcast(Action action, ClientHandler sender) {
+        if (!memberSet.contains(sender)) return; // 已经离开房间
+        if (isServerGenerated(action)) {
+            System.out.println("用户 " + sender.getUsername() + " 发送了只能由服务器生成的指令 " + action.getClass().getSimpleName() + "，已忽略。");
+            return;
+        }
+        if (!sessionManager.canDraw(sender)) {
+            System.out.println("用户 " + sender.getUsername() + " 没有房间 [" + id + "] 的绘图权限，操作被拒绝。");
+            return;
+        }
+
+        if (action instanceof EraseAction) {
+            erase((EraseAction) action);
+            return;
+        } else if (action instanceof UndoAction) {
+            undo(sender, ((UndoAction) action).isRedo());
+            return;
+        }
+        if (action instanceof DrawingAction) {
+            assignServerSequence((DrawingAction) action, ++lastSequence, sender.getUsername());
+        }
+        if (action instanceof ClearAction) {
+            clearHistory();
+            snapshotChunks.clear();
+            keyframeMembers.clear();
+            keyframes.invalidate();
+            System.out.println("用户 " + sender.getUsername() + " 清空了房间 [" + id + "] 的画板。");
+        } else if (action instanceof ShapeAction || action instanceof StrokeAction || action instanceof TextAction) {
+            // 只有形状、笔画和文本指令才被添加到历史记录中
+            appendToHistory(action);
+            long step = undoStacks.record(sender.getUsername(), (DrawingAction) action);
+            if (compactionWindow > 0) {
+                undoSteps.put(((DrawingAction) action).getSequence(), step);
+            }
+            if (drawingHistory.size() % SNAPSHOT_CHUNK_SIZE == 0) {
+                // 刚好填满一个片段，立即打包，把打包的开销分摊到每次追加上
+                cacheFullChunks(drawingHistory.snapshot());
+                keyframes.onAppend();
+                maybeCompact();
+            }
+        } else {
+            broadcast(action);
+            return;
+        }
+        journalAndBroadcast(action);
+    }
+
+    /**
+     * 为客户端提交的指令分配序号并记下作者。客户端发来的序号范围（二进制格式中笔画的跨度，或序列化格式中的任意值）
+     * 和作者不可信，一律覆盖，指令只代表它自己的序号，保证历史中各条指令的序号范围有序且互不重叠。
+     */
+    static void assignServerSequence(DrawingAction action, long sequence, String author) {
+        action.assignFirstSequence(0);
+        action.assignSequence(sequence);
+        action.assignAuthor(author);
+    }
+
+    private void clearHistory() {
+        drawingHistory.clear();
+        spatialIndex.clear();
+        compactedCount = 0;
+        historyGeneration++;
+        tombstones = Tombstones.EMPTY;
+        undoStacks.clear();
+        undoSteps.clear();
+    }
+
+    /**
+     * 暂存上传的一批指令，收齐后加载到画板上。只在定序线程中调用。
+     * @param batch 解包后的指令，数据损坏时为 null。
+     */
+    private void receiveUpload(HistorySnapshotAction chunk, List<Action> batch, ClientHandler sender) {
+        if (!memberSet.contains(sender)) return;
+        if (sender.getRole() != UserRole.TEACHER) {
+            System.out.println("用户 " + sender.getUsername() + " 不是房间 [" + id + "] 的老师，加载被拒绝。");
+            return;
+        }
+        Upload upload = chunk.getStartIndex() == 0 ? new Upload() : uploads.get(sender);
+        if (batch == null || upload == null || upload.received != chunk.getStartIndex()) {
+            // 数据损坏或批次不连续，放弃这次上传，画板保持不变
+            uploads.remove(sender);
+            System.out.println("用户 " + sender.getUsername() + " 向房间 [" + id + "] 上传的画板不完整，已放弃。");
+            return;
+        }
+        upload.received += batch.size();
+        if (upload.received > maxUploadActions) {
+            uploads.remove(sender);
+            System.out.println("用户 " + sender.getUsername() + " 向房间 [" + id + "] 上传的画板超过 " + maxUploadActions + " 条指令，已放弃。");
+            sender.sendAction(new AuthResultAction(false, "画板太大，最多只能加载 " + maxUploadActions + " 条指令。", sender.getUsername()));
+            return;
+        }
+        for (Action action : batch) {
+            if (action instanceof ShapeAction || action instanceof StrokeAction || action instanceof TextAction) {
+                upload.actions.add(action);
+            }
+        }
+        if (!chunk.isLast()) {
+            uploads.put(sender, upload);
+            return;
+        }
+        uploads.remove(sender);
+        loadBoard(upload.actions, sender);
+    }
+
+    /**
+     * 用上传的指令替换画板内容，并向所有成员发送一份快照，而不是逐条广播。只在定序线程中调用。
+     */
+    private void loadBoard(List<Action> actions, ClientHandler sender) {
+        long start = System.nanoTime();
+        ClearAction clear = new ClearAction();
+        clear.assignSequence(++lastSequence);
+        clearHistory();
+        snapshotChunks.clear();
+        keyframeMembers.clear();
+        keyframes.invalidate();
+        if (journal != null) {
+            journal.append(new OutboundMessage(clear));
+        }
+        for (Action action : actions) {
+            // 文件中的序号属于保存它的会话，重新编号
+            assignServerSequence((DrawingAction) action, ++lastSequence, sender.getUsername());
+            appendToHistory(action);
+            if (journal != null) {
+                journal.append(new OutboundMessage(action));
+            }
+        }
+        keyframes.onAppend();
+        maybeCompact();
+
+        List<OutboundMessage> snapshot = snapshotMessages();
+        for (ClientHandler member : members) {
+            if (member.isResyncPending()) continue; // 稍后会收到完整的快照
+            member.getOutboundQueue().forceOfferAll(snapshot);
+            recordKeyframe(member, snapshot);
+        }
+        System.out.println("用户 " + sender.getUsername() + " 向房间 [" + id + "] 加载了 " + actions.size() + " 条指令，快照 "
+                + snapshot.size() + " 个片段，耗时 " + (System.nanoTime() - start) / 1_000_000 + " ms。");
+    }
+
+    private void appendToHistory(Action action) {
+        drawingHistory.append(action);
+        Rectangle2D bounds = ActionRenderer.bounds(action);
+        if (bounds != null) {
+            spatialIndex.add(((DrawingAction) action).getSequence(), bounds);
+        }
+    }
+
+    /**
+     * 日志和广播共享同一条消息，二进制编码只做一次；写日志只是入队，不等待磁盘。
+     */
+    private void journalAndBroadcast(Action action) {
+        OutboundMessage message = new OutboundMessage(action);
+        if (journal != null) {
+            journal.append(message);
+        }
+        broadcast(message);
+    }
+
+    /**
+     * 找出橡皮擦轨迹碰到的图形并移除。先用空间索引筛选候选，再逐个精确判断。只在定序线程中调用。
+     */
+    private void erase(EraseAction erase) {
+        int[] points = erase.getPoints();
+        long[] candidates = spatialIndex.query(ActionHitTester.eraserBounds(points, erase.getWidth()));
+        if (candidates.length == 0) return;
+        List<Action> history = drawingHistory.snapshot();
+        long[] hits = new long[candidates.length];
+        int count = 0;
+        List<Action> tested = new ArrayList<>(candidates.length);
+        for (long sequence : candidates) {
+            int index = indexOfSequence(history, sequence);
+            // 已撤销的图形看不见，不会被擦到
+            if (index >= 0 && !tombstones.contains(sequence)) {
+                tested.add(history.get(index));
+                if (ActionHitTester.hits(history.get(index), points, erase.getWidth())) {
+                    hits[count++] = sequence;
+                }
+            }
+        }
+        ActionRenderer.releaseCaches(tested);
+        if (count > 0) {
+            long[] targets = Arrays.copyOf(hits, count);
+            removeAndBroadcast(targets, targets);
+        }
+    }
+
+    /**
+     * 从历史中移除序号落在指定区间内的图形，并通知所有成员。只在定序线程中调用。
+     * @param firsts 各区间的起点。
+     * @param targets 各区间的终点，按升序排列；没有对应图形的区间会被忽略。
+     */
+    private void removeAndBroadcast(long[] firsts, long[] targets) {
+        RemoveAction remove = removeFromHistory(firsts, targets);
+        if (remove == null) return;
+        keyframes.onAppend();
+
+        remove.assignSequence(++lastSequence);
+        journalAndBroadcast(remove);
+        resendToKeyframeMembers(remove.getFirstSequences()[0]);
+    }
+
+    /**
+     * 以底图加入的成员无法从底图的像素中删除或恢复图形，改动的图形可能在底图里时，重新发送最新的快照。
+     * @param firstChanged 改动的图形中最小的序号。
+     */
+    private void resendToKeyframeMembers(long firstChanged) {
+        List<OutboundMessage> snapshot = null;
+        for (Map.Entry<ClientHandler, Long> entry : new ArrayList<>(keyframeMembers.entrySet())) {
+            ClientHandler client = entry.getKey();
+            if (entry.getValue() < firstChanged || client.isResyncPending()) continue;
+            if (snapshot == null) {
+                snapshot = snapshotMessages();
+            }
+            client.getOutboundQueue().forceOfferAll(snapshot);
+            recordKeyframe(client, snapshot);
+        }
+    }
+
+    /**
+     * 撤销或重做用户最近的一步，并通知所有成员隐藏或恢复对应的图形。只在定序线程中调用。
+     * 图形留在历史中，只是标记为已撤销；之前的步骤如果已经被擦除或压缩掉，直接跳过。
+     */
+    private void undo(ClientHandler sender, boolean redo) {
+        String user = sender.getUsername();
+        long[] step;
+        while ((step = redo ? undoStacks.popRedo(user) : undoStacks.popUndo(user)) != null) {
+            List<DrawingAction> targets = stepTargets(step, redo);
+            if (targets.isEmpty()) continue;
+            if (redo) {
+                undoStacks.pushUndo(user, step);
+            } else {
+                undoStacks.pushRedo(user, step);
+            }
+            long[] sequences = sequencesOf(targets);
+            long[] firsts = new long[targets.size()];
+            for (int i = 0; i < firsts.length; i++) {
+                firsts[i] = targets.get(i).getFirstSequence();
+            }
+            tombstones = redo ? tombstones.without(sequences) : tombstones.with(sequences);
+            historyGeneration++; // 正在进行的压缩基于旧的撤销状态，结果作废
+            keyframes.onTombstonesChanged(firsts[0]);
+
+            TombstoneAction tombstone = new TombstoneAction(firsts, sequences, redo);
+            tombstone.assignSequence(++lastSequence);
+            journalAndBroadcast(tombstone);
+            resendToKeyframeMembers(firsts[0]);
+            return;
+        }
+    }
+
+    /**
+     * 找出一步中仍在历史中、可以撤销（或重做）的图形，按序号升序排列且不重复。
+     * 步骤中的线段可能已经被合并成一条笔画，此时找到的是包含它的那条笔画。
+     */
+    private List<DrawingAction> stepTargets(long[] step, boolean redo) {
+        List<Action> history = drawingHistory.snapshot();
+        List<DrawingAction> found = new ArrayList<>();
+        for (long sequence : step) {
+            int index = lowerBound(history, sequence);
+            if (index == history.size()) continue;
+            DrawingAction action = (DrawingAction) history.get(index);
+            if (action.getFirstSequence() > sequence || tombstones.contains(action.getSequence()) != redo) continue;
+            if (found.isEmpty() || found.get(found.size() - 1).getSequence() != action.getSequence()) {
+                found.add(action);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 找出历史中代表的序号与指定区间重叠的图形。
+     */
+    private List<DrawingAction> entriesIn(long[] firsts, long[] targets) {
+        List<DrawingAction> found = new ArrayList<>();
+        if (targets.length == 0) return found;
+        List<Action> history = drawingHistory.snapshot();
+        int t = 0;
+        for (int i = lowerBound(history, firsts[0]); i < history.size() && t < targets.length; i++) {
+            DrawingAction action = (DrawingAction) history.get(i);
+            while (t < targets.length && targets[t] < action.getFirstSequence()) t++;
+            if (t < targets.length && firsts[t] <= action.getSequence()) {
+                found.add(action);
+            }
+        }
+        return found;
+    }
+
+    private static long[] sequencesOf(List<? extends Action> actions) {
+        long[] sequences = new long[actions.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = ((DrawingAction) actions.get(i)).getSequence();
+        }
+        return sequences;
+    }
+
+    /**
+     * 从历史中移除代表的序号与指定区间重叠的图形：截断到第一个被移除的位置，再追加其后保留的指令，历史中不留任何痕迹。
+     * 代价与第一个被移除的位置之后的历史长度成正比，擦除最近画的内容很便宜。
+     * @param firsts 各区间的起点。
+     * @param targets 各区间的终点，按升序排列，区间之间互不重叠。
+     * @return 描述实际移除的图形的指令（尚未分配序号），没有图形被移除时返回 null。
+     */
+    private RemoveAction removeFromHistory(long[] firsts, long[] targets) {
+        if (targets.length == 0) return null;
+        List<Action> history = drawingHistory.snapshot();
+        // 历史中的图形代表的区间同样按序号升序且互不重叠，与第一个区间重叠的图形的序号不会小于它的起点
+        int start = lowerBound(history, firsts[0]);
+        long[] removedFirsts = new long[8];
+        long[] removedTargets = new long[8];
+        int removedCount = 0;
+        int cut = -1;
+        List<Action> survivors = new ArrayList<>();
+        int t = 0;
+        for (int i = start; i < history.size(); i++) {
+            DrawingAction action = (DrawingAction) history.get(i);
+            long first = action.getFirstSequence();
+            long sequence = action.getSequence();
+            while (t < targets.length && targets[t] < first) t++;
+            if (t < targets.length && firsts[t] <= sequence) {
+                if (cut < 0) cut = i;
+                if (removedCount == removedTargets.length) {
+                    removedFirsts = Arrays.copyOf(removedFirsts, removedCount * 2);
+                    removedTargets = Arrays.copyOf(removedTargets, removedCount * 2);
+                }
+                removedFirsts[removedCount] = first;
+                removedTargets[removedCount++] = sequence;
+                unindex(action);
+            } else if (cut >= 0) {
+                survivors.add(action);
+            } else if (t == targets.length) {
+                break; // 之后不会再有被移除的图形
+            }
+        }
+        if (removedCount == 0) return null;
+
+        rewriteHistory(cut, new ArrayList<>(), survivors);
+        long[] removed = Arrays.copyOf(removedTargets, removedCount);
+        tombstones = tombstones.without(removed);
+        return new RemoveAction(Arrays.copyOf(removedFirsts, removedCount), removed);
+    }
+
+    private void unindex(Action action) {
+        Rectangle2D bounds = ActionRenderer.bounds(action);
+        if (bounds != null) {
+            spatialIndex.remove(((DrawingAction) action).getSequence(), bounds);
+        }
+    }
+
+    /**
+     * 把历史截断到指定位置，再依次追加新的指令和原有的指令。只在定序线程中调用。
+     * @param replacement 需要登记到空间索引中的新指令。
+     * @param retained 截断点之后保留的指令，它们已经登记在空间索引中。
+     */
+    private void rewriteHistory(int cut, List<Action> replacement, List<Action> retained) {
+        drawingHistory.truncate(cut);
+        for (Action action : replacement) {
+            appendToHistory(action);
+        }
+        for (Action action : retained) {
+            drawingHistory.append(action);
+        }
+        historyGeneration++;
+        compactedCount = Math.min(compactedCount, cut + replacement.size());
+        // 截断点之后的快照片段和所有底图都已失效
+        int validChunks = cut / SNAPSHOT_CHUNK_SIZE;
+        if (snapshotChunks.size() > validChunks) {
+            snapshotChunks.subList(validChunks, snapshotChunks.size()).clear();
+        }
+        keyframes.invalidate();
+    }
+
+    /**
+     * 未压缩的历史积累到一个窗口时，在后台压缩它们。只在定序线程中调用。
+     * 压缩在历史的快照上进行，不阻塞绘图；结果交回定序线程，期间历史被清空或改写时丢弃。
+     */
+    private void maybeCompact() {
+        int size = drawingHistory.size();
+        if (compactionWindow == 0 || size - compactedCount < compactionWindow || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        List<Action> history = drawingHistory.snapshot();
+        int start = compactedCount;
+        // 重放大量日志后分多次压缩，每次应用结果时定序线程的停顿都有上限
+        int end = Math.min(size, start + compactionWindow * 4);
+        int generation = historyGeneration;
+        Tombstones undone = tombstones;
+        Map<Long, Long> steps = new HashMap<>(undoSteps);
+        NavigableSet<Long> undoable = undoStacks.liveSequences();
+        StrokeCompactor.submit(() -> {
+            try {
+                StrokeCompactor.Result result = StrokeCompactor.compact(history.subList(start, end), undone, steps, undoable);
+                sequencer.put(new RoomEvent(() -> applyCompaction(generation, start, end, result)));
+            } catch (RuntimeException e) {
+                compacting.set(false);
+                System.err.println("压缩房间 [" + id + "] 的历史时出错: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 用压缩结果替换历史中的片段，并通知所有成员删除被盖住和已撤销的图形。只在定序线程中调用。
+     * 合并的线段不需要通知：合并结果代表的序号区间覆盖了原来的每一段，之后的移除对新旧成员效果相同。
+     */
+    private void applyCompaction(int generation, int start, int end, StrokeCompactor.Result result) {
+        compacting.set(false);
+        if (generation != historyGeneration || start != compactedCount || drawingHistory.size() < end) {
+            maybeCompact();
+            return;
+        }
+        List<Action> history = drawingHistory.snapshot();
+        for (int i = start; i < end; i++) {
+            unindex(history.get(i));
+        }
+        // 压缩过的图形只保留还能撤销的步骤记录，之后因擦除而重新压缩时，不会与别的步骤合并
+        long compactedThrough = ((DrawingAction) history.get(end - 1)).getSequence();
+        NavigableSet<Long> undoable = undoStacks.liveSequences();
+        undoSteps.keySet().removeIf(sequence -> sequence <= compactedThrough && !undoable.contains(sequence));
+        List<Action> tail = new ArrayList<>(history.subList(end, history.size()));
+        rewriteHistory(start, result.actions, tail);
+        compactedCount = start + result.actions.size();
+
+        int merged = result.countBefore - result.covered.size() - result.undone.size() - result.actions.size();
+        System.out.println("已压缩房间 [" + id + "] 的 " + result.countBefore + " 条历史指令: 剩余 " + result.actions.size()
+                + " 条（" + percent(result.actions.size(), result.countBefore) + "），合并 " + merged + " 条，删除被盖住的 "
+                + result.covered.size() + " 条、已撤销的 " + result.undone.size() + " 条，编码大小 " + result.bytesBefore / 1024
+                + " KB -> " + result.bytesAfter / 1024 + " KB（" + percent(result.bytesAfter, result.bytesBefore) + "）。");
+
+        List<DrawingAction> dropped = new ArrayList<>(result.covered);
+        dropped.addAll(result.undone);
+        if (!dropped.isEmpty()) {
+            tombstones = tombstones.without(sequencesOf(result.undone));
+            // 被删除的图形在所有成员的画板上也删除，之后移除上面的橡皮擦笔画时，新旧成员看到的画面仍然一致
+            dropped.sort((a, b) -> Long.compare(a.getSequence(), b.getSequence()));
+            long[] firsts = new long[dropped.size()];
+            long[] targets = new long[dropped.size()];
+            for (int i = 0; i < targets.length; i++) {
+                firsts[i] = dropped.get(i).getFirstSequence();
+                targets[i] = dropped.get(i).getSequence();
+            }
+            RemoveAction remove = new RemoveAction(firsts, targets);
+            remove.assignSequence(++lastSequence);
+            journalAndBroadcast(remove);
+        }
+        keyframes.onAppend();
+        maybeCompact();
+    }
+
+    private static String percent(long part, long whole) {
+        return whole == 0 ? "100%" : (part * 100 / whole) + "%";
+    }
+
+    /**
+     * 历史按序号升序排列，二分查找第一个序号不小于 sequence 的位置。
+     */
+    private static int lowerBound(List<Action> history, long sequence) {
+        int low = 0;
+        int high = history.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (((DrawingAction) history.get(mid)).getSequence() < sequence) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int indexOfSequence(List<Action> history, long sequence) {
+        int index = lowerBound(history, sequence);
+        return index < history.size() && ((DrawingAction) history.get(index)).getSequence() == sequence ? index : -1;
+    }
+
+    /**
+     * 记录成员收到的快照是否以底图开头，以及底图覆盖到的序号。
+     */
+    private void recordKeyframe(ClientHandler client, List<OutboundMessage> snapshot) {
+        Action first = snapshot.get(0).getAction();
+        if (first instanceof KeyframeAction) {
+            keyframeMembers.put(client, ((KeyframeAction) first).getThroughSequence());
+        } else {
+            keyframeMembers.remove(client);
+        }
+    }
+
+    /**
+     * 将一个指令广播给房间内的所有成员。
+     */
+    public void broadcast(Action action) {
+        // 只创建一条消息，所有接收者共享同一份编码结果
+        broadcast(new OutboundMessage(action));
+    }
+
+    private void broadcast(OutboundMessage message) {
+        for (ClientHandler member : members) {
+            member.sendMessage(message);
+        }
+    }
+
+    /**
+     * 向一个落后的成员重新发送完整的画板快照。
+     * 在定序线程中执行，快照与之后的广播之间没有遗漏或重复。
+     */
+    private void resyncClient(ClientHandler client) {
+        if (!client.isResyncPending() || !memberSet.contains(client)) return;
+        List<OutboundMessage> snapshot = snapshotMessages();
+        client.deliverResync(snapshot);
+        recordKeyframe(client, snapshot);
+        System.out.println("已向用户 " + client.getUsername() + " 重新发送房间 [" + id + "] 的画板快照，共 " + drawingHistory.size() + " 条指令，" + snapshot.size() + " 个片段。");
+    }
+
+    /**
+     * 生成覆盖当前全部历史的快照片段。有可用的画板底图时先发送底图，只发送底图之后的片段。
+     * 完整的片段取自缓存，只有末尾不足一个片段的部分需要现场打包。只在定序线程中调用。
+     */
+    private List<OutboundMessage> snapshotMessages() {
+        List<Action> history = drawingHistory.snapshot();
+        int fullChunks = cacheFullChunks(history);
+        KeyframeBuilder.Keyframe keyframe = keyframes.latest();
+        int firstChunk = keyframe == null ? 0 : keyframe.coveredCount / SNAPSHOT_CHUNK_SIZE;
+        try {
+            List<OutboundMessage> messages = new ArrayList<>(fullChunks - firstChunk + 2);
+            if (keyframe != null) {
+                messages.add(keyframe.message);
+            }
+            messages.addAll(snapshotChunks.subList(firstChunk, fullChunks));
+            int tailStart = fullChunks * SNAPSHOT_CHUNK_SIZE;
+            messages.add(new OutboundMessage(HistorySnapshots.pack(
+                    history.subList(tailStart, history.size()), tailStart, true, lastSequence)));
+            if (!tombstones.isEmpty()) {
+                // 快照中包含已撤销的图形，以便之后重做，紧接着告诉成员哪些暂不绘制
+                messages.add(new OutboundMessage(tombstoneState(history)));
+            }
+            return messages;
+        } catch (IOException e) {
+            // 历史中的指令都来自成功解码的数据，不应无法编码
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 描述当前所有已撤销图形的指令。它紧跟在快照之后发送，没有分配序号。
+     */
+    private TombstoneAction tombstoneState(List<Action> history) {
+        long[] targets = tombstones.toArray();
+        long[] firsts = new long[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            int index = indexOfSequence(history, targets[i]);
+            firsts[i] = index >= 0 ? ((DrawingAction) history.get(index)).getFirstSequence() : targets[i];
+        }
+        return new TombstoneAction(firsts, targets, false);
+    }
+
+    /**
+     * 向房间中的所有客户端广播最新的用户列表和他们的状态。
+     */
+    public void updateAndBroadcastUserList() {
+        List<UserStatus> statuses = sessionManager.getAllUserStatuses();
+        System.out.println("更新房间 [" + id + "] 用户列表: " + statuses.stream().map(UserStatus::getUsername).collect(Collectors.toList()));
+        broadcast(new UserListUpdateAction(statuses));
+    }
+
+    /**
+     * 写完已提交的日志记录后关闭日志，服务器退出时调用。
+     */
+    public void closeJournal() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * 记录一个即将发出加入事件的客户端，在它被处理之前房间不会被当作空闲关闭。
+     * 由 {@link RoomRegistry} 在持锁时调用，之后必须调用 {@link #join}。
+     */
+    void reserveJoin() {
+        pendingJoins.incrementAndGet();
+    }
+
+    /**
+     * 房间是否在指定时刻之前就已经没有成员，并且没有正在加入的客户端。
+     * @param cutoff 时刻（毫秒）。
+     */
+    boolean isIdleSince(long cutoff) {
+        // 与 addMember 的写入顺序相反：先读待加入数，再读变空的时刻
+        return pendingJoins.get() == 0 && emptySince <= cutoff;
+    }
+
+    /**
+     * 关闭空闲的房间：在定序线程中写完并关闭历史日志、释放历史存储，然后让定序线程退出。
+     * 调用前房间必须已经从注册表中移除，之后提交的事件都会被忽略。
+     */
+    void close() {
+        CountDownLatch done = new CountDownLatch(1);
+        sequencer.put(new RoomEvent(() -> {
+            closed = true;
+            closeJournal();
+            drawingHistory.close();
+            done.countDown();
+        }));
+        try {
+            // 房间已经空闲了一段时间，日志中通常没有待写的记录，很快就能关闭
+            if (!done.await(10, TimeUnit.SECONDS)) {
+                System.err.println("房间 [" + id + "] 未能及时关闭。");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getId() { return id; }
+    public SessionManager getSessionManager() { return sessionManager; }
+    public List<ClientHandler> getMembers() { return members; }
+
+    /**
+     * 最近一条绘图指令的序号。
+     */
+    public long getLastSequence() { return lastSequence; }
+
+    /**
+     * 已提交但尚未被定序线程处理的事件数。
+     */
+    public int getPendingEvents() { return sequencer.size(); }
+
+    /**
+     * 获取房间画板的完整绘图历史。
+     * @return 调用时刻历史的只读快照，之后的绘图和清空不会影响它。
+     */
+    public List<Action> getDrawingHistory() {
+        return drawingHistory.snapshot();
+    }
+
+    /**
+     * 为画板的当前状态创建导出器，可以在任意线程中调用。已撤销的图形不导出。
+     */
+    public BoardExporter createExporter() {
+        Tombstones undone = tombstones;
+        return new BoardExporter(drawingHistory.snapshot(),
+                action -> action instanceof DrawingAction && !undone.contains(((DrawingAction) action).getSequence()));
+    }
+
+    /**
+     * 一次正在进行的画板上传。
+     */
+    private static final class Upload {
+        final List<Action> actions = new ArrayList<>();
+        // 已经收到的指令数，包括被忽略的非绘图指令
+        int received;
+    }
+
+    /**
+     * 发布到定序环形缓冲区中的事件。
+     */
+    private static final class RoomEvent {
+        static final int ACTION = 0;
+        static final int JOIN = 1;
+        static final int LEAVE = 2;
+        static final int RESYNC = 3;
+        static final int TASK = 4;
+
+        final int kind;
+        final Action action;
+        final ClientHandler client;
+        // TASK 事件在定序线程中执行的操作
+        final Runnable task;
+
+        RoomEvent(int kind, Action action, ClientHandler client) {
+            this.kind = kind;
+            this.action = action;
+            this.client = client;
+            this.task = null;
+        }
+
+        RoomEvent(Runnable task) {
+            this.kind = TASK;
+            this.action = null;
+            this.client = null;
+            this.task = task;
+        }
+    }
+}
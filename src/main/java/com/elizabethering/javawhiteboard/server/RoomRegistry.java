@@ -0,0 +1,134 @@
+package com.elizabethering.javawhiteboard.server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按房间号管理所有共享画板房间。
+ * 房间在第一个客户端加入时创建，所有成员离开并空置一段时间后关闭，释放定序线程、历史日志等资源；
+ * 启用历史日志时，服务器启动时和关闭后的房间再有人加入时，都会根据日志文件重建画板。
+ * 同时存在的房间数有上限，防止客户端随意发送房间号耗尽服务器资源。
+ */
+public class RoomRegistry {
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ServerConfig config;
+
+    public RoomRegistry(ServerConfig config) {
+        this.config = config;
+        restoreJournaledRooms();
+    }
+
+    /**
+     * 为日志目录中的每个日志文件重建房间，恢复服务器上次运行时的画板。
+     * 这些房间在空置时间到达后同样会被关闭。
+     */
+    private void restoreJournaledRooms() {
+        Path dir = config.getJournalDir();
+        if (dir == null || !Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + HistoryJournal.EXTENSION)) {
+            for (Path file : files) {
+                String roomId = HistoryJournal.roomIdOf(file);
+                if (roomId == null) continue;
+                if (rooms.size() >= config.getMaxRooms()) {
+                    System.out.println("房间数已达上限 " + config.getMaxRooms() + "，其余房间在有人加入时再从日志重建。");
+                    break;
+                }
+                rooms.computeIfAbsent(roomId, id -> new Room(id, config));
+            }
+        } catch (IOException e) {
+            System.err.println("无法读取日志目录 " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 启动后台线程，定期关闭空置时间超过配置的房间。
+     */
+    public void startEvictor() {
+        long idleMillis = TimeUnit.SECONDS.toMillis(config.getRoomIdleSeconds());
+        long period = Math.max(1, Math.min(config.getRoomIdleSeconds(), 60));
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "room-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        evictor.scheduleWithFixedDelay(() -> {
+            try {
+                evictIdleRooms(System.currentTimeMillis() - idleMillis);
+            } catch (RuntimeException e) {
+                System.err.println("关闭空闲房间时出错: " + e.getMessage());
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 关闭在指定时刻之前就已经没有成员的房间。
+     * 移除和 {@link #getOrCreate} 互斥，正在加入的房间不会被关闭；
+     * 关闭也在锁内完成，同一房间号的新房间要等旧房间的日志关闭后才会打开同一个日志文件。
+     * @param cutoff 时刻（毫秒）。
+     * @return 关闭的房间数。
+     */
+    synchronized int evictIdleRooms(long cutoff) {
+        List<Room> idle = new ArrayList<>();
+        for (Room room : rooms.values()) {
+            if (room.isIdleSince(cutoff)) {
+                idle.add(room);
+            }
+        }
+        for (Room room : idle) {
+            rooms.remove(room.getId());
+            room.close();
+            System.out.println("房间 [" + room.getId() + "] 已空置，已关闭。");
+        }
+        return idle.size();
+    }
+
+    /**
+     * 关闭所有房间的历史日志，确保已提交的指令都已写入磁盘。
+     */
+    public void closeJournals() {
+        for (Room room : rooms.values()) {
+            room.closeJournal();
+        }
+    }
+
+    /**
+     * 返回指定房间号的房间，不存在时创建一个新房间。调用者之后必须调用返回房间的 {@link Room#join}。
+     * @return 房间；房间数已达上限且该房间不存在时返回 null。
+     */
+    public synchronized Room getOrCreate(String roomId) {
+        Room room = rooms.get(roomId);
+        if (room == null) {
+            if (rooms.size() >= config.getMaxRooms()) {
+                System.out.println("房间数已达上限 " + config.getMaxRooms() + "，拒绝创建房间 [" + roomId + "]。");
+                return null;
+            }
+            System.out.println("创建新的房间 [" + roomId + "]。");
+            room = new Room(roomId, config);
+            rooms.put(roomId, room);
+        }
+        room.reserveJoin();
+        return room;
+    }
+
+    /**
+     * 返回指定房间号的房间，不存在时返回 null。
+     */
+    public Room get(String roomId) {
+        return rooms.get(roomId);
+    }
+
+    public Collection<Room> getRooms() {
+        return rooms.values();
+    }
+}
@@ -0,0 +1,116 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 只追加的分段绘图历史，指令以对象的形式保存在堆中。
+ * <p>
+ * 历史按固定大小的分段存储，追加只写入最后一个分段，不复制已有元素，均摊 O(1)；
+ * 清空只替换目录，O(1)；截断只复制目录和截断点所在的分段。已写入的分段永不修改，因此 {@link #snapshot()} 只需记录当前的目录和长度，
+ * 得到的快照在之后的追加和清空中保持不变，可以在任意线程中安全遍历。
+ * <p>
+ * 写入（{@link #append} 和 {@link #clear}）只能由一个线程执行，即房间的定序线程；读取可以在任意线程中进行。
+ */
+public final class SegmentedHistory implements ActionHistory {
+
+    private static final int SEGMENT_SHIFT = 10;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private volatile Directory current = new Directory(new Object[4][], 0);
+
+    @Override
+    public void append(Action action) {
+        Directory dir = current;
+        int index = dir.size;
+        int segment = index >>> SEGMENT_SHIFT;
+        if (segment == dir.segments.length) {
+            // 目录已满：复制目录（只复制分段引用），之后的读者从新目录开始
+            dir = new Directory(Arrays.copyOf(dir.segments, segment * 2), index);
+            current = dir;
+        }
+        Object[] target = dir.segments[segment];
+        if (target == null) {
+            target = new Object[SEGMENT_SIZE];
+            dir.segments[segment] = target;
+        }
+        target[index & SEGMENT_MASK] = action;
+        dir.size = index + 1; // volatile 写，发布上面写入的元素
+    }
+
+    @Override
+    public void clear() {
+        current = new Directory(new Object[4][], 0);
+    }
+
+    @Override
+    public void truncate(int size) {
+        Directory dir = current;
+        if (size >= dir.size) return;
+        if (size <= 0) {
+            clear();
+            return;
+        }
+        Object[][] segments = Arrays.copyOf(dir.segments, dir.segments.length);
+        int boundary = size >>> SEGMENT_SHIFT;
+        int offset = size & SEGMENT_MASK;
+        if (offset != 0) {
+            // 截断点所在的分段复制一份，之后的追加写入副本，已经取得的快照仍然看到原来的内容
+            Object[] copy = Arrays.copyOf(segments[boundary], SEGMENT_SIZE);
+            Arrays.fill(copy, offset, SEGMENT_SIZE, null);
+            segments[boundary] = copy;
+            boundary++;
+        }
+        Arrays.fill(segments, boundary, segments.length, null);
+        current = new Directory(segments, size);
+    }
+
+    @Override
+    public int size() {
+        return current.size;
+    }
+
+    @Override
+    public List<Action> snapshot() {
+        Directory dir = current;
+        return new Snapshot(dir.segments, dir.size);
+    }
+
+    private static final class Directory {
+        final Object[][] segments;
+        volatile int size;
+
+        Directory(Object[][] segments, int size) {
+            this.segments = segments;
+            this.size = size;
+        }
+    }
+
+    private static final class Snapshot extends AbstractList<Action> implements RandomAccess {
+        private final Object[][] segments;
+        private final int size;
+
+        Snapshot(Object[][] segments, int size) {
+            this.segments = segments;
+            this.size = size;
+        }
+
+        @Override
+        public Action get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return (Action) segments[index >>> SEGMENT_SHIFT][index & SEGMENT_MASK];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.elizabethering.javawhiteboard.server;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 一个 Selector 线程，负责它名下所有 NIO 连接的读、写和关闭。
+ * 其他线程只能通过 {@link #execute(Runnable)} 把操作投递到这个线程上执行。
+ */
+class SelectorLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+
+    SelectorLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 在 Selector 线程上执行一个任务。
+     * 如果调用方就是 Selector 线程，任务会在本轮事件处理结束后执行。
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+                processSelectedKeys();
+                runTasks();
+            } catch (IOException e) {
+                System.err.println("Selector 线程 " + thread.getName() + " 出错: " + e.getMessage());
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (IOException | RuntimeException e) {
+                // 客户端断开或发送了无法解析的数据
+                if (e instanceof StreamCorruptedException) {
+                    System.err.println("客户端 " + connection.getRemoteAddress() + " 发送了无法解析的数据，连接已关闭: " + e.getMessage());
+                }
+                connection.closeNow();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Selector 任务执行失败: " + e.getMessage());
+            }
+        }
+    }
+}
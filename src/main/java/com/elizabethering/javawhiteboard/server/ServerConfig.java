@@ -0,0 +1,136 @@
+package com.elizabethering.javawhiteboard.server;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+
+/**
+ * 服务器的运行参数。
+ * 所有参数都可以通过 JVM 系统属性覆盖，例如：
+ * <pre>java -Dwhiteboard.io=nio -Dwhiteboard.nio.selectors=4 -Dwhiteboard.queue.overflow=drop_ephemeral -jar whiteboard-server.jar</pre>
+ */
+public class ServerConfig {
+
+    /**
+     * 连接引擎的类型。
+     */
+    public enum IoMode {
+        /** 每个连接一个线程，阻塞读写。 */
+        BLOCKING,
+        /** 固定数量的 Selector 线程处理所有连接。 */
+        NIO
+    }
+
+    /**
+     * 房间绘图历史的存储方式。
+     */
+    public enum HistoryStore {
+        /** 指令对象保存在 Java 堆中。 */
+        HEAP,
+        /** 指令编码后保存在堆外的内存映射文件中，适合非常大的画板。 */
+        MAPPED
+    }
+
+    private final int port;
+    private final IoMode ioMode;
+    private final int selectorThreads;
+    private final int outboundQueueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int queueStatsIntervalSeconds;
+    private final int keyframeInterval;
+    private final int keyframeWidth;
+    private final int keyframeHeight;
+    private final Path journalDir;
+    private final HistoryStore historyStore;
+    private final Path historyDir;
+    private final int compactionWindow;
+    private final Path exportDir;
+    private final LocalTime exportTime;
+    private final int maxRooms;
+    private final int roomIdleSeconds;
+    private final int maxUploadActions;
+
+    public ServerConfig(int port, IoMode ioMode, int selectorThreads, int outboundQueueCapacity,
+                        OverflowPolicy overflowPolicy, int queueStatsIntervalSeconds,
+                        int keyframeInterval, int keyframeWidth, int keyframeHeight, Path journalDir,
+                        HistoryStore historyStore, Path historyDir, int compactionWindow,
+                        Path exportDir, LocalTime exportTime, int maxRooms, int roomIdleSeconds,
+                        int maxUploadActions) {
+        this.port = port;
+        this.ioMode = ioMode;
+        this.selectorThreads = Math.max(1, selectorThreads);
+        this.outboundQueueCapacity = Math.max(1, outboundQueueCapacity);
+        this.overflowPolicy = overflowPolicy;
+        this.queueStatsIntervalSeconds = queueStatsIntervalSeconds;
+        this.keyframeInterval = Math.max(0, keyframeInterval);
+        this.keyframeWidth = Math.max(1, keyframeWidth);
+        this.keyframeHeight = Math.max(1, keyframeHeight);
+        this.journalDir = journalDir;
+        this.historyStore = historyStore;
+        this.historyDir = historyDir;
+        this.compactionWindow = Math.max(0, compactionWindow);
+        this.exportDir = exportDir;
+        this.exportTime = exportTime;
+        this.maxRooms = Math.max(1, maxRooms);
+        this.roomIdleSeconds = Math.max(0, roomIdleSeconds);
+        this.maxUploadActions = Math.max(1, maxUploadActions);
+    }
+
+    /**
+     * 从系统属性中读取配置，未设置的项使用默认值。
+     */
+    public static ServerConfig fromSystemProperties() {
+        int port = Integer.getInteger("whiteboard.port", ServerApp.PORT);
+        IoMode ioMode = IoMode.valueOf(System.getProperty("whiteboard.io", "blocking").trim().toUpperCase());
+        int selectors = Integer.getInteger("whiteboard.nio.selectors", Runtime.getRuntime().availableProcessors());
+        int queueCapacity = Integer.getInteger("whiteboard.queue.capacity", 4096);
+        OverflowPolicy policy = OverflowPolicy.valueOf(System.getProperty("whiteboard.queue.overflow", "resync").trim().toUpperCase());
+        int statsInterval = Integer.getInteger("whiteboard.queue.statsInterval", 0);
+        int keyframeInterval = Integer.getInteger("whiteboard.keyframe.interval", 4096);
+        int keyframeWidth = Integer.getInteger("whiteboard.keyframe.width", 1920);
+        int keyframeHeight = Integer.getInteger("whiteboard.keyframe.height", 1080);
+        String journal = System.getProperty("whiteboard.journal.dir", "journal").trim();
+        Path journalDir = journal.isEmpty() || journal.equalsIgnoreCase("none") ? null : Paths.get(journal);
+        HistoryStore historyStore = HistoryStore.valueOf(System.getProperty("whiteboard.history.store", "heap").trim().toUpperCase());
+        Path historyDir = Paths.get(System.getProperty("whiteboard.history.dir", System.getProperty("java.io.tmpdir")));
+        int compactionWindow = Integer.getInteger("whiteboard.compaction.window", 16384);
+        String export = System.getProperty("whiteboard.export.dir", "none").trim();
+        Path exportDir = export.isEmpty() || export.equalsIgnoreCase("none") ? null : Paths.get(export);
+        LocalTime exportTime = LocalTime.parse(System.getProperty("whiteboard.export.time", "23:30").trim());
+        int maxRooms = Integer.getInteger("whiteboard.rooms.max", 1000);
+        int roomIdleSeconds = Integer.getInteger("whiteboard.rooms.idleSeconds", 600);
+        int maxUploadActions = Integer.getInteger("whiteboard.upload.maxActions", 1_000_000);
+        return new ServerConfig(port, ioMode, selectors, queueCapacity, policy, statsInterval,
+                keyframeInterval, keyframeWidth, keyframeHeight, journalDir, historyStore, historyDir, compactionWindow,
+                exportDir, exportTime, maxRooms, roomIdleSeconds, maxUploadActions);
+    }
+
+    public int getPort() { return port; }
+    public IoMode getIoMode() { return ioMode; }
+    public int getSelectorThreads() { return selectorThreads; }
+    public int getOutboundQueueCapacity() { return outboundQueueCapacity; }
+    public OverflowPolicy getOverflowPolicy() { return overflowPolicy; }
+    /** 打印各客户端出站队列深度的间隔（秒），0 表示不打印。 */
+    public int getQueueStatsIntervalSeconds() { return queueStatsIntervalSeconds; }
+    /** 每新增多少条历史指令渲染一次画板底图，0 表示不渲染。 */
+    public int getKeyframeInterval() { return keyframeInterval; }
+    public int getKeyframeWidth() { return keyframeWidth; }
+    public int getKeyframeHeight() { return keyframeHeight; }
+    /** 房间历史日志所在的目录，null 表示不写日志，服务器重启后画板为空。 */
+    public Path getJournalDir() { return journalDir; }
+    public HistoryStore getHistoryStore() { return historyStore; }
+    /** {@link HistoryStore#MAPPED} 模式下存放映射文件的目录。 */
+    public Path getHistoryDir() { return historyDir; }
+    /** 每积累多少条未压缩的历史指令在后台压缩一次，0 表示不压缩。 */
+    public int getCompactionWindow() { return compactionWindow; }
+    /** 每天导出所有房间画板的目录，null 表示不导出。 */
+    public Path getExportDir() { return exportDir; }
+    /** 每天导出画板的时刻（服务器本地时间）。 */
+    public LocalTime getExportTime() { return exportTime; }
+    /** 同时存在的房间数上限，达到上限后不再创建新房间。 */
+    public int getMaxRooms() { return maxRooms; }
+    /** 房间空置多少秒后被关闭并释放资源，之后再有人加入时从日志重建。 */
+    public int getRoomIdleSeconds() { return roomIdleSeconds; }
+    /** 老师一次加载的画板最多包含的指令数，超过时放弃这次加载。 */
+    public int getMaxUploadActions() { return maxUploadActions; }
+}
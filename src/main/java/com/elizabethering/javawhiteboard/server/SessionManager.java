@@ -2,7 +2,6 @@ package com.elizabethering.javawhiteboard.server;
 
 import com.elizabethering.javawhiteboard.shared.model.*;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -54,13 +53,9 @@ public class SessionManager {
 
     public void handlePermissionRequest(ClientHandler studentHandler) {
         if (teacherHandler != null) {
-            try {
-                Action notification = new IncomingPermissionRequestAction(studentHandler.getUsername());
-                teacherHandler.sendAction(notification);
-                System.out.println("已将学生 " + studentHandler.getUsername() + " 的权限请求转发给老师。");
-            } catch (IOException e) {
-                System.err.println("向老师转发权限请求时出错: " + e.getMessage());
-            }
+            Action notification = new IncomingPermissionRequestAction(studentHandler.getUsername());
+            teacherHandler.sendAction(notification);
+            System.out.println("已将学生 " + studentHandler.getUsername() + " 的权限请求转发给老师。");
         }
     }
 
@@ -93,13 +88,9 @@ public class SessionManager {
             authorizedStudents.remove(studentHandler);
         }
 
-        try {
-            Action statusUpdate = new PermissionStatusUpdateAction(isAuthorized, message);
-            studentHandler.sendAction(statusUpdate);
-            System.out.println("已将权限状态更新 (" + message + ") 发送给学生 " + studentHandler.getUsername());
-        } catch (IOException e) {
-            System.err.println("向学生 " + studentHandler.getUsername() + " 发送权限状态更新时出错: " + e.getMessage());
-        }
+        Action statusUpdate = new PermissionStatusUpdateAction(isAuthorized, message);
+        studentHandler.sendAction(statusUpdate);
+        System.out.println("已将权限状态更新 (" + message + ") 发送给学生 " + studentHandler.getUsername());
     }
 
     public List<UserStatus> getAllUserStatuses() {
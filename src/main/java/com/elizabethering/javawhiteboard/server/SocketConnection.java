@@ -0,0 +1,93 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.protocol.ActionFrames;
+import com.elizabethering.javawhiteboard.shared.protocol.WireFormat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * 基于阻塞 Socket 的连接。
+ * 读取由连接引擎的专属线程循环完成；写出由本连接自己的写线程从出站队列中取出并发送。
+ */
+public class SocketConnection implements ClientConnection {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final OutboundQueue outboundQueue;
+    // 跟随客户端最近一次发来的帧的格式
+    private volatile WireFormat wireFormat = WireFormat.BINARY;
+
+    public SocketConnection(Socket socket, int queueCapacity) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.outboundQueue = new OutboundQueue(queueCapacity);
+    }
+
+    /**
+     * 启动写线程。
+     */
+    public void startWriter(String name) {
+        Thread writer = new Thread(this::writeLoop, name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 阻塞读取下一条指令。
+     */
+    public Action readAction() throws IOException {
+        byte[] payload = ActionFrames.readPayload(in);
+        wireFormat = WireFormat.detect(payload, 0, payload.length);
+        return wireFormat.codec().decode(payload, 0, payload.length);
+    }
+
+    private void writeLoop() {
+        try {
+            OutboundMessage message;
+            while ((message = outboundQueue.take()) != null) {
+                // 直接写出共享的已编码帧，不再为每个接收者重新序列化
+                out.write(message.frame(wireFormat));
+                // 队列中还有待发消息时先写入缓冲区，取空后再统一 flush
+                if (outboundQueue.size() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // 连接已断开，读取线程会负责清理
+            close();
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    @Override
+    public void close() {
+        outboundQueue.close();
+        try {
+            if (!socket.isClosed()) socket.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+}
@@ -0,0 +1,150 @@
+package com.elizabethering.javawhiteboard.server;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按范围索引画板上的图形，用于快速找出擦除轨迹附近的图形。
+ * <p>
+ * 画板被划分为固定大小的网格，每个图形的序号登记在它的范围覆盖的每个格子中，查询只检查与查询范围相交的格子。
+ * 覆盖格子太多的大图形单独存放，每次查询都作为候选，避免一个大矩形登记成千上万次。
+ * 只由房间的定序线程访问。
+ */
+final class SpatialIndex {
+
+    private static final int CELL_SHIFT = 7; // 128 像素的格子
+    private static final int MAX_CELLS_PER_ENTRY = 64;
+
+    private final Map<Long, LongBag> cells = new HashMap<>();
+    private final LongBag large = new LongBag();
+    private int entries = 0;
+
+    /**
+     * 登记一个图形。
+     */
+    void add(long sequence, Rectangle2D bounds) {
+        if (isLarge(bounds)) {
+            large.add(sequence);
+        } else {
+            int x0 = cell(bounds.getMinX()), x1 = cell(bounds.getMaxX());
+            int y0 = cell(bounds.getMinY()), y1 = cell(bounds.getMaxY());
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    cells.computeIfAbsent(key(x, y), k -> new LongBag()).add(sequence);
+                }
+            }
+        }
+        entries++;
+    }
+
+    /**
+     * 移除一个图形，范围必须与登记时相同。
+     */
+    void remove(long sequence, Rectangle2D bounds) {
+        if (isLarge(bounds)) {
+            large.remove(sequence);
+        } else {
+            int x0 = cell(bounds.getMinX()), x1 = cell(bounds.getMaxX());
+            int y0 = cell(bounds.getMinY()), y1 = cell(bounds.getMaxY());
+            for (int x = x0; x <= x1; x++) {
+                for (int y = y0; y <= y1; y++) {
+                    Long key = key(x, y);
+                    LongBag bag = cells.get(key);
+                    if (bag != null && bag.remove(sequence) && bag.size == 0) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+        entries--;
+    }
+
+    void clear() {
+        cells.clear();
+        large.size = 0;
+        entries = 0;
+    }
+
+    /**
+     * 返回范围可能与查询范围相交的图形的序号，升序且不重复。结果需要再做精确判断。
+     */
+    long[] query(Rectangle2D area) {
+        LongBag result = new LongBag();
+        result.addAll(large);
+        int x0 = cell(area.getMinX()), x1 = cell(area.getMaxX());
+        int y0 = cell(area.getMinY()), y1 = cell(area.getMaxY());
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                LongBag bag = cells.get(key(x, y));
+                if (bag != null) {
+                    result.addAll(bag);
+                }
+            }
+        }
+        long[] sequences = Arrays.copyOf(result.values, result.size);
+        Arrays.sort(sequences);
+        int unique = 0;
+        for (int i = 0; i < sequences.length; i++) {
+            if (i == 0 || sequences[i] != sequences[i - 1]) {
+                sequences[unique++] = sequences[i];
+            }
+        }
+        return Arrays.copyOf(sequences, unique);
+    }
+
+    /**
+     * 已登记的图形数。
+     */
+    int size() {
+        return entries;
+    }
+
+    private static boolean isLarge(Rectangle2D bounds) {
+        long columns = (long) cell(bounds.getMaxX()) - cell(bounds.getMinX()) + 1;
+        long rows = (long) cell(bounds.getMaxY()) - cell(bounds.getMinY()) + 1;
+        return columns * rows > MAX_CELLS_PER_ENTRY;
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate) >> CELL_SHIFT;
+    }
+
+    private static Long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 不装箱的 long 数组，移除时用最后一个元素填补空位，不保持顺序。
+     */
+    private static final class LongBag {
+        long[] values = new long[4];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(LongBag other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, values.length * 2));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        boolean remove(long value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.DrawingAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import com.elizabethering.javawhiteboard.shared.model.TextAction;
+import com.elizabethering.javawhiteboard.shared.protocol.BinaryActionCodec;
+import com.elizabethering.javawhiteboard.shared.render.ActionRenderer;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 在后台压缩一段绘图历史，不改变画板的显示结果。
+ * <p>
+ * 压缩分三步：
+ * <ol>
+ * <li>删除已撤销的图形，它们之后无法再重做。</li>
+ * <li>删除被之后的白色橡皮擦笔画完全盖住的图形（旧版客户端的橡皮擦用背景色涂抹）。
+ * 还可以撤销或重做的橡皮擦笔画不算，撤销后被盖住的图形要重新显示。</li>
+ * <li>把首尾相连、颜色和线宽都相同的连续线段和笔画合并为一条笔画。早期版本的客户端保存的画板中每个鼠标事件是一条两点线段，
+ * 合并后历史的条数和快照的大小都会成倍减少。合并结果使用最后一段的序号，并代表从第一段开始的所有序号。
+ * 只合并同一作者、同一个撤销步骤的线段，撤销合并结果不会连带别人的笔迹。从日志重放和上传的画板没有步骤记录，
+ * 它们已经无法撤销，同一作者的相邻线段之间照常合并，但不与还能撤销的线段合并。</li>
+ * </ol>
+ * 只合并历史中相邻的指令，绘制顺序保持不变；半透明的颜色重叠处的效果与单独绘制不同，不做合并。
+ */
+final class StrokeCompactor {
+
+    // 所有房间共用一个压缩线程，压缩不会占用定序线程
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "history-compactor");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    // 合并后一条笔画最多包含的点数，擦除时以整条笔画为单位
+    private static final int MAX_MERGED_POINTS = 1024;
+    // 判断一个图形是否被盖住时最多检查的橡皮擦笔画数
+    private static final int MAX_COVER_CANDIDATES = 32;
+    // 画板的背景色
+    private static final int BACKGROUND_RGB = Color.WHITE.getRGB();
+
+    private static final BinaryActionCodec CODEC = new BinaryActionCodec();
+
+    private StrokeCompactor() {
+    }
+
+    /**
+     * 在后台线程中执行压缩任务。
+     */
+    static void submit(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * 压缩一段历史。
+     * @param region 要压缩的历史片段，按绘制顺序排列。
+     * @param tombstones 已撤销的图形。
+     * @param steps 图形的序号到所属撤销步骤编号的映射。
+     * @param undoable 还可以撤销或重做的图形的序号。
+     */
+    static Result compact(List<Action> region, Tombstones tombstones, Map<Long, Long> steps, NavigableSet<Long> undoable) {
+        List<Action> visible = new ArrayList<>(region.size());
+        List<DrawingAction> undone = new ArrayList<>();
+        for (Action action : region) {
+            if (tombstones.contains(((DrawingAction) action).getSequence())) {
+                undone.add((DrawingAction) action);
+            } else {
+                visible.add(action);
+            }
+        }
+        List<Action> kept = new ArrayList<>(visible.size());
+        List<DrawingAction> covered = dropCovered(visible, kept, undoable);
+        List<Action> merged = mergeRuns(kept, steps);
+        ActionRenderer.releaseCaches(region);
+        return new Result(merged, covered, undone, encodedSize(region), encodedSize(merged), region.size());
+    }
+
+    // --- 删除被盖住的图形 ---
+
+    private static List<DrawingAction> dropCovered(List<Action> region, List<Action> kept, NavigableSet<Long> undoable) {
+        // 先找出所有用背景色涂抹的橡皮擦笔画。还可以撤销的笔画不算：撤销后被盖住的图形要重新露出来
+        List<Cover> covers = new ArrayList<>();
+        for (int i = 0; i < region.size(); i++) {
+            Shape eraser = eraserShape(region.get(i));
+            if (eraser != null && !isUndoable((DrawingAction) region.get(i), undoable)) {
+                covers.add(new Cover(i, eraser, widthOf(region.get(i)), ActionRenderer.bounds(region.get(i))));
+            }
+        }
+        List<DrawingAction> dropped = new ArrayList<>();
+        int firstLater = 0;
+        for (int i = 0; i < region.size(); i++) {
+            Action action = region.get(i);
+            while (firstLater < covers.size() && covers.get(firstLater).index <= i) firstLater++;
+            if (firstLater < covers.size() && eraserShape(action) == null && isCovered(action, covers, firstLater)) {
+                dropped.add((DrawingAction) action);
+            } else {
+                kept.add(action);
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * 图形代表的序号中是否有还可以撤销或重做的。合并过的笔画代表从第一段开始的所有序号。
+     */
+    private static boolean isUndoable(DrawingAction action, NavigableSet<Long> undoable) {
+        Long live = undoable.ceiling(action.getFirstSequence());
+        return live != null && live <= action.getSequence();
+    }
+
+    /**
+     * 判断图形是否被其后的橡皮擦笔画完全盖住。图形的轮廓向外多算 1 像素，抗锯齿的边缘也必须被盖住。
+     */
+    private static boolean isCovered(Action action, List<Cover> covers, int from) {
+        Rectangle2D bounds = ActionRenderer.bounds(action);
+        if (bounds == null) return false;
+        Area union = null;
+        int candidates = 0;
+        for (int c = from; c < covers.size(); c++) {
+            Cover cover = covers.get(c);
+            if (!cover.bounds.intersects(bounds)) continue;
+            if (++candidates > MAX_COVER_CANDIDATES) return false;
+            if (union == null) {
+                union = new Area(cover.area());
+            } else {
+                union.add(cover.area());
+            }
+        }
+        if (union == null || !union.getBounds2D().contains(bounds)) return false;
+
+        Shape outline;
+        if (action instanceof ShapeAction) {
+            ShapeAction sa = (ShapeAction) action;
+            outline = stroke(sa.getStrokeWidth() + 2).createStrokedShape(sa.getShape());
+        } else if (action instanceof StrokeAction) {
+            StrokeAction st = (StrokeAction) action;
+            outline = stroke(st.getStrokeWidth() + 2).createStrokedShape(st.toShape());
+        } else if (action instanceof TextAction) {
+            outline = bounds;
+        } else {
+            return false;
+        }
+        Area remaining = new Area(outline);
+        remaining.subtract(union);
+        return remaining.isEmpty();
+    }
+
+    /**
+     * 用背景色涂抹的不透明橡皮擦笔画的路径，其他指令返回 null。
+     */
+    private static Shape eraserShape(Action action) {
+        if (action instanceof StrokeAction) {
+            StrokeAction st = (StrokeAction) action;
+            if (st.getToolType() == ShapeType.ERASER && st.getColor().getRGB() == BACKGROUND_RGB) {
+                return st.toShape();
+            }
+        } else if (action instanceof ShapeAction) {
+            ShapeAction sa = (ShapeAction) action;
+            if (sa.getShapeType() == ShapeType.ERASER && sa.getColor().getRGB() == BACKGROUND_RGB) {
+                return sa.getShape();
+            }
+        }
+        return null;
+    }
+
+    private static float widthOf(Action action) {
+        return action instanceof StrokeAction ? ((StrokeAction) action).getStrokeWidth() : ((ShapeAction) action).getStrokeWidth();
+    }
+
+    // --- 合并线段 ---
+
+    private static List<Action> mergeRuns(List<Action> actions, Map<Long, Long> steps) {
+        List<Action> result = new ArrayList<>(actions.size());
+        Run run = null;
+        for (Action action : actions) {
+            int[] points = segmentPoints(action);
+            Long step = steps.get(((DrawingAction) action).getSequence());
+            if (run != null && points != null && run.sameOrigin((DrawingAction) action, step) && run.accepts(action, points)) {
+                run.append((DrawingAction) action, points);
+                continue;
+            }
+            if (run != null) {
+                result.add(run.finish());
+                run = null;
+            }
+            if (points != null) {
+                run = new Run((DrawingAction) action, points, step);
+            } else {
+                result.add(action);
+            }
+        }
+        if (run != null) {
+            result.add(run.finish());
+        }
+        return result;
+    }
+
+    /**
+     * 可以合并的指令的点序列：整数坐标的两点线段，或至少两个点的笔画。其他指令返回 null。
+     */
+    private static int[] segmentPoints(Action action) {
+        if (action instanceof ShapeAction) {
+            ShapeAction sa = (ShapeAction) action;
+            if (!(sa.getShape() instanceof Line2D) || sa.getColor().getAlpha() != 255) return null;
+            Line2D line = (Line2D) sa.getShape();
+            double[] coords = {line.getX1(), line.getY1(), line.getX2(), line.getY2()};
+            int[] points = new int[4];
+            for (int i = 0; i < 4; i++) {
+                if (coords[i] != Math.rint(coords[i]) || Math.abs(coords[i]) > Integer.MAX_VALUE) return null;
+                points[i] = (int) coords[i];
+            }
+            return points;
+        } else if (action instanceof StrokeAction) {
+            StrokeAction st = (StrokeAction) action;
+            if (st.getColor().getAlpha() != 255 || st.getPointCount() < 2) return null;
+            return st.getPoints();
+        }
+        return null;
+    }
+
+    private static ShapeType toolOf(Action action) {
+        return action instanceof StrokeAction ? ((StrokeAction) action).getToolType() : ((ShapeAction) action).getShapeType();
+    }
+
+    private static Color colorOf(Action action) {
+        return action instanceof StrokeAction ? ((StrokeAction) action).getColor() : ((ShapeAction) action).getColor();
+    }
+
+    private static BasicStroke stroke(float width) {
+        return new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    }
+
+    private static long encodedSize(List<Action> actions) {
+        long size = 0;
+        for (Action action : actions) {
+            try {
+                size += CODEC.encode(action).length;
+            } catch (IOException e) {
+                // 历史中的指令都可以编码，这里只用于统计
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 一串正在合并的首尾相连的线段。
+     */
+    private static final class Run {
+        private final DrawingAction first;
+        // 所属的撤销步骤，null 表示没有记录（已经无法撤销）
+        private final Long step;
+        private final ShapeType tool;
+        private final Color color;
+        private final float width;
+        private DrawingAction last;
+        private int[] points;
+        private int length;
+        private int count = 1;
+
+        Run(DrawingAction first, int[] points, Long step) {
+            this.first = first;
+            this.step = step;
+            this.last = first;
+            this.tool = toolOf(first);
+            this.color = colorOf(first);
+            this.width = widthOf(first);
+            this.points = Arrays.copyOf(points, Math.max(points.length, 16));
+            this.length = points.length;
+        }
+
+        /**
+         * 是否与这串线段出自同一作者的同一步。作者未知的线段不合并。
+         */
+        boolean sameOrigin(DrawingAction action, Long actionStep) {
+            String author = first.getAuthor();
+            return author != null && author.equals(action.getAuthor())
+                    && (step == null ? actionStep == null : step.equals(actionStep));
+        }
+
+        boolean accepts(Action action, int[] next) {
+            return toolOf(action) == tool && colorOf(action).getRGB() == color.getRGB() && widthOf(action) == width
+                    && next[0] == points[length - 2] && next[1] == points[length - 1]
+                    && (length + next.length - 2) / 2 <= MAX_MERGED_POINTS;
+        }
+
+        void append(DrawingAction action, int[] next) {
+            int needed = length + next.length - 2;
+            if (needed > points.length) {
+                points = Arrays.copyOf(points, Math.max(needed, points.length * 2));
+            }
+            // 第一个点与上一段的终点重合
+            System.arraycopy(next, 2, points, length, next.length - 2);
+            length = needed;
+            last = action;
+            count++;
+        }
+
+        Action finish() {
+            if (count == 1) return first;
+            StrokeAction merged = new StrokeAction(tool, Arrays.copyOf(points, length), color, width);
+            merged.assignSequence(last.getSequence());
+            merged.assignFirstSequence(first.getFirstSequence());
+            merged.assignAuthor(first.getAuthor());
+            return merged;
+        }
+    }
+
+    /**
+     * 一条橡皮擦笔画，覆盖的区域在需要时才计算。
+     */
+    private static final class Cover {
+        final int index;
+        final Shape path;
+        final float width;
+        final Rectangle2D bounds;
+        private Area area;
+
+        Cover(int index, Shape path, float width, Rectangle2D bounds) {
+            this.index = index;
+            this.path = path;
+            this.width = width;
+            this.bounds = bounds;
+        }
+
+        Area area() {
+            if (area == null) {
+                area = new Area(stroke(width).createStrokedShape(path));
+            }
+            return area;
+        }
+    }
+
+    /**
+     * 一次压缩的结果。
+     */
+    static final class Result {
+        final List<Action> actions;
+        // 被盖住而删除的图形
+        final List<DrawingAction> covered;
+        // 已撤销而删除的图形
+        final List<DrawingAction> undone;
+        final long bytesBefore;
+        final long bytesAfter;
+        final int countBefore;
+
+        Result(List<Action> actions, List<DrawingAction> covered, List<DrawingAction> undone,
+               long bytesBefore, long bytesAfter, int countBefore) {
+            this.actions = actions;
+            this.covered = covered;
+            this.undone = undone;
+            this.bytesBefore = bytesBefore;
+            this.bytesAfter = bytesAfter;
+            this.countBefore = countBefore;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.elizabethering.javawhiteboard.server;
+
+import java.util.Arrays;
+
+/**
+ * 历史中已撤销的图形的序号集合，不可变。
+ * <p>
+ * 被撤销的图形通常只有几十个，用一个有序数组保存，修改时复制，可以在渲染线程中安全读取。
+ */
+final class Tombstones {
+
+    static final Tombstones EMPTY = new Tombstones(new long[0]);
+
+    private final long[] sequences; // 升序
+
+    private Tombstones(long[] sequences) {
+        this.sequences = sequences;
+    }
+
+    boolean contains(long sequence) {
+        return sequences.length != 0 && Arrays.binarySearch(sequences, sequence) >= 0;
+    }
+
+    boolean isEmpty() {
+        return sequences.length == 0;
+    }
+
+    int size() {
+        return sequences.length;
+    }
+
+    /**
+     * 返回加入指定序号后的集合。
+     */
+    Tombstones with(long[] added) {
+        long[] merged = Arrays.copyOf(sequences, sequences.length + added.length);
+        System.arraycopy(added, 0, merged, sequences.length, added.length);
+        Arrays.sort(merged);
+        return new Tombstones(unique(merged));
+    }
+
+    /**
+     * 返回去掉指定序号后的集合。
+     */
+    Tombstones without(long[] removed) {
+        if (sequences.length == 0) return this;
+        long[] sorted = removed.clone();
+        Arrays.sort(sorted);
+        long[] remaining = new long[sequences.length];
+        int count = 0;
+        for (long sequence : sequences) {
+            if (Arrays.binarySearch(sorted, sequence) < 0) {
+                remaining[count++] = sequence;
+            }
+        }
+        return count == sequences.length ? this : new Tombstones(Arrays.copyOf(remaining, count));
+    }
+
+    /**
+     * 返回所有序号（升序），调用方不得修改。
+     */
+    long[] toArray() {
+        return sequences;
+    }
+
+    private static long[] unique(long[] sorted) {
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+}
@@ -0,0 +1,162 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.DrawingAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import com.elizabethering.javawhiteboard.shared.model.StrokePoints;
+
+import java.awt.Color;
+import java.awt.geom.Line2D;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * 记录房间中每个用户的绘图步骤，用于撤销和重做。
+ * <p>
+ * 每一步是该用户画出的若干图形的序号。客户端在拖动过程中分段发送同一笔，
+ * 首尾相连且样式相同的连续笔画归为同一步，一次撤销整笔。只保存序号，不保存指令本身。
+ * 每一步以它第一个图形的序号作为编号，历史压缩只合并同一步中的图形，一次撤销不会连带别人或别的步骤画的内容。
+ * 只由房间的定序线程访问。
+ */
+final class UndoStacks {
+
+    /** 每个用户最多可以撤销的步数。 */
+    private static final int MAX_STEPS = 100;
+
+    private final Map<String, UserStacks> users = new HashMap<>();
+
+    /**
+     * 记录用户新画的图形，并清空他的重做记录。
+     * @return 图形所属步骤的编号，即这一步第一个图形的序号。
+     */
+    long record(String user, DrawingAction action) {
+        UserStacks stacks = users.computeIfAbsent(user, k -> new UserStacks());
+        stacks.redo.clear();
+        long stepId = action.getSequence();
+        if (!stacks.undo.isEmpty() && continues(stacks.lastAction, action)) {
+            long[] step = stacks.undo.removeLast();
+            long[] extended = Arrays.copyOf(step, step.length + 1);
+            extended[step.length] = action.getSequence();
+            stacks.undo.addLast(extended);
+            stepId = step[0];
+        } else {
+            stacks.undo.addLast(new long[]{action.getSequence()});
+            if (stacks.undo.size() > MAX_STEPS) {
+                stacks.undo.removeFirst();
+            }
+        }
+        stacks.lastAction = action;
+        return stepId;
+    }
+
+    /**
+     * 取出用户最近画的一步，没有时返回 null。
+     */
+    long[] popUndo(String user) {
+        UserStacks stacks = users.get(user);
+        if (stacks == null || stacks.undo.isEmpty()) return null;
+        stacks.lastAction = null; // 之后的笔画不再并入已撤销的一步
+        return stacks.undo.removeLast();
+    }
+
+    /**
+     * 取出用户最近撤销的一步，没有时返回 null。
+     */
+    long[] popRedo(String user) {
+        UserStacks stacks = users.get(user);
+        if (stacks == null || stacks.redo.isEmpty()) return null;
+        return stacks.redo.removeLast();
+    }
+
+    void pushUndo(String user, long[] step) {
+        UserStacks stacks = users.computeIfAbsent(user, k -> new UserStacks());
+        stacks.undo.addLast(step);
+        stacks.lastAction = null;
+    }
+
+    void pushRedo(String user, long[] step) {
+        UserStacks stacks = users.computeIfAbsent(user, k -> new UserStacks());
+        stacks.redo.addLast(step);
+        if (stacks.redo.size() > MAX_STEPS) {
+            stacks.redo.removeFirst();
+        }
+    }
+
+    /**
+     * 所有还可以撤销或重做的图形的序号。
+     */
+    NavigableSet<Long> liveSequences() {
+        NavigableSet<Long> live = new TreeSet<>();
+        for (UserStacks stacks : users.values()) {
+            for (long[] step : stacks.undo) {
+                for (long sequence : step) live.add(sequence);
+            }
+            for (long[] step : stacks.redo) {
+                for (long sequence : step) live.add(sequence);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * 画板被清空后调用，之前的步骤都无法再撤销或重做。
+     */
+    void clear() {
+        users.clear();
+    }
+
+    /**
+     * 判断一条笔画或线段是否是同一个用户上一条笔画或线段的延续。
+     */
+    private static boolean continues(DrawingAction previous, DrawingAction next) {
+        double[] end = endpoints(previous);
+        double[] start = endpoints(next);
+        if (end == null || start == null || toolOf(previous) != toolOf(next)
+                || colorOf(previous).getRGB() != colorOf(next).getRGB() || widthOf(previous) != widthOf(next)) {
+            return false;
+        }
+        return end[2] == start[0] && end[3] == start[1];
+    }
+
+    /**
+     * 笔画或两点线段的起点和终点 {x0, y0, x1, y1}，其他图形返回 null。
+     */
+    private static double[] endpoints(DrawingAction action) {
+        if (action instanceof StrokeAction) {
+            // 只需要首尾两点，不使用会被缓存在历史中的 getPoints()
+            int[] points = StrokePoints.decode(((StrokeAction) action).getEncodedPoints());
+            if (points.length < 2) return null;
+            return new double[]{points[0], points[1], points[points.length - 2], points[points.length - 1]};
+        } else if (action instanceof ShapeAction && ((ShapeAction) action).getShape() instanceof Line2D) {
+            Line2D line = (Line2D) ((ShapeAction) action).getShape();
+            return new double[]{line.getX1(), line.getY1(), line.getX2(), line.getY2()};
+        }
+        return null;
+    }
+
+    private static ShapeType toolOf(DrawingAction action) {
+        return action instanceof StrokeAction ? ((StrokeAction) action).getToolType() : ((ShapeAction) action).getShapeType();
+    }
+
+    private static Color colorOf(DrawingAction action) {
+        return action instanceof StrokeAction ? ((StrokeAction) action).getColor() : ((ShapeAction) action).getColor();
+    }
+
+    private static float widthOf(DrawingAction action) {
+        return action instanceof StrokeAction ? ((StrokeAction) action).getStrokeWidth() : ((ShapeAction) action).getStrokeWidth();
+    }
+
+    private static final class UserStacks {
+        final Deque<long[]> undo = new ArrayDeque<>();
+        final Deque<long[]> redo = new ArrayDeque<>();
+        // 最近一条记录的图形，用于判断下一条笔画是否延续它
+        DrawingAction lastAction;
+    }
+}
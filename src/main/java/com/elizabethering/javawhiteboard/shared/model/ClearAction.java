@@ -4,6 +4,6 @@ package com.elizabethering.javawhiteboard.shared.model;
  * 代表“清空画布”的指令。
  * 它没有任何属性，只是一个信号。
  */
-public class ClearAction implements Action {
+public class ClearAction extends DrawingAction {
     private static final long serialVersionUID = 1L; // 保持序列化兼容性
 }
\ No newline at end of file
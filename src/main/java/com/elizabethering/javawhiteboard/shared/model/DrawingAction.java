@@ -0,0 +1,53 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+/**
+ * 会改变画板内容的指令（形状、笔画、文本和清空）的父类。
+ * 服务器按接收顺序为每个房间内的绘图指令分配单调递增的序号，
+ * 所有客户端据此看到同一个全局顺序。序号为 0 表示尚未由服务器分配。
+ */
+public abstract class DrawingAction implements Action {
+    private static final long serialVersionUID = 17L; // 新的父类，新的版本号
+
+    private long sequence;
+    // 这条指令代表的第一个序号，0 表示只代表它自己；目前只有服务器合并生成的笔画会代表多个序号
+    private long firstSequence;
+    // 画出这条指令的用户，由服务器在分配序号时填写，null 表示未知
+    private String author;
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * 这条指令代表的第一个序号。服务器把连续的线段合并为一条笔画后，
+     * 合并结果使用最后一段的序号，并代表从第一段到最后一段之间的所有序号。
+     */
+    public long getFirstSequence() {
+        return firstSequence == 0 ? sequence : firstSequence;
+    }
+
+    /**
+     * 由服务器在合并指令时调用。
+     */
+    public void assignFirstSequence(long firstSequence) {
+        this.firstSequence = firstSequence;
+    }
+
+    /**
+     * 由服务器在广播前调用一次，之后不再修改。
+     */
+    public void assignSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * 由服务器在分配序号时调用，客户端发来的值一律被覆盖。
+     */
+    public void assignAuthor(String author) {
+        this.author = author;
+    }
+}
@@ -0,0 +1,50 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+/**
+ * 橡皮擦经过的轨迹，由客户端发送给服务器。
+ * <p>
+ * 服务器在空间索引中查找轨迹碰到的图形，把它们从历史中移除，再以 {@link RemoveAction} 通知所有客户端，
+ * 擦除不会像涂白色那样让历史越来越长。轨迹本身不进入历史，也不会被广播。
+ */
+public class EraseAction implements Action {
+    private static final long serialVersionUID = 20L; // 新的类，新的版本号
+
+    private final byte[] encodedPoints; // StrokePoints 编码后的轨迹
+    private final float width;          // 橡皮擦的宽度
+
+    private transient int[] decodedPoints;
+
+    /**
+     * @param points 交错存放的坐标数组：x0, y0, x1, y1, ...
+     */
+    public EraseAction(int[] points, float width) {
+        this(StrokePoints.encode(points, 1), width);
+    }
+
+    /**
+     * 直接使用已编码的轨迹创建。
+     */
+    public EraseAction(byte[] encodedPoints, float width) {
+        this.encodedPoints = encodedPoints;
+        this.width = width;
+    }
+
+    public float getWidth() { return width; }
+
+    /**
+     * 返回编码后的轨迹，调用方不得修改。
+     */
+    public byte[] getEncodedPoints() { return encodedPoints; }
+
+    /**
+     * 返回解码后交错存放的坐标数组，结果会被缓存，调用方不得修改。
+     */
+    public int[] getPoints() {
+        int[] points = decodedPoints;
+        if (points == null) {
+            points = StrokePoints.decode(encodedPoints);
+            decodedPoints = points;
+        }
+        return points;
+    }
+}
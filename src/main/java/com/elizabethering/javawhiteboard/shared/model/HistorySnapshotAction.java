@@ -0,0 +1,43 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+/**
+ * 批量传输的画板历史片段，用于新成员加入和重新同步。
+ * <p>
+ * 一次完整的快照由若干片段组成：起始位置为 0 的片段表示新快照的开始，
+ * {@link #isLast()} 为真的片段表示快照结束，此时客户端用收到的全部指令一次性替换画板内容。
+ * 最后一个片段携带快照覆盖到的序号，之后到达的实时绘图指令序号都大于它。
+ * <p>
+ * 指令以二进制格式打包在 {@link #getData()} 中，可能经过 Deflate 压缩，
+ * 打包和解包见 {@code HistorySnapshots}。
+ */
+public class HistorySnapshotAction implements Action {
+    private static final long serialVersionUID = 18L; // 新的类，新的版本号
+
+    private final int startIndex;       // 片段中第一条指令在历史中的位置
+    private final int actionCount;      // 片段中的指令数
+    private final boolean last;         // 是否为快照的最后一个片段
+    private final long throughSequence; // 快照覆盖到的序号，只在最后一个片段中有意义
+    private final boolean compressed;   // data 是否经过 Deflate 压缩
+    private final byte[] data;
+
+    public HistorySnapshotAction(int startIndex, int actionCount, boolean last, long throughSequence,
+                                 boolean compressed, byte[] data) {
+        this.startIndex = startIndex;
+        this.actionCount = actionCount;
+        this.last = last;
+        this.throughSequence = throughSequence;
+        this.compressed = compressed;
+        this.data = data;
+    }
+
+    public int getStartIndex() { return startIndex; }
+    public int getActionCount() { return actionCount; }
+    public boolean isLast() { return last; }
+    public long getThroughSequence() { return throughSequence; }
+    public boolean isCompressed() { return compressed; }
+
+    /**
+     * 返回打包后的指令数据，调用方不得修改。
+     */
+    public byte[] getData() { return data; }
+}
@@ -0,0 +1,35 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+/**
+ * 服务器渲染的画板底图，作为历史快照的开头发送给新成员。
+ * <p>
+ * 底图是历史中前 {@link #getCoveredCount()} 条指令的渲染结果（PNG 格式），
+ * 紧随其后的 {@link HistorySnapshotAction} 片段从这个位置开始，客户端只需重放底图之后的指令。
+ */
+public class KeyframeAction implements Action {
+    private static final long serialVersionUID = 19L; // 新的类，新的版本号
+
+    private final int width;
+    private final int height;
+    private final int coveredCount;     // 底图包含的历史指令数
+    private final long throughSequence; // 底图包含的最后一条指令的序号
+    private final byte[] png;
+
+    public KeyframeAction(int width, int height, int coveredCount, long throughSequence, byte[] png) {
+        this.width = width;
+        this.height = height;
+        this.coveredCount = coveredCount;
+        this.throughSequence = throughSequence;
+        this.png = png;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getCoveredCount() { return coveredCount; }
+    public long getThroughSequence() { return throughSequence; }
+
+    /**
+     * 返回 PNG 编码的图像数据，调用方不得修改。
+     */
+    public byte[] getPng() { return png; }
+}
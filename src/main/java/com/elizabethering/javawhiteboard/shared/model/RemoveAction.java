@@ -0,0 +1,57 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+import java.util.Arrays;
+
+/**
+ * 从画板上移除若干图形的指令，由服务器在处理擦除后广播。
+ * 被移除的图形以它们的序号标识，客户端删除对应的指令并重绘，历史中也不再保留它们。
+ * <p>
+ * 服务器合并过的笔画代表一段连续的序号，因此每个被移除的图形以一个序号区间表示：
+ * 客户端删除序号落在任一区间内的指令，无论它持有的是合并前的线段还是合并后的笔画。
+ */
+public class RemoveAction extends DrawingAction {
+    private static final long serialVersionUID = 21L; // 新的类，新的版本号
+
+    private final long[] firstSequences;  // 各区间的起点
+    private final long[] targetSequences; // 各区间的终点，按升序排列
+
+    /**
+     * 移除指定序号的图形，每个序号自成一个区间。
+     * @param targetSequences 被移除的指令的序号，按升序排列。
+     */
+    public RemoveAction(long[] targetSequences) {
+        this(targetSequences, targetSequences);
+    }
+
+    /**
+     * @param firstSequences 各区间的起点。
+     * @param targetSequences 各区间的终点，按升序排列，区间之间互不重叠。
+     */
+    public RemoveAction(long[] firstSequences, long[] targetSequences) {
+        if (firstSequences.length != targetSequences.length) {
+            throw new IllegalArgumentException("区间的起点和终点个数不一致");
+        }
+        this.firstSequences = firstSequences;
+        this.targetSequences = targetSequences;
+    }
+
+    /**
+     * 返回各区间的起点，调用方不得修改。
+     */
+    public long[] getFirstSequences() { return firstSequences; }
+
+    /**
+     * 返回各区间的终点（升序），调用方不得修改。
+     */
+    public long[] getTargetSequences() { return targetSequences; }
+
+    /**
+     * 判断一个序号是否落在某个被移除的区间内。
+     */
+    public boolean covers(long sequence) {
+        int index = Arrays.binarySearch(targetSequences, sequence);
+        if (index >= 0) return true;
+        int next = -index - 1; // 第一个终点大于 sequence 的区间
+        return next < targetSequences.length && firstSequences[next] <= sequence;
+    }
+}
@@ -6,7 +6,7 @@ import java.awt.Shape;
 /**
  * 一个通用的形状绘制指令，可以表示线条、矩形、圆形等。
  */
-public class ShapeAction implements Action {
+public class ShapeAction extends DrawingAction {
     private static final long serialVersionUID = 2L; // 新的类，新的版本号
 
     private final ShapeType shapeType; // 形状类型
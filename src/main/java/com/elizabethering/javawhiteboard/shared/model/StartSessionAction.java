@@ -2,7 +2,28 @@ package com.elizabethering.javawhiteboard.shared.model;
 
 /**
  * 客户端在登录后，选择进入共享会话时发送此指令。
+ * 通过房间号指定要加入的共享画板，不同房间的画板和权限相互独立。
  */
 public class StartSessionAction implements Action {
     private static final long serialVersionUID = 13L;
-}
\ No newline at end of file
+
+    /** 未指定房间号时加入的默认房间。 */
+    public static final String DEFAULT_ROOM = "default";
+
+    private final String roomId;
+
+    public StartSessionAction() {
+        this(DEFAULT_ROOM);
+    }
+
+    public StartSessionAction(String roomId) {
+        this.roomId = roomId;
+    }
+
+    /**
+     * 返回要加入的房间号，为空时表示默认房间。
+     */
+    public String getRoomId() {
+        return roomId == null || roomId.trim().isEmpty() ? DEFAULT_ROOM : roomId.trim();
+    }
+}
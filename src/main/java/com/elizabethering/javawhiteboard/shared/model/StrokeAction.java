@@ -0,0 +1,159 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+
+/**
+ * 一段自由绘制的笔画（折线），用于画线和橡皮擦工具。
+ * 客户端在拖动过程中收集鼠标点，并按固定频率把新增的点打包成一条笔画指令发送，
+ * 而不是为每一个鼠标事件发送一条两点线段。
+ * <p>
+ * 点序列始终以 {@link StrokePoints} 的差分编码保存，网络传输、服务器历史和存档文件中都是这种紧凑形式，
+ * 只有在需要绘制时才解码。
+ */
+public class StrokeAction extends DrawingAction {
+    private static final long serialVersionUID = 16L; // 新的类，新的版本号
+
+    private final ShapeType toolType;     // 画线或橡皮擦
+    private final byte[] encodedPoints;   // StrokePoints 编码后的点序列
+    private final Color color;
+    private final float strokeWidth;
+
+    // 缓存可能由多个光栅化线程同时生成，重复生成的结果相同，volatile 保证读到的是完整的对象
+    private transient volatile int[] decodedPoints;
+    private transient volatile Shape cachedShape;
+    // 缩小显示时使用的简化折线，下标为细节级别，按需生成；数组写入后不再修改，加入新级别时整体替换
+    private transient volatile Shape[] levelsOfDetail;
+
+    // 细节级别 k 用于画板坐标到像素的比例不大于 1/2^k 时，最多 8 级（1/256）
+    private static final int MAX_LEVEL_OF_DETAIL = 8;
+    // 缩小显示时允许的误差，以设备像素计
+    private static final double LOD_TOLERANCE_PIXELS = 0.5;
+
+    /**
+     * 使用无损编码创建笔画。
+     * @param points 交错存放的坐标数组：x0, y0, x1, y1, ...
+     */
+    public StrokeAction(ShapeType toolType, int[] points, Color color, float strokeWidth) {
+        this(toolType, points, 1, color, strokeWidth);
+    }
+
+    /**
+     * @param points 交错存放的坐标数组：x0, y0, x1, y1, ...
+     * @param quantization 坐标量化步长，1 表示无损。
+     */
+    public StrokeAction(ShapeType toolType, int[] points, int quantization, Color color, float strokeWidth) {
+        this(toolType, StrokePoints.encode(points, quantization), color, strokeWidth);
+    }
+
+    /**
+     * 直接使用已编码的点序列创建笔画。
+     * @throws IllegalArgumentException 点序列格式错误时抛出。
+     */
+    public StrokeAction(ShapeType toolType, byte[] encodedPoints, Color color, float strokeWidth) {
+        this.toolType = toolType;
+        this.encodedPoints = encodedPoints;
+        this.color = color;
+        this.strokeWidth = strokeWidth;
+    }
+
+    public ShapeType getToolType() { return toolType; }
+    public Color getColor() { return color; }
+    public float getStrokeWidth() { return strokeWidth; }
+    public int getPointCount() { return StrokePoints.pointCount(encodedPoints); }
+
+    /**
+     * 返回编码后的点序列，调用方不得修改。
+     */
+    public byte[] getEncodedPoints() { return encodedPoints; }
+
+    /**
+     * 返回解码后交错存放的坐标数组，结果会被缓存，调用方不得修改。
+     */
+    public int[] getPoints() {
+        int[] points = decodedPoints;
+        if (points == null) {
+            points = StrokePoints.decode(encodedPoints);
+            decodedPoints = points;
+        }
+        return points;
+    }
+
+    /**
+     * 返回所有点的外接矩形。已经解码过时直接使用缓存的坐标，否则直接扫描编码数据，不生成任何缓存。
+     */
+    public Rectangle getPointBounds() {
+        int[] points = decodedPoints;
+        if (points == null) return StrokePoints.bounds(encodedPoints);
+        if (points.length == 0) return new Rectangle();
+        int minX = points[0], minY = points[1], maxX = points[0], maxY = points[1];
+        for (int i = 2; i < points.length; i += 2) {
+            minX = Math.min(minX, points[i]);
+            minY = Math.min(minY, points[i + 1]);
+            maxX = Math.max(maxX, points[i]);
+            maxY = Math.max(maxY, points[i + 1]);
+        }
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * 丢弃解码后的坐标和折线等缓存，之后需要时重新生成。
+     * 服务器历史中的笔画只在渲染底图、压缩时临时用到它们，一直保留会让历史占用的内存成倍增长。
+     */
+    public void releaseCaches() {
+        decodedPoints = null;
+        cachedShape = null;
+        levelsOfDetail = null;
+    }
+
+    /**
+     * 返回笔画对应的折线，结果会被缓存，供重复绘制使用。
+     */
+    public Shape toShape() {
+        Shape shape = cachedShape;
+        if (shape == null) {
+            shape = toPath(getPoints());
+            cachedShape = shape;
+        }
+        return shape;
+    }
+
+    /**
+     * 返回按指定比例绘制时使用的折线。缩小显示时，不到半个像素的细节看不出来，
+     * 返回按相应容差简化的折线；每个细节级别的结果分别缓存。
+     * @param scale 画板坐标到设备像素的比例。
+     */
+    public Shape toShape(double scale) {
+        if (!(scale > 0) || scale > 0.5) return toShape();
+        int level = Math.min(MAX_LEVEL_OF_DETAIL, (int) Math.floor(-Math.log(scale) / Math.log(2)));
+        Shape[] levels = levelsOfDetail;
+        Shape shape = levels == null ? null : levels[level];
+        if (shape == null) {
+            // 比例不大于 1/2^level，以画板坐标计的容差换算为像素不超过 LOD_TOLERANCE_PIXELS
+            int[] points = getPoints();
+            int[] simplified = StrokePoints.simplify(points, LOD_TOLERANCE_PIXELS * (1 << level));
+            shape = simplified == points ? toShape() : toPath(simplified);
+            levels = levelsOfDetail;
+            levels = levels == null ? new Shape[MAX_LEVEL_OF_DETAIL + 1] : levels.clone();
+            levels[level] = shape;
+            levelsOfDetail = levels;
+        }
+        return shape;
+    }
+
+    private static Shape toPath(int[] points) {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, points.length / 2);
+        if (points.length >= 2) {
+            path.moveTo(points[0], points[1]);
+            if (points.length == 2) {
+                path.lineTo(points[0], points[1]); // 单点笔画画成一个圆点
+            }
+            for (int i = 2; i < points.length; i += 2) {
+                path.lineTo(points[i], points[i + 1]);
+            }
+        }
+        return path;
+    }
+}
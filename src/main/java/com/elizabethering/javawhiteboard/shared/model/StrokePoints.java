@@ -0,0 +1,214 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * 笔画点序列的紧凑编码。
+ * <p>
+ * 格式：{@code [量化步长][点数][x0][y0]{[dx][dy]}...}，全部为变长整数。
+ * 第一个点按绝对坐标存储，其余的点存储与前一个点的差值并做 ZigZag 变换。
+ * 手绘笔画相邻点距离很近，绝大多数差值只占 1 个字节。
+ * 量化步长大于 1 时，坐标先除以步长取整，以少量精度换取更小的体积。
+ */
+public final class StrokePoints {
+
+    private StrokePoints() {
+    }
+
+    /**
+     * 编码交错存放的坐标数组（x0, y0, x1, y1, ...）。
+     * @param points 坐标数组，长度必须为偶数。
+     * @param quantization 量化步长，1 表示无损。
+     */
+    public static byte[] encode(int[] points, int quantization) {
+        if (points.length % 2 != 0) {
+            throw new IllegalArgumentException("坐标数组的长度必须为偶数");
+        }
+        if (quantization < 1) {
+            throw new IllegalArgumentException("量化步长必须大于 0: " + quantization);
+        }
+        byte[] buf = new byte[10 + points.length * 2];
+        int pos = writeVarInt(buf, 0, quantization);
+        pos = writeVarInt(buf, pos, points.length / 2);
+        int prevX = 0;
+        int prevY = 0;
+        for (int i = 0; i < points.length; i += 2) {
+            int x = quantize(points[i], quantization);
+            int y = quantize(points[i + 1], quantization);
+            if (buf.length - pos < 10) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            pos = writeVarInt(buf, pos, zigZag(x - prevX));
+            pos = writeVarInt(buf, pos, zigZag(y - prevY));
+            prevX = x;
+            prevY = y;
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    /**
+     * 解码为交错存放的坐标数组。
+     * @throws IllegalArgumentException 数据不完整或格式错误时抛出。
+     */
+    public static int[] decode(byte[] encoded) {
+        int[] cursor = {0};
+        int quantization = readVarInt(encoded, cursor);
+        int count = readVarInt(encoded, cursor);
+        if (quantization < 1 || count < 0 || count > encoded.length) {
+            throw new IllegalArgumentException("非法的笔画数据");
+        }
+        int[] points = new int[count * 2];
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < points.length; i += 2) {
+            x += unZigZag(readVarInt(encoded, cursor));
+            y += unZigZag(readVarInt(encoded, cursor));
+            points[i] = x * quantization;
+            points[i + 1] = y * quantization;
+        }
+        if (cursor[0] != encoded.length) {
+            throw new IllegalArgumentException("笔画数据存在多余的字节");
+        }
+        return points;
+    }
+
+    /**
+     * 逐点扫描编码数据，求所有点的外接矩形，不生成坐标数组。没有点时返回空矩形。
+     * @throws IllegalArgumentException 数据不完整或格式错误时抛出。
+     */
+    public static Rectangle bounds(byte[] encoded) {
+        int[] cursor = {0};
+        int quantization = readVarInt(encoded, cursor);
+        int count = readVarInt(encoded, cursor);
+        if (quantization < 1 || count < 0 || count > encoded.length) {
+            throw new IllegalArgumentException("非法的笔画数据");
+        }
+        if (count == 0) return new Rectangle();
+        int x = 0;
+        int y = 0;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            x += unZigZag(readVarInt(encoded, cursor));
+            y += unZigZag(readVarInt(encoded, cursor));
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        return new Rectangle(minX * quantization, minY * quantization,
+                (maxX - minX) * quantization, (maxY - minY) * quantization);
+    }
+
+    /**
+     * 用 Ramer-Douglas-Peucker 算法简化折线：删去到保留折线的距离不超过容差的点，首尾两点始终保留。
+     * 手绘笔画的大部分点几乎共线，半个像素的容差就能删掉其中的多数，画出来看不出差别。
+     * @param points 交错存放的坐标数组：x0, y0, x1, y1, ...
+     * @param tolerance 容差，以坐标单位计，不大于 0 时不做简化。
+     * @return 简化后的坐标数组；没有可以删去的点时返回原数组。
+     */
+    public static int[] simplify(int[] points, double tolerance) {
+        int n = points.length / 2;
+        if (tolerance <= 0 || n < 3) return points;
+        double limit = tolerance * tolerance;
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        // 用显式的栈代替递归，合并后的长笔画也不会栈溢出
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        int kept = 2;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            double max = limit;
+            for (int i = first + 1; i < last; i++) {
+                double d = segmentDistanceSq(points, i, first, last);
+                if (d > max) {
+                    max = d;
+                    farthest = i;
+                }
+            }
+            if (farthest < 0) continue;
+            keep[farthest] = true;
+            kept++;
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = first;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = last;
+        }
+        if (kept == n) return points;
+        int[] result = new int[kept * 2];
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                result[pos++] = points[i * 2];
+                result[pos++] = points[i * 2 + 1];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 第 i 个点到第 a、b 两点之间线段的距离的平方。
+     */
+    private static double segmentDistanceSq(int[] points, int i, int a, int b) {
+        double px = points[i * 2], py = points[i * 2 + 1];
+        double ax = points[a * 2], ay = points[a * 2 + 1];
+        double dx = points[b * 2] - ax, dy = points[b * 2 + 1] - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSq));
+        double ex = ax + t * dx - px, ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * 读取点数，不解码坐标。
+     */
+    public static int pointCount(byte[] encoded) {
+        int[] cursor = {0};
+        readVarInt(encoded, cursor);
+        return readVarInt(encoded, cursor);
+    }
+
+    private static int quantize(int value, int quantization) {
+        return quantization == 1 ? value : Math.round((float) value / quantization);
+    }
+
+    private static int zigZag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unZigZag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static int writeVarInt(byte[] buf, int pos, int v) {
+        while ((v & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+        return pos;
+    }
+
+    private static int readVarInt(byte[] buf, int[] cursor) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (cursor[0] >= buf.length) {
+                throw new IllegalArgumentException("笔画数据不完整");
+            }
+            int b = buf[cursor[0]++] & 0xFF;
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IllegalArgumentException("变长整数过长");
+    }
+}
@@ -3,7 +3,7 @@ package com.elizabethering.javawhiteboard.shared.model;
 import java.awt.Color;
 import java.awt.Font;
 
-public class TextAction implements Action {
+public class TextAction extends DrawingAction {
     private static final long serialVersionUID = 6L; // 新的类，新的版本号
 
     private final String text;
@@ -0,0 +1,54 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+import java.util.Arrays;
+
+/**
+ * 隐藏或恢复若干图形的指令，由服务器在处理撤销和重做后广播。
+ * <p>
+ * 被撤销的图形仍然保留在历史和各客户端的画板中，只是不再绘制，重做时原样恢复到原来的绘制顺序中；
+ * 服务器压缩历史时才真正删除已撤销的图形。与 {@link RemoveAction} 一样，每个图形以一个序号区间表示。
+ */
+public class TombstoneAction extends DrawingAction {
+    private static final long serialVersionUID = 23L; // 新的类，新的版本号
+
+    private final long[] firstSequences;  // 各区间的起点
+    private final long[] targetSequences; // 各区间的终点，按升序排列
+    private final boolean restore;
+
+    /**
+     * @param firstSequences 各区间的起点。
+     * @param targetSequences 各区间的终点，按升序排列，区间之间互不重叠。
+     * @param restore true 表示恢复这些图形（重做），false 表示隐藏它们（撤销）。
+     * @throws IllegalArgumentException 起点和终点的个数不一致时抛出。
+     */
+    public TombstoneAction(long[] firstSequences, long[] targetSequences, boolean restore) {
+        if (firstSequences.length != targetSequences.length) {
+            throw new IllegalArgumentException("区间的起点和终点个数不一致");
+        }
+        this.firstSequences = firstSequences;
+        this.targetSequences = targetSequences;
+        this.restore = restore;
+    }
+
+    /**
+     * 返回各区间的起点，调用方不得修改。
+     */
+    public long[] getFirstSequences() { return firstSequences; }
+
+    /**
+     * 返回各区间的终点（升序），调用方不得修改。
+     */
+    public long[] getTargetSequences() { return targetSequences; }
+
+    public boolean isRestore() { return restore; }
+
+    /**
+     * 判断一个序号是否落在某个区间内。
+     */
+    public boolean covers(long sequence) {
+        int index = Arrays.binarySearch(targetSequences, sequence);
+        if (index >= 0) return true;
+        int next = -index - 1; // 第一个终点大于 sequence 的区间
+        return next < targetSequences.length && firstSequences[next] <= sequence;
+    }
+}
@@ -0,0 +1,22 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+/**
+ * 撤销或重做当前用户最近一步绘图的请求，由客户端发送给服务器。
+ * <p>
+ * 服务器为每个用户记录绘图步骤，撤销时把对应的图形标记为已撤销，再以 {@link TombstoneAction} 通知所有客户端，
+ * 只需要几个字节，不再重发整个画板。请求本身不进入历史，也不会被广播。
+ */
+public class UndoAction implements Action {
+    private static final long serialVersionUID = 22L; // 新的类，新的版本号
+
+    private final boolean redo;
+
+    /**
+     * @param redo true 表示重做最近撤销的一步，false 表示撤销最近画的一步。
+     */
+    public UndoAction(boolean redo) {
+        this.redo = redo;
+    }
+
+    public boolean isRedo() { return redo; }
+}
@@ -0,0 +1,15 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+
+import java.io.IOException;
+
+/**
+ * 指令与帧负载之间的编解码器。
+ */
+public interface ActionCodec {
+
+    byte[] encode(Action action) throws IOException;
+
+    Action decode(byte[] payload, int offset, int length) throws IOException;
+}
@@ -0,0 +1,87 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * 客户端与服务器之间的分帧协议。
+ * 每一帧由 4 字节的大端长度前缀和紧随其后的指令负载组成：
+ * <pre>[int length][payload ...]</pre>
+ * 负载的编码格式见 {@link WireFormat}，读取时按首字节自动识别。
+ */
+public final class ActionFrames {
+
+    /** 长度前缀占用的字节数。 */
+    public static final int HEADER_SIZE = 4;
+    /** 单帧负载的上限，防止异常长度导致服务器分配过大的缓冲区。 */
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    /** 不分帧的 Java 对象流的开头（流魔数 0xACED 和版本号 5），被当作长度前缀读出时的值。 */
+    private static final int OBJECT_STREAM_HEADER = 0xACED0005;
+
+    private ActionFrames() {
+    }
+
+    /**
+     * 按指定格式将指令编码为帧负载（不含长度前缀）。
+     */
+    public static byte[] encode(Action action, WireFormat format) throws IOException {
+        return format.codec().encode(action);
+    }
+
+    /**
+     * 自动识别负载格式并还原指令。
+     */
+    public static Action decode(byte[] payload, int offset, int length) throws IOException {
+        return WireFormat.detect(payload, offset, length).codec().decode(payload, offset, length);
+    }
+
+    /**
+     * 校验帧长度是否合法。早期版本的客户端直接写不分帧的对象流，单独给出原因，便于在服务器日志中识别。
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length == OBJECT_STREAM_HEADER) {
+            throw new StreamCorruptedException("对方发送的是不分帧的 Java 对象流，早期版本的客户端需要升级后才能连接");
+        }
+        if (length <= 0 || length > MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("非法的帧长度: " + length);
+        }
+    }
+
+    /**
+     * 向阻塞输出流写入一帧，调用方负责 flush。
+     */
+    public static void write(DataOutputStream out, Action action, WireFormat format) throws IOException {
+        writePayload(out, encode(action, format));
+    }
+
+    /**
+     * 向阻塞输出流写入一个已经编码好的负载。
+     */
+    public static void writePayload(DataOutputStream out, byte[] payload) throws IOException {
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /**
+     * 从阻塞输入流读取一帧的负载。
+     */
+    public static byte[] readPayload(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * 从阻塞输入流读取一帧并解析为指令。
+     */
+    public static Action read(DataInputStream in) throws IOException {
+        byte[] payload = readPayload(in);
+        return decode(payload, 0, payload.length);
+    }
+}
@@ -0,0 +1,532 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+import com.elizabethering.javawhiteboard.shared.model.*;
+import com.elizabethering.javawhiteboard.shared.model.Action;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 紧凑的二进制编解码器。
+ * <p>
+ * 负载格式：{@code [魔数|版本][消息类型][字段...]}，绘图指令在末尾附加服务器分配的序号（版本 2 起），
+ * 笔画在序号之后再附加它代表的序号跨度（版本 3 起），最后是指令的作者（版本 4 起）。
+ * 坐标使用 ZigZag 变长整数，颜色打包为一个 ARGB 整数，字体只传递字体名、样式和字号，
+ * 一条两点线段通常只需要十几个字节，而 Java 序列化需要数百字节。
+ */
+public class BinaryActionCodec implements ActionCodec {
+
+    /** 首字节的高 4 位，用于与 Java 序列化的 0xAC 区分。 */
+    public static final int MAGIC = 0xB0;
+    /** 当前的协议版本，占首字节的低 4 位。 */
+    public static final int VERSION = 4;
+
+    // 消息类型
+    static final int TYPE_REGISTER = 1;
+    static final int TYPE_LOGIN = 2;
+    static final int TYPE_AUTH_RESULT = 3;
+    static final int TYPE_START_SESSION = 4;
+    static final int TYPE_SESSION_JOIN_RESULT = 5;
+    static final int TYPE_PERMISSION_REQUEST = 6;
+    static final int TYPE_INCOMING_PERMISSION_REQUEST = 7;
+    static final int TYPE_PERMISSION_RESPONSE = 8;
+    static final int TYPE_PERMISSION_STATUS_UPDATE = 9;
+    static final int TYPE_REVOKE_PERMISSION = 10;
+    static final int TYPE_USER_LIST_UPDATE = 11;
+    static final int TYPE_LOGOUT = 12;
+    static final int TYPE_CLEAR = 13;
+    static final int TYPE_SHAPE = 14;
+    static final int TYPE_TEXT = 15;
+    static final int TYPE_STROKE = 16;
+    static final int TYPE_HISTORY_SNAPSHOT = 17;
+    static final int TYPE_KEYFRAME = 18;
+    static final int TYPE_ERASE = 19;
+    static final int TYPE_REMOVE = 20;
+    static final int TYPE_UNDO = 21;
+    static final int TYPE_TOMBSTONE = 22;
+
+    // 形状类型；FLOAT_COORDS 位表示坐标不是整数，按原始 float 写入
+    private static final int SHAPE_LINE = 1;
+    private static final int SHAPE_RECTANGLE = 2;
+    private static final int SHAPE_ELLIPSE = 3;
+    private static final int SHAPE_POLYGON = 4;
+    private static final int SHAPE_PATH = 5;
+    private static final int FLOAT_COORDS = 0x40;
+
+    private static final ShapeType[] SHAPE_TYPES = ShapeType.values();
+    private static final UserRole[] USER_ROLES = UserRole.values();
+
+    @Override
+    public byte[] encode(Action action) throws IOException {
+        BinaryOutput out = encodeBody(action);
+        if (action instanceof DrawingAction) {
+            DrawingAction da = (DrawingAction) action;
+            out.writeVarLong(da.getSequence());
+            if (action instanceof StrokeAction) {
+                out.writeVarLong(da.getSequence() - da.getFirstSequence());
+            }
+            out.writeString(da.getAuthor());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 只编码指令的内容，不含服务器分配的序号、笔画代表的序号范围和作者。
+     * 同一条指令在分配序号前后的结果相同，用于比较本地指令和服务器的回显。
+     */
+    public byte[] encodeContent(Action action) throws IOException {
+        return encodeBody(action).toByteArray();
+    }
+
+    private BinaryOutput encodeBody(Action action) throws IOException {
+        BinaryOutput out = new BinaryOutput();
+        out.writeByte(MAGIC | VERSION);
+        if (action instanceof ShapeAction) {
+            ShapeAction sa = (ShapeAction) action;
+            out.writeByte(TYPE_SHAPE);
+            out.writeByte(sa.getShapeType().ordinal());
+            out.writeInt(sa.getColor().getRGB());
+            out.writeFloat(sa.getStrokeWidth());
+            writeShape(out, sa.getShape());
+        } else if (action instanceof StrokeAction) {
+            StrokeAction st = (StrokeAction) action;
+            out.writeByte(TYPE_STROKE);
+            out.writeByte(st.getToolType().ordinal());
+            out.writeInt(st.getColor().getRGB());
+            out.writeFloat(st.getStrokeWidth());
+            // 点序列本身已经是差分变长编码，原样写出
+            byte[] encodedPoints = st.getEncodedPoints();
+            out.writeVarInt(encodedPoints.length);
+            out.writeBytes(encodedPoints, 0, encodedPoints.length);
+        } else if (action instanceof TextAction) {
+            TextAction ta = (TextAction) action;
+            out.writeByte(TYPE_TEXT);
+            out.writeString(ta.getText());
+            out.writeSignedVarInt(ta.getX());
+            out.writeSignedVarInt(ta.getY());
+            out.writeInt(ta.getColor().getRGB());
+            writeFont(out, ta.getFont());
+        } else if (action instanceof ClearAction) {
+            out.writeByte(TYPE_CLEAR);
+        } else if (action instanceof EraseAction) {
+            EraseAction ea = (EraseAction) action;
+            out.writeByte(TYPE_ERASE);
+            out.writeFloat(ea.getWidth());
+            byte[] encodedPoints = ea.getEncodedPoints();
+            out.writeVarInt(encodedPoints.length);
+            out.writeBytes(encodedPoints, 0, encodedPoints.length);
+        } else if (action instanceof RemoveAction) {
+            RemoveAction ra = (RemoveAction) action;
+            out.writeByte(TYPE_REMOVE);
+            writeRanges(out, ra.getFirstSequences(), ra.getTargetSequences());
+        } else if (action instanceof UndoAction) {
+            out.writeByte(TYPE_UNDO);
+            out.writeBoolean(((UndoAction) action).isRedo());
+        } else if (action instanceof TombstoneAction) {
+            TombstoneAction ta = (TombstoneAction) action;
+            out.writeByte(TYPE_TOMBSTONE);
+            out.writeBoolean(ta.isRestore());
+            writeRanges(out, ta.getFirstSequences(), ta.getTargetSequences());
+        } else if (action instanceof RegisterAction) {
+            RegisterAction ra = (RegisterAction) action;
+            out.writeByte(TYPE_REGISTER);
+            out.writeString(ra.getUsername());
+            out.writeString(ra.getPassword());
+        } else if (action instanceof LoginAction) {
+            LoginAction la = (LoginAction) action;
+            out.writeByte(TYPE_LOGIN);
+            out.writeString(la.getUsername());
+            out.writeString(la.getPassword());
+        } else if (action instanceof AuthResultAction) {
+            AuthResultAction ar = (AuthResultAction) action;
+            out.writeByte(TYPE_AUTH_RESULT);
+            out.writeBoolean(ar.isSuccess());
+            out.writeString(ar.getMessage());
+            out.writeString(ar.getUsername());
+        } else if (action instanceof StartSessionAction) {
+            out.writeByte(TYPE_START_SESSION);
+            out.writeString(((StartSessionAction) action).getRoomId());
+        } else if (action instanceof SessionJoinResultAction) {
+            SessionJoinResultAction sj = (SessionJoinResultAction) action;
+            out.writeByte(TYPE_SESSION_JOIN_RESULT);
+            out.writeByte(sj.getUserRole().ordinal());
+            out.writeBoolean(sj.canDraw());
+        } else if (action instanceof PermissionRequestAction) {
+            out.writeByte(TYPE_PERMISSION_REQUEST);
+        } else if (action instanceof IncomingPermissionRequestAction) {
+            out.writeByte(TYPE_INCOMING_PERMISSION_REQUEST);
+            out.writeString(((IncomingPermissionRequestAction) action).getStudentUsername());
+        } else if (action instanceof PermissionResponseAction) {
+            PermissionResponseAction pr = (PermissionResponseAction) action;
+            out.writeByte(TYPE_PERMISSION_RESPONSE);
+            out.writeString(pr.getStudentUsername());
+            out.writeBoolean(pr.isGranted());
+        } else if (action instanceof PermissionStatusUpdateAction) {
+            PermissionStatusUpdateAction ps = (PermissionStatusUpdateAction) action;
+            out.writeByte(TYPE_PERMISSION_STATUS_UPDATE);
+            out.writeBoolean(ps.canDraw());
+            out.writeString(ps.getMessage());
+        } else if (action instanceof RevokePermissionAction) {
+            out.writeByte(TYPE_REVOKE_PERMISSION);
+            out.writeString(((RevokePermissionAction) action).getStudentUsername());
+        } else if (action instanceof UserListUpdateAction) {
+            List<UserStatus> statuses = ((UserListUpdateAction) action).getUserStatuses();
+            out.writeByte(TYPE_USER_LIST_UPDATE);
+            out.writeVarInt(statuses.size());
+            for (UserStatus status : statuses) {
+                out.writeString(status.getUsername());
+                out.writeBoolean(status.hasPermission());
+            }
+        } else if (action instanceof LogoutAction) {
+            out.writeByte(TYPE_LOGOUT);
+        } else if (action instanceof HistorySnapshotAction) {
+            HistorySnapshotAction hs = (HistorySnapshotAction) action;
+            out.writeByte(TYPE_HISTORY_SNAPSHOT);
+            out.writeVarInt(hs.getStartIndex());
+            out.writeVarInt(hs.getActionCount());
+            out.writeBoolean(hs.isLast());
+            out.writeVarLong(hs.getThroughSequence());
+            out.writeBoolean(hs.isCompressed());
+            byte[] data = hs.getData();
+            out.writeVarInt(data.length);
+            out.writeBytes(data, 0, data.length);
+        } else if (action instanceof KeyframeAction) {
+            KeyframeAction kf = (KeyframeAction) action;
+            out.writeByte(TYPE_KEYFRAME);
+            out.writeVarInt(kf.getWidth());
+            out.writeVarInt(kf.getHeight());
+            out.writeVarInt(kf.getCoveredCount());
+            out.writeVarLong(kf.getThroughSequence());
+            byte[] png = kf.getPng();
+            out.writeVarInt(png.length);
+            out.writeBytes(png, 0, png.length);
+        } else {
+            throw new IOException("二进制格式不支持的指令类型: " + action.getClass().getName());
+        }
+        return out;
+    }
+
+    @Override
+    public Action decode(byte[] payload, int offset, int length) throws IOException {
+        BinaryInput in = new BinaryInput(payload, offset, length);
+        int header = in.readByte();
+        if ((header & 0xF0) != MAGIC || (header & 0x0F) > VERSION) {
+            throw new StreamCorruptedException("不支持的二进制协议版本: 0x" + Integer.toHexString(header));
+        }
+        int version = header & 0x0F;
+        Action action = decodeBody(in.readByte(), in, version);
+        if (action instanceof DrawingAction && version >= 2) {
+            DrawingAction da = (DrawingAction) action;
+            da.assignSequence(in.readVarLong());
+            if (action instanceof StrokeAction && version >= 3) {
+                long span = in.readVarLong();
+                if (span != 0) {
+                    da.assignFirstSequence(da.getSequence() - span);
+                }
+            }
+            if (version >= 4) {
+                da.assignAuthor(in.readString());
+            }
+        }
+        return action;
+    }
+
+    private Action decodeBody(int type, BinaryInput in, int version) throws IOException {
+        switch (type) {
+            case TYPE_SHAPE: {
+                ShapeType shapeType = readEnum(SHAPE_TYPES, in.readByte());
+                Color color = new Color(in.readInt(), true);
+                float strokeWidth = in.readFloat();
+                Shape shape = readShape(in);
+                return new ShapeAction(shapeType, shape, color, strokeWidth);
+            }
+            case TYPE_STROKE: {
+                ShapeType toolType = readEnum(SHAPE_TYPES, in.readByte());
+                Color color = new Color(in.readInt(), true);
+                float strokeWidth = in.readFloat();
+                byte[] encodedPoints = in.readBytes(in.readCount(1));
+                try {
+                    StrokePoints.decode(encodedPoints); // 校验，避免把损坏的数据转发给其他客户端
+                } catch (IllegalArgumentException e) {
+                    throw new StreamCorruptedException(e.getMessage());
+                }
+                return new StrokeAction(toolType, encodedPoints, color, strokeWidth);
+            }
+            case TYPE_TEXT: {
+                String text = in.readString();
+                int x = in.readSignedVarInt();
+                int y = in.readSignedVarInt();
+                Color color = new Color(in.readInt(), true);
+                Font font = readFont(in);
+                return new TextAction(text, x, y, color, font);
+            }
+            case TYPE_CLEAR:
+                return new ClearAction();
+            case TYPE_ERASE: {
+                float width = in.readFloat();
+                byte[] encodedPoints = in.readBytes(in.readCount(1));
+                try {
+                    StrokePoints.decode(encodedPoints);
+                } catch (IllegalArgumentException e) {
+                    throw new StreamCorruptedException(e.getMessage());
+                }
+                return new EraseAction(encodedPoints, width);
+            }
+            case TYPE_REMOVE: {
+                int count = in.readCount(version >= 3 ? 2 : 1);
+                long[] firsts = new long[count];
+                long[] targets = new long[count];
+                // 版本 3 之前每个区间只有一个序号
+                readRanges(in, firsts, targets, version >= 3);
+                return new RemoveAction(firsts, targets);
+            }
+            case TYPE_UNDO:
+                return new UndoAction(in.readBoolean());
+            case TYPE_TOMBSTONE: {
+                boolean restore = in.readBoolean();
+                int count = in.readCount(2);
+                long[] firsts = new long[count];
+                long[] targets = new long[count];
+                readRanges(in, firsts, targets, true);
+                return new TombstoneAction(firsts, targets, restore);
+            }
+            case TYPE_REGISTER:
+                return new RegisterAction(in.readString(), in.readString());
+            case TYPE_LOGIN:
+                return new LoginAction(in.readString(), in.readString());
+            case TYPE_AUTH_RESULT:
+                return new AuthResultAction(in.readBoolean(), in.readString(), in.readString());
+            case TYPE_START_SESSION:
+                return new StartSessionAction(in.readString());
+            case TYPE_SESSION_JOIN_RESULT:
+                return new SessionJoinResultAction(readEnum(USER_ROLES, in.readByte()), in.readBoolean());
+            case TYPE_PERMISSION_REQUEST:
+                return new PermissionRequestAction();
+            case TYPE_INCOMING_PERMISSION_REQUEST:
+                return new IncomingPermissionRequestAction(in.readString());
+            case TYPE_PERMISSION_RESPONSE:
+                return new PermissionResponseAction(in.readString(), in.readBoolean());
+            case TYPE_PERMISSION_STATUS_UPDATE:
+                return new PermissionStatusUpdateAction(in.readBoolean(), in.readString());
+            case TYPE_REVOKE_PERMISSION:
+                return new RevokePermissionAction(in.readString());
+            case TYPE_USER_LIST_UPDATE: {
+                int count = in.readCount(2);
+                List<UserStatus> statuses = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    statuses.add(new UserStatus(in.readString(), in.readBoolean()));
+                }
+                return new UserListUpdateAction(statuses);
+            }
+            case TYPE_LOGOUT:
+                return new LogoutAction();
+            case TYPE_HISTORY_SNAPSHOT: {
+                int startIndex = in.readVarInt();
+                int actionCount = in.readVarInt();
+                boolean last = in.readBoolean();
+                long throughSequence = in.readVarLong();
+                boolean compressed = in.readBoolean();
+                byte[] data = in.readBytes(in.readCount(1));
+                return new HistorySnapshotAction(startIndex, actionCount, last, throughSequence, compressed, data);
+            }
+            case TYPE_KEYFRAME: {
+                int width = in.readVarInt();
+                int height = in.readVarInt();
+                int coveredCount = in.readVarInt();
+                long throughSequence = in.readVarLong();
+                byte[] png = in.readBytes(in.readCount(1));
+                return new KeyframeAction(width, height, coveredCount, throughSequence, png);
+            }
+            default:
+                throw new StreamCorruptedException("未知的消息类型: " + type);
+        }
+    }
+
+    // --- 形状 ---
+
+    /**
+     * 写出升序排列的序号区间：个数，然后是每个区间的终点与前一个终点的差值和区间的跨度。
+     */
+    private static void writeRanges(BinaryOutput out, long[] firsts, long[] targets) {
+        out.writeVarInt(targets.length);
+        long previous = 0;
+        for (int i = 0; i < targets.length; i++) {
+            out.writeVarLong(targets[i] - previous);
+            out.writeVarLong(targets[i] - firsts[i]);
+            previous = targets[i];
+        }
+    }
+
+    private static void readRanges(BinaryInput in, long[] firsts, long[] targets, boolean spans) throws IOException {
+        long previous = 0;
+        for (int i = 0; i < targets.length; i++) {
+            previous += in.readVarLong();
+            targets[i] = previous;
+            firsts[i] = spans ? previous - in.readVarLong() : previous;
+        }
+    }
+
+    private static void writeShape(BinaryOutput out, Shape shape) {
+        if (shape instanceof Line2D) {
+            Line2D l = (Line2D) shape;
+            writeCoords(out, SHAPE_LINE, l.getX1(), l.getY1(), l.getX2(), l.getY2());
+        } else if (shape instanceof Rectangle2D) {
+            Rectangle2D r = (Rectangle2D) shape;
+            writeCoords(out, SHAPE_RECTANGLE, r.getX(), r.getY(), r.getWidth(), r.getHeight());
+        } else if (shape instanceof Ellipse2D) {
+            Ellipse2D e = (Ellipse2D) shape;
+            writeCoords(out, SHAPE_ELLIPSE, e.getX(), e.getY(), e.getWidth(), e.getHeight());
+        } else if (shape instanceof Polygon) {
+            Polygon p = (Polygon) shape;
+            out.writeByte(SHAPE_POLYGON);
+            out.writeVarInt(p.npoints);
+            for (int i = 0; i < p.npoints; i++) {
+                out.writeSignedVarInt(p.xpoints[i]);
+                out.writeSignedVarInt(p.ypoints[i]);
+            }
+        } else {
+            writePath(out, shape);
+        }
+    }
+
+    private static void writeCoords(BinaryOutput out, int kind, double... coords) {
+        boolean integral = true;
+        for (double c : coords) {
+            if (c != Math.rint(c) || Math.abs(c) > Integer.MAX_VALUE) {
+                integral = false;
+                break;
+            }
+        }
+        if (integral) {
+            out.writeByte(kind);
+            for (double c : coords) out.writeSignedVarInt((int) c);
+        } else {
+            out.writeByte(kind | FLOAT_COORDS);
+            for (double c : coords) out.writeFloat((float) c);
+        }
+    }
+
+    /**
+     * 通用形状按路径段写出：[环绕规则][段数]{[段类型][float 坐标...]}。
+     */
+    private static void writePath(BinaryOutput out, Shape shape) {
+        out.writeByte(SHAPE_PATH);
+        PathIterator it = shape.getPathIterator(null);
+        out.writeByte(it.getWindingRule());
+        BinaryOutput segments = new BinaryOutput();
+        int count = 0;
+        float[] coords = new float[6];
+        for (; !it.isDone(); it.next()) {
+            int segType = it.currentSegment(coords);
+            segments.writeByte(segType);
+            for (int i = 0; i < segmentCoordCount(segType); i++) {
+                segments.writeFloat(coords[i]);
+            }
+            count++;
+        }
+        out.writeVarInt(count);
+        byte[] bytes = segments.toByteArray();
+        out.writeBytes(bytes, 0, bytes.length);
+    }
+
+    private static Shape readShape(BinaryInput in) throws IOException {
+        int header = in.readByte();
+        int kind = header & ~FLOAT_COORDS;
+        boolean floats = (header & FLOAT_COORDS) != 0;
+        switch (kind) {
+            case SHAPE_LINE:
+                return new Line2D.Float(readCoord(in, floats), readCoord(in, floats), readCoord(in, floats), readCoord(in, floats));
+            case SHAPE_RECTANGLE:
+                return new Rectangle2D.Float(readCoord(in, floats), readCoord(in, floats), readCoord(in, floats), readCoord(in, floats));
+            case SHAPE_ELLIPSE:
+                return new Ellipse2D.Float(readCoord(in, floats), readCoord(in, floats), readCoord(in, floats), readCoord(in, floats));
+            case SHAPE_POLYGON: {
+                int n = in.readCount(2);
+                int[] xs = new int[n];
+                int[] ys = new int[n];
+                for (int i = 0; i < n; i++) {
+                    xs[i] = in.readSignedVarInt();
+                    ys[i] = in.readSignedVarInt();
+                }
+                return new Polygon(xs, ys, n);
+            }
+            case SHAPE_PATH: {
+                Path2D.Float path = new Path2D.Float(in.readByte());
+                int count = in.readCount(1);
+                for (int i = 0; i < count; i++) {
+                    int segType = in.readByte();
+                    switch (segType) {
+                        case PathIterator.SEG_MOVETO:
+                            path.moveTo(in.readFloat(), in.readFloat());
+                            break;
+                        case PathIterator.SEG_LINETO:
+                            path.lineTo(in.readFloat(), in.readFloat());
+                            break;
+                        case PathIterator.SEG_QUADTO:
+                            path.quadTo(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+                            break;
+                        case PathIterator.SEG_CUBICTO:
+                            path.curveTo(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+                            break;
+                        case PathIterator.SEG_CLOSE:
+                            path.closePath();
+                            break;
+                        default:
+                            throw new StreamCorruptedException("未知的路径段类型: " + segType);
+                    }
+                }
+                return path;
+            }
+            default:
+                throw new StreamCorruptedException("未知的形状类型: " + kind);
+        }
+    }
+
+    private static float readCoord(BinaryInput in, boolean floats) throws IOException {
+        return floats ? in.readFloat() : in.readSignedVarInt();
+    }
+
+    private static int segmentCoordCount(int segType) {
+        switch (segType) {
+            case PathIterator.SEG_MOVETO:
+            case PathIterator.SEG_LINETO:
+                return 2;
+            case PathIterator.SEG_QUADTO:
+                return 4;
+            case PathIterator.SEG_CUBICTO:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    // --- 字体 ---
+
+    private static void writeFont(BinaryOutput out, Font font) {
+        out.writeString(font.getName());
+        out.writeByte(font.getStyle());
+        out.writeFloat(font.getSize2D());
+    }
+
+    private static Font readFont(BinaryInput in) throws IOException {
+        String name = in.readString();
+        int style = in.readByte();
+        float size = in.readFloat();
+        return new Font(name, style, 1).deriveFont(size);
+    }
+
+    private static <E> E readEnum(E[] values, int ordinal) throws StreamCorruptedException {
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new StreamCorruptedException("非法的枚举序号: " + ordinal);
+        }
+        return values[ordinal];
+    }
+}
@@ -0,0 +1,118 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 与 {@link BinaryOutput} 对应的读取器，所有越界读取都会抛出 {@link IOException}。
+ */
+public class BinaryInput {
+
+    private final byte[] buf;
+    private final int limit;
+    private int pos;
+
+    public BinaryInput(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    private void require(int n) throws EOFException {
+        if (n < 0 || pos + n > limit) {
+            throw new EOFException("二进制指令数据不完整");
+        }
+    }
+
+    public int readByte() throws IOException {
+        require(1);
+        return buf[pos++] & 0xFF;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        int v = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16) | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+        pos += 4;
+        return v;
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public int readVarInt() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new StreamCorruptedException("变长整数过长");
+    }
+
+    public long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new StreamCorruptedException("变长整数过长");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int v = readVarInt();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * 读取一个非负的长度或数量，并校验剩余数据至少足够容纳 {@code minBytesEach} 字节的元素。
+     */
+    public int readCount(int minBytesEach) throws IOException {
+        int n = readVarInt();
+        if (n < 0 || (long) n * minBytesEach > remaining()) {
+            throw new StreamCorruptedException("非法的元素数量: " + n);
+        }
+        return n;
+    }
+
+    public byte[] readBytes(int length) throws IOException {
+        require(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buf, pos, bytes, 0, length);
+        pos += length;
+        return bytes;
+    }
+
+    public String readString() throws IOException {
+        int n = readVarInt();
+        if (n == 0) return null;
+        int length = n - 1;
+        require(length);
+        String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return s;
+    }
+
+    /**
+     * 当前读取位置在底层数组中的下标。
+     */
+    public int position() {
+        return pos;
+    }
+
+    public void skip(int length) throws IOException {
+        require(length);
+        pos += length;
+    }
+
+    public int remaining() {
+        return limit - pos;
+    }
+}
@@ -0,0 +1,123 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.HistorySnapshotAction;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 画板历史片段的打包与解包。
+ * <p>
+ * 片段数据格式：{@code {[varint 长度][二进制指令]}...}，无论连接使用哪种 {@link WireFormat}，
+ * 片段内部都使用 {@link BinaryActionCodec}。数据超过一定大小时尝试 Deflate 压缩，只有压缩后更小才采用。
+ */
+public final class HistorySnapshots {
+
+    // 小于这个大小的片段不值得压缩
+    private static final int COMPRESS_THRESHOLD = 512;
+    // 解压后的数据上限，防止异常数据耗尽内存
+    private static final int MAX_INFLATED_SIZE = 4 * ActionFrames.MAX_FRAME_SIZE;
+
+    private static final BinaryActionCodec CODEC = new BinaryActionCodec();
+
+    private HistorySnapshots() {
+    }
+
+    /**
+     * 将一段历史打包为一个快照片段。
+     * @param actions 片段中的指令。
+     * @param startIndex 第一条指令在历史中的位置。
+     * @param last 是否为快照的最后一个片段。
+     * @param throughSequence 快照覆盖到的序号。
+     */
+    public static HistorySnapshotAction pack(List<Action> actions, int startIndex, boolean last, long throughSequence)
+            throws IOException {
+        BinaryOutput out = new BinaryOutput(actions.size() * 24 + 16);
+        for (Action action : actions) {
+            byte[] payload = CODEC.encode(action);
+            out.writeVarInt(payload.length);
+            out.writeBytes(payload, 0, payload.length);
+        }
+        byte[] raw = out.toByteArray();
+        byte[] deflated = raw.length >= COMPRESS_THRESHOLD ? deflate(raw) : null;
+        boolean compressed = deflated != null && deflated.length < raw.length;
+        return new HistorySnapshotAction(startIndex, actions.size(), last, throughSequence,
+                compressed, compressed ? deflated : raw);
+    }
+
+    /**
+     * 解包一个快照片段中的指令。
+     */
+    public static List<Action> unpack(HistorySnapshotAction snapshot) throws IOException {
+        byte[] data = snapshot.isCompressed() ? inflate(snapshot.getData()) : snapshot.getData();
+        BinaryInput in = new BinaryInput(data, 0, data.length);
+        int count = snapshot.getActionCount();
+        if (count < 0 || count > data.length) {
+            throw new StreamCorruptedException("非法的快照指令数: " + count);
+        }
+        List<Action> actions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = in.readCount(1);
+            int offset = in.position();
+            in.skip(length);
+            actions.add(CODEC.decode(data, offset, length));
+        }
+        if (in.remaining() != 0) {
+            throw new StreamCorruptedException("快照数据存在多余的字节");
+        }
+        return actions;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buf = new byte[raw.length / 2 + 64];
+            int n = 0;
+            while (!deflater.finished()) {
+                if (n == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                n += deflater.deflate(buf, n, buf.length - n);
+            }
+            return Arrays.copyOf(buf, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] buf = new byte[Math.max(64, data.length * 4)];
+            int n = 0;
+            while (!inflater.finished()) {
+                if (n == buf.length) {
+                    if (buf.length >= MAX_INFLATED_SIZE) {
+                        throw new StreamCorruptedException("快照数据解压后过大");
+                    }
+                    buf = Arrays.copyOf(buf, Math.min(buf.length * 2, MAX_INFLATED_SIZE));
+                }
+                int read = inflater.inflate(buf, n, buf.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new StreamCorruptedException("快照压缩数据不完整");
+                }
+                n += read;
+            }
+            return Arrays.copyOf(buf, n);
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("快照压缩数据格式错误: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
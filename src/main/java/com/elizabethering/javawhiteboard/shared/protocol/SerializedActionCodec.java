@@ -0,0 +1,83 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.EraseAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeAction;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import com.elizabethering.javawhiteboard.shared.model.StrokePoints;
+import com.elizabethering.javawhiteboard.shared.model.TextAction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * 使用 Java 对象序列化的编解码器，供设置了 {@code -Dwhiteboard.wire=serialized} 的客户端使用。
+ * 负载同样放在 {@link ActionFrames} 的帧中；早期版本的客户端直接在连接上写不分帧的对象流，无法使用这种格式连接。
+ * <p>
+ * 反序列化得到的对象不经过构造方法，解码时按二进制格式的标准校验绘图指令的内容，
+ * 缺少字段或点序列损坏的指令被拒绝，不会进入历史，也不会转发给其他客户端。
+ */
+public class SerializedActionCodec implements ActionCodec {
+
+    @Override
+    public byte[] encode(Action action) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(action);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Action decode(byte[] payload, int offset, int length) throws IOException {
+        Action action;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload, offset, length))) {
+            action = (Action) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new StreamCorruptedException("无法解析的指令帧: " + e.getMessage());
+        }
+        validate(action);
+        return action;
+    }
+
+    /**
+     * 检查指令的内容能否被绘制和重新编码。
+     * @throws StreamCorruptedException 内容不完整或点序列格式错误时抛出。
+     */
+    private static void validate(Action action) throws StreamCorruptedException {
+        boolean valid;
+        if (action == null) {
+            valid = false;
+        } else if (action instanceof StrokeAction) {
+            StrokeAction st = (StrokeAction) action;
+            valid = st.getToolType() != null && st.getColor() != null && isValidPoints(st.getEncodedPoints());
+        } else if (action instanceof EraseAction) {
+            valid = isValidPoints(((EraseAction) action).getEncodedPoints());
+        } else if (action instanceof ShapeAction) {
+            ShapeAction sa = (ShapeAction) action;
+            valid = sa.getShapeType() != null && sa.getShape() != null && sa.getColor() != null;
+        } else if (action instanceof TextAction) {
+            TextAction ta = (TextAction) action;
+            valid = ta.getText() != null && ta.getColor() != null && ta.getFont() != null;
+        } else {
+            valid = true;
+        }
+        if (!valid) {
+            throw new StreamCorruptedException("指令内容不完整或已损坏: " + (action == null ? "null" : action.getClass().getSimpleName()));
+        }
+    }
+
+    private static boolean isValidPoints(byte[] encoded) {
+        if (encoded == null) return false;
+        try {
+            StrokePoints.decode(encoded);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+/**
+ * 帧负载的编码格式。
+ * 两种格式的首字节互不相同，接收方可以逐帧识别，因此同一台服务器可以同时服务两种客户端。
+ */
+public enum WireFormat {
+    /**
+     * Java 对象序列化，负载以流魔数 0xACED 开头。
+     */
+    SERIALIZED(new SerializedActionCodec()),
+    /**
+     * 紧凑的二进制格式，负载以 {@link BinaryActionCodec#MAGIC} 加版本号开头。
+     */
+    BINARY(new BinaryActionCodec());
+
+    private static final int SERIALIZATION_MAGIC_HIGH = 0xAC;
+
+    private final ActionCodec codec;
+
+    WireFormat(ActionCodec codec) {
+        this.codec = codec;
+    }
+
+    public ActionCodec codec() {
+        return codec;
+    }
+
+    /**
+     * 根据负载的首字节识别编码格式。
+     */
+    public static WireFormat detect(byte[] payload, int offset, int length) {
+        if (length > 0 && (payload[offset] & 0xFF) == SERIALIZATION_MAGIC_HIGH) {
+            return SERIALIZED;
+        }
+        return BINARY;
+    }
+
+    /**
+     * 读取系统属性 {@code whiteboard.wire} 指定的格式，默认使用二进制格式。
+     */
+    public static WireFormat fromSystemProperties() {
+        return valueOf(System.getProperty("whiteboard.wire", "binary").trim().toUpperCase());
+    }
+}
@@ -0,0 +1,91 @@
+package com.elizabethering.javawhiteboard.shared.render;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.ShapeAction;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import com.elizabethering.javawhiteboard.shared.model.TextAction;
+
+import java.awt.BasicStroke;
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * 判断橡皮擦轨迹是否碰到某条指令画出的图形，客户端的本地擦除和服务器共用。
+ * <p>
+ * 图形按它实际画出的轮廓（包含线宽）判断，空心矩形内部的空白处不算碰到；文本按它的范围判断。
+ * 轨迹按半个橡皮擦宽度的间隔取样，每个样本点是一个边长等于橡皮擦宽度的正方形。
+ */
+public final class ActionHitTester {
+
+    private ActionHitTester() {
+    }
+
+    /**
+     * 返回橡皮擦轨迹覆盖的范围。
+     * @param points 交错存放的轨迹坐标：x0, y0, x1, y1, ...
+     */
+    public static Rectangle2D eraserBounds(int[] points, float width) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            minX = Math.min(minX, points[i]);
+            minY = Math.min(minY, points[i + 1]);
+            maxX = Math.max(maxX, points[i]);
+            maxY = Math.max(maxY, points[i + 1]);
+        }
+        if (minX > maxX) return new Rectangle2D.Double();
+        double half = width / 2.0;
+        return new Rectangle2D.Double(minX - half, minY - half, maxX - minX + width, maxY - minY + width);
+    }
+
+    /**
+     * 判断橡皮擦轨迹是否碰到指令画出的图形。不改变画板内容的指令返回 false。
+     * @param points 交错存放的轨迹坐标：x0, y0, x1, y1, ...
+     * @param width 橡皮擦的宽度。
+     */
+    public static boolean hits(Action action, int[] points, float width) {
+        Rectangle2D bounds = ActionRenderer.bounds(action);
+        if (bounds == null || points.length < 2 || !bounds.intersects(eraserBounds(points, width))) {
+            return false;
+        }
+        Shape outline;
+        if (action instanceof ShapeAction) {
+            ShapeAction sa = (ShapeAction) action;
+            outline = stroke(sa.getStrokeWidth()).createStrokedShape(sa.getShape());
+        } else if (action instanceof StrokeAction) {
+            StrokeAction st = (StrokeAction) action;
+            outline = stroke(st.getStrokeWidth()).createStrokedShape(st.toShape());
+        } else if (action instanceof TextAction) {
+            outline = bounds;
+        } else {
+            return false;
+        }
+
+        double size = Math.max(1.0, width);
+        double step = size / 2;
+        Rectangle2D.Double probe = new Rectangle2D.Double(0, 0, size, size);
+        if (points.length == 2) {
+            return probe(outline, probe, points[0], points[1]);
+        }
+        for (int i = 2; i + 1 < points.length; i += 2) {
+            double x0 = points[i - 2], y0 = points[i - 1];
+            double dx = points[i] - x0, dy = points[i + 1] - y0;
+            int samples = Math.max(1, (int) Math.ceil(Math.hypot(dx, dy) / step));
+            // 每一段都从起点开始取样，最后一段再补上终点
+            for (int s = 0; s < samples; s++) {
+                double t = (double) s / samples;
+                if (probe(outline, probe, x0 + dx * t, y0 + dy * t)) return true;
+            }
+        }
+        return probe(outline, probe, points[points.length - 2], points[points.length - 1]);
+    }
+
+    private static boolean probe(Shape outline, Rectangle2D.Double probe, double x, double y) {
+        probe.x = x - probe.width / 2;
+        probe.y = y - probe.height / 2;
+        return outline.intersects(probe);
+    }
+
+    private static BasicStroke stroke(float width) {
+        return new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    }
+}
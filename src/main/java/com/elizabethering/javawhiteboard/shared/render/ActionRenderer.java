@@ -0,0 +1,102 @@
+package com.elizabethering.javawhiteboard.shared.render;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.ShapeAction;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import com.elizabethering.javawhiteboard.shared.model.TextAction;
+
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Rectangle2D;
+import java.util.List;
+
+/**
+ * 绘图指令的渲染逻辑，客户端的画板和服务器的无界面渲染共用，保证两边画出的结果一致。
+ * 使用经典的 instanceof 和类型转换以兼容 Java 8。
+ */
+public final class ActionRenderer {
+
+    // 与 Graphics2D 开启抗锯齿时一致的字体度量上下文，用于在没有 Graphics 时计算文本范围
+    private static final FontRenderContext FONT_CONTEXT = new FontRenderContext(null, true, true);
+
+    private ActionRenderer() {
+    }
+
+    /**
+     * 设置渲染画板时统一使用的渲染参数。
+     */
+    public static void configure(Graphics2D g2d) {
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    }
+
+    /**
+     * 绘制一条指令。不改变画板内容的指令会被忽略。
+     */
+    public static void draw(Graphics2D g2d, Action action) {
+        if (action instanceof ShapeAction) {
+            ShapeAction sa = (ShapeAction) action;
+            g2d.setColor(sa.getColor());
+            g2d.setStroke(new BasicStroke(sa.getStrokeWidth(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2d.draw(sa.getShape());
+        } else if (action instanceof StrokeAction) {
+            StrokeAction st = (StrokeAction) action;
+            g2d.setColor(st.getColor());
+            g2d.setStroke(new BasicStroke(st.getStrokeWidth(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            // 缩小显示时使用简化的折线，少画看不出来的点
+            g2d.draw(st.toShape(scaleOf(g2d)));
+        } else if (action instanceof TextAction) {
+            TextAction ta = (TextAction) action;
+            g2d.setColor(ta.getColor());
+            g2d.setFont(ta.getFont());
+            g2d.drawString(ta.getText(), ta.getX(), ta.getY());
+        }
+    }
+
+    /**
+     * 当前坐标系到设备像素的比例，缩放不均匀时取两个方向的几何平均。
+     */
+    private static double scaleOf(Graphics2D g2d) {
+        return Math.sqrt(Math.abs(g2d.getTransform().getDeterminant()));
+    }
+
+    /**
+     * 返回指令在画板上影响的范围（包含线宽），不改变画板内容的指令返回 null。
+     */
+    public static Rectangle2D bounds(Action action) {
+        if (action instanceof ShapeAction) {
+            ShapeAction sa = (ShapeAction) action;
+            return grow(sa.getShape(), sa.getStrokeWidth());
+        } else if (action instanceof StrokeAction) {
+            // 直接由编码数据求出，不生成绘制用的缓存，服务器为整个历史建索引时内存不会膨胀
+            StrokeAction st = (StrokeAction) action;
+            return grow(st.getPointBounds(), st.getStrokeWidth());
+        } else if (action instanceof TextAction) {
+            TextAction ta = (TextAction) action;
+            Rectangle2D text = ta.getFont().getStringBounds(ta.getText(), FONT_CONTEXT);
+            // getStringBounds 以基线为原点，再留出抗锯齿的余量
+            return new Rectangle2D.Double(ta.getX() + text.getX() - 1, ta.getY() + text.getY() - 1,
+                    text.getWidth() + 2, text.getHeight() + 2);
+        }
+        return null;
+    }
+
+    /**
+     * 丢弃笔画在绘制和判断时生成的缓存，只保留紧凑的编码。服务器的历史画完底图、压缩或判断擦除后调用。
+     */
+    public static void releaseCaches(List<? extends Action> actions) {
+        for (Action action : actions) {
+            if (action instanceof StrokeAction) {
+                ((StrokeAction) action).releaseCaches();
+            }
+        }
+    }
+
+    private static Rectangle2D grow(Shape shape, float strokeWidth) {
+        Rectangle2D r = shape.getBounds2D();
+        double pad = strokeWidth / 2.0 + 1; // 圆形线帽向外延伸半个线宽，再加 1 像素抗锯齿
+        return new Rectangle2D.Double(r.getX() - pad, r.getY() - pad, r.getWidth() + pad * 2, r.getHeight() + pad * 2);
+    }
+}
@@ -0,0 +1,432 @@
+package com.elizabethering.javawhiteboard.shared.render;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.ShapeAction;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import com.elizabethering.javawhiteboard.shared.model.TextAction;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 把画板导出为 PNG 或 SVG 文件，不需要图形界面，服务器和客户端共用。
+ * <p>
+ * 历史按顺序逐条读取，不会整体复制：先扫描一遍求出画板上有图形的范围，再扫描一遍写出文件。
+ * 服务器内存映射的历史在读取时才解码，导出再大的画板也不必把整个历史放进堆中。
+ * <ul>
+ * <li>PNG 按行带分块渲染：每一带由 {@link TileRasterizer} 并行画出后逐行压缩写出，
+ * 同一时刻只保留一带的图块，画板再大也能导出。每一带都要重新扫描一遍历史。</li>
+ * <li>SVG 逐条写出矢量图形，颜色和线宽相同的相邻不透明线条合并为同一个 path 元素，首尾相连的部分连成一条折线。</li>
+ * </ul>
+ */
+public final class BoardExporter {
+
+    // PNG 每一带的高度（像素），一带的图块最多占用 宽度 x 1024 x 4 字节
+    private static final int BAND_HEIGHT = TileRasterizer.DEFAULT_TILE_SIZE * 4;
+    // 每次从历史中取出的指令数
+    private static final int CHUNK_SIZE = 8192;
+    // 图形范围之外留出的空白（像素）
+    private static final int MARGIN = 16;
+
+    private final List<Action> history;
+    private final Predicate<Action> visible;
+    private final Color background;
+    private Image baseImage;
+    private Rectangle extent;
+
+    /**
+     * @param history 按绘制顺序排列的历史，支持随机访问。
+     * @param visible 判断指令是否画在画板上，例如排除已撤销的图形。
+     */
+    public BoardExporter(List<Action> history, Predicate<Action> visible) {
+        this.history = history;
+        this.visible = visible;
+        this.background = Color.WHITE; // 与客户端画板的背景色一致
+    }
+
+    /**
+     * 设置画在所有指令之下的画板底图，左上角对应画板原点。客户端以底图加入房间时，底图之前的历史只存在于底图中。
+     */
+    public void setBaseImage(Image image) {
+        this.baseImage = image;
+        this.extent = null;
+    }
+
+    /**
+     * 导出的范围：所有图形的范围加上四周的空白，画板为空时是原点处的一块空白。结果在第一次调用后缓存。
+     */
+    public Rectangle getExtent() {
+        if (extent == null) {
+            Rectangle2D union = baseImage == null ? null
+                    : new Rectangle2D.Double(0, 0, baseImage.getWidth(null), baseImage.getHeight(null));
+            for (int i = 0; i < history.size(); i++) {
+                Action action = history.get(i);
+                if (!visible.test(action)) continue;
+                Rectangle2D bounds = ActionRenderer.bounds(action);
+                if (bounds == null) continue;
+                if (union == null) {
+                    union = (Rectangle2D) bounds.clone();
+                } else {
+                    union.add(bounds);
+                }
+            }
+            if (union == null) {
+                extent = new Rectangle(0, 0, MARGIN * 2, MARGIN * 2);
+            } else {
+                Rectangle r = union.getBounds();
+                r.grow(MARGIN, MARGIN);
+                extent = r;
+            }
+        }
+        return extent;
+    }
+
+    // --- PNG ---
+
+    /**
+     * 把画板写为 PNG 图像，不关闭输出流。
+     */
+    public void writePng(OutputStream out) throws IOException {
+        Rectangle area = getExtent();
+        PngStream png = new PngStream(out, area.width, area.height);
+        int[] rgb = new int[area.width];
+        for (int top = 0; top < area.height; top += BAND_HEIGHT) {
+            int bandHeight = Math.min(BAND_HEIGHT, area.height - top);
+            Rectangle2D band = new Rectangle2D.Double(area.x, area.y + top, area.width, bandHeight);
+            TileRasterizer tiles = new TileRasterizer(area.x, area.y + top, area.width, bandHeight,
+                    TileRasterizer.DEFAULT_TILE_SIZE, background);
+            if (baseImage != null) {
+                tiles.drawImage(baseImage);
+            }
+            for (int from = 0; from < history.size(); from += CHUNK_SIZE) {
+                int to = Math.min(history.size(), from + CHUNK_SIZE);
+                List<Action> chunk = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    Action action = history.get(i);
+                    if (!visible.test(action)) continue;
+                    Rectangle2D bounds = ActionRenderer.bounds(action);
+                    if (bounds != null && bounds.intersects(band)) {
+                        chunk.add(action);
+                    }
+                }
+                tiles.draw(chunk);
+            }
+            for (int y = 0; y < bandHeight; y++) {
+                tiles.getRow(y, rgb);
+                png.writeRow(rgb);
+            }
+        }
+        png.finish();
+    }
+
+    /**
+     * 逐行写出的 24 位 RGB PNG 编码器，压缩后的数据每满 64 KB 写成一个 IDAT 块。
+     */
+    private static final class PngStream {
+        private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        private static final int IDAT_SIZE = 64 * 1024;
+
+        private final DataOutputStream out;
+        private final byte[] row;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private final DeflaterOutputStream idat;
+
+        PngStream(OutputStream target, int width, int height) throws IOException {
+            this.out = new DataOutputStream(target);
+            this.row = new byte[1 + width * 3];
+            out.write(SIGNATURE);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream ihdr = new DataOutputStream(header);
+            ihdr.writeInt(width);
+            ihdr.writeInt(height);
+            ihdr.writeByte(8); // 每个通道 8 位
+            ihdr.writeByte(2); // RGB
+            ihdr.writeByte(0); // deflate
+            ihdr.writeByte(0); // 标准过滤
+            ihdr.writeByte(0); // 不隔行
+            writeChunk("IHDR", header.toByteArray(), header.size());
+            this.idat = new DeflaterOutputStream(new ChunkOutput(), deflater, IDAT_SIZE);
+        }
+
+        /**
+         * 写出一行像素。行首的过滤类型为 0（不过滤），画板大片是纯色，压缩率已经足够。
+         */
+        void writeRow(int[] rgb) throws IOException {
+            int p = 1;
+            for (int i = 0; i < row.length / 3; i++) {
+                int c = rgb[i];
+                row[p++] = (byte) (c >> 16);
+                row[p++] = (byte) (c >> 8);
+                row[p++] = (byte) c;
+            }
+            idat.write(row);
+        }
+
+        void finish() throws IOException {
+            idat.finish();
+            idat.flush(); // 写出最后一个不满 64 KB 的 IDAT 块
+            deflater.end();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        }
+
+        private void writeChunk(String type, byte[] data, int length) throws IOException {
+            byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+            CRC32 crc = new CRC32();
+            crc.update(name);
+            crc.update(data, 0, length);
+            out.writeInt(length);
+            out.write(name);
+            out.write(data, 0, length);
+            out.writeInt((int) crc.getValue());
+        }
+
+        /**
+         * 把压缩后的数据分成 IDAT 块写出。
+         */
+        private final class ChunkOutput extends OutputStream {
+            private final byte[] buffer = new byte[IDAT_SIZE];
+            private int length;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int n = Math.min(len, buffer.length - length);
+                    System.arraycopy(b, off, buffer, length, n);
+                    length += n;
+                    off += n;
+                    len -= n;
+                    if (length == buffer.length) {
+                        flush();
+                    }
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (length > 0) {
+                    writeChunk("IDAT", buffer, length);
+                    length = 0;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        }
+    }
+
+    // --- SVG ---
+
+    /**
+     * 把画板写为 UTF-8 编码的 SVG 文档，不关闭输出流。
+     */
+    public void writeSvg(OutputStream out) throws IOException {
+        Rectangle area = getExtent();
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        w.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"" + area.width + "\" height=\"" + area.height
+                + "\" viewBox=\"" + area.x + " " + area.y + " " + area.width + " " + area.height + "\">\n");
+        w.write("<rect x=\"" + area.x + "\" y=\"" + area.y + "\" width=\"" + area.width + "\" height=\"" + area.height
+                + "\" fill=\"" + hex(background) + "\"/>\n");
+        if (baseImage != null) {
+            writeImage(w, baseImage);
+        }
+
+        SvgPath path = null;
+        for (int i = 0; i < history.size(); i++) {
+            Action action = history.get(i);
+            if (!visible.test(action)) continue;
+            if (action instanceof TextAction) {
+                if (path != null) {
+                    path.close(w);
+                    path = null;
+                }
+                writeText(w, (TextAction) action);
+                continue;
+            }
+            Shape shape;
+            Color color;
+            float width;
+            if (action instanceof ShapeAction) {
+                ShapeAction sa = (ShapeAction) action;
+                shape = sa.getShape();
+                color = sa.getColor();
+                width = sa.getStrokeWidth();
+            } else if (action instanceof StrokeAction) {
+                StrokeAction st = (StrokeAction) action;
+                shape = st.toShape();
+                color = st.getColor();
+                width = st.getStrokeWidth();
+            } else {
+                continue;
+            }
+            // 半透明的线条重叠处在同一个 path 中只画一次，与逐条绘制的效果不同，不做合并
+            if (path != null && !path.accepts(color, width)) {
+                path.close(w);
+                path = null;
+            }
+            if (path == null) {
+                path = new SvgPath(w, color, width);
+            }
+            path.append(w, shape);
+        }
+        if (path != null) {
+            path.close(w);
+        }
+        w.write("</svg>\n");
+        w.flush();
+    }
+
+    /**
+     * 把底图以 PNG 编码后内嵌到文档中。
+     */
+    private void writeImage(Writer w, Image image) throws IOException {
+        int width = image.getWidth(null), height = image.getHeight(null);
+        BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(copy, "png", png);
+        w.write("<image x=\"0\" y=\"0\" width=\"" + width + "\" height=\"" + height + "\" xlink:href=\"data:image/png;base64,"
+                + Base64.getEncoder().encodeToString(png.toByteArray()) + "\"/>\n");
+    }
+
+    private static void writeText(Writer w, TextAction ta) throws IOException {
+        Font font = ta.getFont();
+        w.write("<text x=\"" + ta.getX() + "\" y=\"" + ta.getY() + "\" font-family=\"" + escape(font.getFamily())
+                + "\" font-size=\"" + number(font.getSize2D()) + "\"");
+        if (font.isBold()) w.write(" font-weight=\"bold\"");
+        if (font.isItalic()) w.write(" font-style=\"italic\"");
+        w.write(" fill=\"" + hex(ta.getColor()) + "\"" + opacity("fill-opacity", ta.getColor())
+                + " xml:space=\"preserve\">" + escape(ta.getText()) + "</text>\n");
+    }
+
+    /**
+     * 一个正在写出的 path 元素，包含若干条颜色和线宽相同的线条。
+     */
+    private static final class SvgPath {
+        private final Color color;
+        private final float width;
+        // 上一条线条的终点，下一条从这里开始时直接接上，不另起子路径
+        private double lastX = Double.NaN;
+        private double lastY = Double.NaN;
+
+        SvgPath(Writer w, Color color, float width) throws IOException {
+            this.color = color;
+            this.width = width;
+            w.write("<path fill=\"none\" stroke=\"" + hex(color) + "\"" + opacity("stroke-opacity", color)
+                    + " stroke-width=\"" + number(width) + "\" stroke-linecap=\"round\" stroke-linejoin=\"round\" d=\"");
+        }
+
+        boolean accepts(Color other, float otherWidth) {
+            return color.getAlpha() == 255 && other.getRGB() == color.getRGB() && otherWidth == width;
+        }
+
+        void append(Writer w, Shape shape) throws IOException {
+            double[] c = new double[6];
+            double startX = 0, startY = 0;
+            for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+                switch (it.currentSegment(c)) {
+                    case PathIterator.SEG_MOVETO:
+                        startX = c[0];
+                        startY = c[1];
+                        if (c[0] != lastX || c[1] != lastY) {
+                            w.write("M" + number(c[0]) + " " + number(c[1]));
+                        }
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        w.write("L" + number(c[0]) + " " + number(c[1]));
+                        break;
+                    case PathIterator.SEG_QUADTO:
+                        w.write("Q" + number(c[0]) + " " + number(c[1]) + " " + number(c[2]) + " " + number(c[3]));
+                        c[0] = c[2];
+                        c[1] = c[3];
+                        break;
+                    case PathIterator.SEG_CUBICTO:
+                        w.write("C" + number(c[0]) + " " + number(c[1]) + " " + number(c[2]) + " " + number(c[3])
+                                + " " + number(c[4]) + " " + number(c[5]));
+                        c[0] = c[4];
+                        c[1] = c[5];
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        w.write("Z");
+                        c[0] = startX;
+                        c[1] = startY;
+                        break;
+                    default:
+                        break;
+                }
+                lastX = c[0];
+                lastY = c[1];
+            }
+        }
+
+        void close(Writer w) throws IOException {
+            w.write("\"/>\n");
+        }
+    }
+
+    private static String hex(Color color) {
+        return String.format("#%06x", color.getRGB() & 0xFFFFFF);
+    }
+
+    private static String opacity(String attribute, Color color) {
+        return color.getAlpha() == 255 ? "" : " " + attribute + "=\"" + number(color.getAlpha() / 255.0) + "\"";
+    }
+
+    /**
+     * 最多保留三位小数的坐标，整数不带小数点，与系统区域设置无关。
+     */
+    private static String number(double value) {
+        return BigDecimal.valueOf(Math.round(value * 1000), 3).stripTrailingZeros().toPlainString();
+    }
+
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            switch (ch) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                case '"': sb.append("&quot;"); break;
+                default:
+                    // XML 1.0 不允许除制表符和换行以外的控制字符
+                    if (ch >= 0x20 || ch == '\t' || ch == '\n' || ch == '\r') sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+}
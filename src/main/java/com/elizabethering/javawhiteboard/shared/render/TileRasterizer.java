@@ -0,0 +1,256 @@
+package com.elizabethering.javawhiteboard.shared.render;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * 把画板分成图块并行光栅化，用于需要从头画出整个画板的场合（客户端载入、加入房间、撤销后的重绘，服务器的底图）。
+ * <p>
+ * 每批指令先按范围分到它们碰到的图块中，再由共享的 {@link ForkJoinPool} 把各个图块分别画进各自的图像，
+ * 最后把图块拼合为整张画板。同一图块内的指令按原来的顺序绘制，因此结果与逐条串行绘制相同。
+ * 指令可以分多批送入，图块在两批之间保留已画出的内容，整个历史不必同时留在内存中。
+ * 图块在第一次被碰到时才分配，没有图形的区域不占内存。
+ * <p>
+ * 同一个实例只能由一个线程使用。
+ */
+public final class TileRasterizer {
+
+    /** 默认的图块边长（像素）。 */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    // 所有并行光栅化共用一个线程池，工作线程都是守护线程
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("tile-rasterizer-" + t.getPoolIndex());
+        return t;
+    }, null, false);
+
+    private final int originX;
+    private final int originY;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    private final Color background;
+    // 按行优先排列的图块图像，未分配的为 null
+    private final BufferedImage[] tiles;
+
+    /**
+     * @param originX 画板区域左上角的横坐标。
+     * @param originY 画板区域左上角的纵坐标。
+     * @param width 区域宽度（像素）。
+     * @param height 区域高度（像素）。
+     * @param background 背景色。
+     */
+    public TileRasterizer(int originX, int originY, int width, int height, int tileSize, Color background) {
+        if (width <= 0 || height <= 0 || tileSize <= 0) {
+            throw new IllegalArgumentException("非法的尺寸: " + width + "x" + height + " / " + tileSize);
+        }
+        this.originX = originX;
+        this.originY = originY;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+        this.background = background;
+        this.tiles = new BufferedImage[columns * rows];
+    }
+
+    /**
+     * 在所有图块上画一张底图，通常在第一批指令之前调用。
+     * @param image 画板底图，左上角对应画板原点。
+     */
+    public void drawImage(Image image) {
+        int w = image.getWidth(null), h = image.getHeight(null);
+        if (w <= 0 || h <= 0) return;
+        List<Integer> touched = new ArrayList<>();
+        for (int r = firstRow(0); r <= lastRow(h); r++) {
+            for (int c = firstColumn(0); c <= lastColumn(w); c++) {
+                touched.add(r * columns + c);
+            }
+        }
+        forEach(touched.size(), i -> {
+            Graphics2D g2d = createGraphics(touched.get(i));
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+        });
+    }
+
+    /**
+     * 按顺序画出一批指令，不改变画板内容的指令会被忽略。
+     */
+    public void draw(List<Action> actions) {
+        // 分配到图块：每条指令只计算一次范围
+        List<List<Action>> binned = new ArrayList<>(tiles.length);
+        for (int i = 0; i < tiles.length; i++) {
+            binned.add(null);
+        }
+        List<Integer> touched = new ArrayList<>();
+        for (Action action : actions) {
+            Rectangle2D bounds = ActionRenderer.bounds(action);
+            if (bounds == null) continue;
+            int c0 = firstColumn(bounds.getMinX()), c1 = lastColumn(bounds.getMaxX());
+            int r0 = firstRow(bounds.getMinY()), r1 = lastRow(bounds.getMaxY());
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    int index = r * columns + c;
+                    List<Action> bin = binned.get(index);
+                    if (bin == null) {
+                        bin = new ArrayList<>();
+                        binned.set(index, bin);
+                        touched.add(index);
+                    }
+                    bin.add(action);
+                }
+            }
+        }
+        forEach(touched.size(), i -> {
+            int index = touched.get(i);
+            Graphics2D g2d = createGraphics(index);
+            for (Action action : binned.get(index)) {
+                ActionRenderer.draw(g2d, action);
+            }
+            g2d.dispose();
+        });
+    }
+
+    /**
+     * 把所有图块拼合到目标上，目标的原点对应区域的左上角。
+     */
+    public void compositeTo(Graphics2D target) {
+        target.setColor(background);
+        target.fillRect(0, 0, width, height);
+        for (int index = 0; index < tiles.length; index++) {
+            if (tiles[index] != null) {
+                target.drawImage(tiles[index], index % columns * tileSize, index / columns * tileSize, null);
+            }
+        }
+    }
+
+    /**
+     * 拼合为一张完整的图像。
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        compositeTo(g2d);
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * 取出区域中一行像素的 RGB 值，供逐行写出图像使用，不必拼合整张图像。
+     * @param y 行号，0 为区域的第一行。
+     * @param rgb 长度至少为区域宽度的数组。
+     */
+    public void getRow(int y, int[] rgb) {
+        int row = y / tileSize;
+        for (int column = 0; column < columns; column++) {
+            BufferedImage tile = tiles[row * columns + column];
+            int x = column * tileSize;
+            int w = Math.min(tileSize, width - x);
+            if (tile == null) {
+                Arrays.fill(rgb, x, x + w, background.getRGB());
+            } else {
+                tile.getRGB(0, y - row * tileSize, w, 1, rgb, x, w);
+            }
+        }
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    // 范围 [min, max] 碰到的图块的行列区间，超出区域的部分被截掉，完全在区域之外时区间为空
+
+    private int firstColumn(double minX) {
+        return (int) Math.max(0, Math.floor((minX - originX) / tileSize));
+    }
+
+    private int lastColumn(double maxX) {
+        return (int) Math.min(columns - 1, Math.floor((maxX - originX) / tileSize));
+    }
+
+    private int firstRow(double minY) {
+        return (int) Math.max(0, Math.floor((minY - originY) / tileSize));
+    }
+
+    private int lastRow(double maxY) {
+        return (int) Math.min(rows - 1, Math.floor((maxY - originY) / tileSize));
+    }
+
+    /**
+     * 在图块上绘图的 Graphics，坐标系为画板坐标。只由负责这个图块的线程调用。
+     */
+    private Graphics2D createGraphics(int index) {
+        BufferedImage tile = tiles[index];
+        int column = index % columns, row = index / columns;
+        if (tile == null) {
+            tile = new BufferedImage(Math.min(tileSize, width - column * tileSize),
+                    Math.min(tileSize, height - row * tileSize), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = tile.createGraphics();
+            g2d.setColor(background);
+            g2d.fillRect(0, 0, tile.getWidth(), tile.getHeight());
+            g2d.dispose();
+            tiles[index] = tile;
+        }
+        Graphics2D g2d = tile.createGraphics();
+        g2d.translate(-(originX + column * tileSize), -(originY + row * tileSize));
+        ActionRenderer.configure(g2d);
+        return g2d;
+    }
+
+    /**
+     * 在共享的线程池中并行执行 count 个互相独立的任务，全部完成后返回。任务抛出的异常在调用线程中重新抛出。
+     */
+    public static void forEach(int count, IntConsumer task) {
+        if (count == 0) return;
+        if (count == 1 || POOL.getParallelism() == 1) {
+            for (int i = 0; i < count; i++) {
+                task.accept(i);
+            }
+            return;
+        }
+        POOL.invoke(new RangeTask(task, 0, count));
+    }
+
+    /**
+     * 把下标区间二分，直到每个任务只剩一个下标。
+     */
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // 只在线程池中使用，不会被序列化
+
+        private final IntConsumer task;
+        private final int from;
+        private final int to;
+
+        RangeTask(IntConsumer task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                task.accept(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(task, from, middle), new RangeTask(task, middle, to));
+        }
+    }
+}
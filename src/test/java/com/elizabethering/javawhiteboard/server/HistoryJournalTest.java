@@ -0,0 +1,56 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.ClearAction;
+import com.elizabethering.javawhiteboard.shared.model.DrawingAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Color;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class HistoryJournalTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static OutboundMessage stroke(long sequence) {
+        StrokeAction stroke = new StrokeAction(ShapeType.LINE, new int[]{0, 0, 5, 5}, Color.BLACK, 2f);
+        stroke.assignSequence(sequence);
+        return new OutboundMessage(stroke);
+    }
+
+    @Test
+    public void clearReplacesJournalWithLaterRecords() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        HistoryJournal journal = HistoryJournal.open(dir, "room");
+        journal.replay(action -> { });
+        journal.start();
+        journal.append(stroke(1));
+        journal.append(stroke(2));
+        journal.append(new OutboundMessage(new ClearAction()));
+        journal.append(stroke(4));
+        journal.append(stroke(5));
+        journal.close();
+        assertFalse(journal.isFailed());
+
+        List<Action> replayed = new ArrayList<>();
+        HistoryJournal reopened = HistoryJournal.open(dir, "room");
+        reopened.replay(replayed::add);
+        reopened.close();
+
+        assertEquals(2, replayed.size());
+        assertEquals(4, ((DrawingAction) replayed.get(0)).getSequence());
+        assertEquals(5, ((DrawingAction) replayed.get(1)).getSequence());
+        assertFalse(Files.exists(dir.resolve(HistoryJournal.fileName("room") + ".tmp")));
+    }
+}
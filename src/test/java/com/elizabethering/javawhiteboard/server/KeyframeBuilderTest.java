@@ -0,0 +1,99 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import org.junit.Test;
+
+import java.awt.Color;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class KeyframeBuilderTest {
+
+    private final SegmentedHistory history = new SegmentedHistory();
+
+    private void draw(int x, int y) {
+        StrokeAction stroke = new StrokeAction(ShapeType.LINE, new int[]{x, y, x + 5, y}, Color.BLACK, 2f);
+        stroke.assignSequence(history.size() + 1);
+        history.append(stroke);
+    }
+
+    private static KeyframeBuilder.Keyframe await(KeyframeBuilder keyframes, int covered) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        KeyframeBuilder.Keyframe latest = keyframes.latest();
+        while ((latest == null || latest.coveredCount < covered) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            latest = keyframes.latest();
+        }
+        return latest;
+    }
+
+    @Test
+    public void stopsCoverageBeforeTheChunkThatLeavesTheCanvas() throws Exception {
+        KeyframeBuilder keyframes = new KeyframeBuilder("test", history, () -> Tombstones.EMPTY, 4, 100, 100, 4);
+        for (int i = 0; i < 9; i++) {
+            draw(10, 10 + i);
+        }
+        draw(-50, 50); // 第 10 条指令在底图左侧之外
+        for (int i = 0; i < 10; i++) {
+            draw(10, 50 + i);
+        }
+        keyframes.onAppend();
+
+        KeyframeBuilder.Keyframe latest = await(keyframes, 8);
+        assertNotNull(latest);
+        assertEquals(8, latest.coveredCount);
+
+        // 之后追加的指令不会让底图越过超出范围的那条指令
+        for (int i = 0; i < 8; i++) {
+            draw(10, 70 + i);
+        }
+        keyframes.onAppend();
+        Thread.sleep(200);
+        assertEquals(8, keyframes.latest().coveredCount);
+    }
+
+    @Test
+    public void clearingRestoresFullCoverage() throws Exception {
+        KeyframeBuilder keyframes = new KeyframeBuilder("test", history, () -> Tombstones.EMPTY, 4, 100, 100, 4);
+        draw(-50, 50);
+        for (int i = 0; i < 7; i++) {
+            draw(10, 10 + i);
+        }
+        keyframes.onAppend();
+        Thread.sleep(200);
+
+        history.clear();
+        keyframes.invalidate();
+        for (int i = 0; i < 8; i++) {
+            draw(10, 10 + i);
+        }
+        keyframes.onAppend();
+
+        KeyframeBuilder.Keyframe latest = await(keyframes, 8);
+        assertNotNull(latest);
+        assertEquals(8, latest.coveredCount);
+    }
+
+    @Test
+    public void undoAfterTheKeyframeKeepsIt() throws Exception {
+        KeyframeBuilder keyframes = new KeyframeBuilder("test", history, () -> Tombstones.EMPTY, 4, 100, 100, 4);
+        for (int i = 0; i < 10; i++) {
+            draw(10, 10 + i);
+        }
+        keyframes.onAppend();
+        KeyframeBuilder.Keyframe before = await(keyframes, 8);
+        assertNotNull(before);
+        assertEquals(8, before.throughSequence);
+        Thread.sleep(200); // 等渲染线程结束，正在渲染时的撤销总会让底图失效
+
+        keyframes.onTombstonesChanged(9);
+        assertSame(before, keyframes.latest());
+
+        keyframes.onTombstonesChanged(8);
+        assertNotSame(before, keyframes.latest());
+    }
+}
@@ -0,0 +1,122 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.DrawingAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Color;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedActionLogTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** 很小的分段：每个数据分段只能放下几条指令，每个索引分段 4 条。 */
+    private MappedActionLog log() throws Exception {
+        return log(256);
+    }
+
+    private MappedActionLog log(int dataSegmentBytes) throws Exception {
+        return new MappedActionLog(folder.getRoot().toPath(), dataSegmentBytes, 2);
+    }
+
+    private static StrokeAction stroke(long sequence) {
+        StrokeAction stroke = new StrokeAction(ShapeType.LINE, new int[]{0, 0, (int) sequence, 5}, Color.BLACK, 2f);
+        stroke.assignSequence(sequence);
+        return stroke;
+    }
+
+    private static void append(MappedActionLog log, long from, long to) {
+        for (long sequence = from; sequence <= to; sequence++) {
+            log.append(stroke(sequence));
+        }
+    }
+
+    private static void assertSequences(List<Action> actions, long... expected) {
+        assertEquals(expected.length, actions.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], ((DrawingAction) actions.get(i)).getSequence());
+        }
+    }
+
+    private static long[] range(long from, long to) {
+        long[] sequences = new long[(int) (to - from + 1)];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = from + i;
+        }
+        return sequences;
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    @Test
+    public void appendsAcrossSegmentBoundaries() throws Exception {
+        MappedActionLog log = log();
+        append(log, 1, 50);
+        assertEquals(50, log.size());
+        assertSequences(log.snapshot(), range(1, 50));
+    }
+
+    @Test
+    public void truncateAndReappendLeaveEarlierSnapshotsIntact() throws Exception {
+        MappedActionLog log = log(64 * 1024); // 废弃字节不会多到触发重写，截断复制索引分段
+        append(log, 1, 30);
+        List<Action> before = log.snapshot();
+
+        log.truncate(13); // 截断点在索引分段中间
+        append(log, 100, 109);
+        List<Action> middle = log.snapshot();
+
+        log.truncate(8); // 截断点在索引分段边界
+        append(log, 200, 203);
+
+        assertSequences(before, range(1, 30));
+        assertSequences(middle, concat(range(1, 13), range(100, 109)));
+        assertSequences(log.snapshot(), concat(range(1, 8), range(200, 203)));
+    }
+
+    @Test
+    public void rewritesDeadBytesWithoutDisturbingSnapshots() throws Exception {
+        MappedActionLog log = log();
+        append(log, 1, 40);
+        List<Action> before = log.snapshot();
+
+        log.truncate(2); // 废弃字节远多于有效字节，有效的指令被重写到新的分段
+        append(log, 100, 110);
+
+        assertSequences(before, range(1, 40));
+        assertSequences(log.snapshot(), concat(range(1, 2), range(100, 110)));
+    }
+
+    @Test
+    public void releasesReplacedSegmentsThatNoSnapshotUses() throws Exception {
+        MappedActionLog log = log();
+        append(log, 1, 40);
+        int mapped = log.mappedSegments();
+
+        log.truncate(2);
+        assertTrue(log.mappedSegments() < mapped);
+        assertEquals(2, log.mappedSegments()); // 一个数据分段和一个索引分段
+
+        append(log, 3, 7);
+        mapped = log.mappedSegments();
+        log.truncate(6); // 没有快照能看到被截掉的索引项，原地覆盖
+        assertEquals(mapped, log.mappedSegments());
+
+        log.clear();
+        assertEquals(0, log.mappedSegments());
+    }
+}
@@ -0,0 +1,79 @@
+package com.elizabethering.javawhiteboard.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void offerFailsOnceTheLimitIsReached() {
+        MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(8);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(ring.offer(i, 6));
+        }
+        assertFalse(ring.offer(6, 6));
+        // 更高的上限可以使用预留的槽位，但不能超过容量
+        assertTrue(ring.offer(6, 8));
+        assertTrue(ring.offer(7, 8));
+        assertFalse(ring.offer(8, Integer.MAX_VALUE));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(1, ring.drain(drained::add, 1));
+        assertTrue(ring.offer(8, 8));
+        assertEquals(8, ring.drain(drained::add, 100));
+        for (int i = 0; i < drained.size(); i++) {
+            assertEquals(i, (int) drained.get(i));
+        }
+    }
+
+    @Test
+    public void concurrentProducersKeepTheirOwnOrder() throws Exception {
+        final int producers = 4;
+        final int perProducer = 100_000;
+        MpscRingBuffer<long[]> ring = new MpscRingBuffer<>(1024);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    long[] element = {producer, i};
+                    if (i % 2 == 0) {
+                        ring.put(element);
+                    } else {
+                        while (!ring.offer(element, 1024)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+
+        long[] next = new long[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            int count = ring.drain(element -> {
+                assertEquals(next[(int) element[0]], element[1]);
+                next[(int) element[0]]++;
+            }, 256);
+            if (count == 0) {
+                ring.awaitNotEmpty();
+            }
+            received += count;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (long n : next) {
+            assertEquals(perProducer, n);
+        }
+        assertEquals(0, ring.size());
+    }
+}
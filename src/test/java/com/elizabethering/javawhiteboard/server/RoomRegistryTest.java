@@ -0,0 +1,70 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Color;
+import java.nio.file.Path;
+import java.time.LocalTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RoomRegistryTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerConfig config(Path journalDir, int maxRooms) {
+        return new ServerConfig(0, ServerConfig.IoMode.BLOCKING, 1, 16, OverflowPolicy.RESYNC, 0,
+                0, 100, 100, journalDir, ServerConfig.HistoryStore.HEAP, folder.getRoot().toPath(), 0,
+                null, LocalTime.MIDNIGHT, maxRooms, 0, 1000);
+    }
+
+    @Test
+    public void refusesNewRoomsAtTheCap() {
+        RoomRegistry registry = new RoomRegistry(config(null, 1));
+        Room first = registry.getOrCreate("a");
+        assertNotNull(first);
+        assertNull(registry.getOrCreate("b"));
+        assertSame(first, registry.getOrCreate("a"));
+    }
+
+    @Test
+    public void keepsRoomsThatAClientIsJoining() {
+        RoomRegistry registry = new RoomRegistry(config(null, 10));
+        Room room = registry.getOrCreate("a");
+        assertEquals(0, registry.evictIdleRooms(Long.MAX_VALUE));
+        assertSame(room, registry.get("a"));
+    }
+
+    @Test
+    public void evictsIdleRoomsAndRebuildsThemFromTheJournal() throws Exception {
+        Path dir = folder.newFolder("journal").toPath();
+        HistoryJournal journal = HistoryJournal.open(dir, "a");
+        journal.replay(action -> { });
+        journal.start();
+        for (long sequence = 1; sequence <= 3; sequence++) {
+            StrokeAction stroke = new StrokeAction(ShapeType.LINE, new int[]{0, 0, 5, 5}, Color.BLACK, 2f);
+            stroke.assignSequence(sequence);
+            journal.append(new OutboundMessage(stroke));
+        }
+        journal.close();
+
+        RoomRegistry registry = new RoomRegistry(config(dir, 1));
+        Room restored = registry.get("a");
+        assertNotNull(restored);
+        assertEquals(1, registry.evictIdleRooms(System.currentTimeMillis()));
+        assertNull(registry.get("a"));
+
+        Room reopened = registry.getOrCreate("a");
+        assertNotNull(reopened);
+        assertEquals(3, reopened.getLastSequence());
+        assertEquals(3, reopened.getDrawingHistory().size());
+    }
+}
@@ -0,0 +1,43 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.DrawingAction;
+import com.elizabethering.javawhiteboard.shared.model.RemoveAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import com.elizabethering.javawhiteboard.shared.protocol.BinaryActionCodec;
+import org.junit.Test;
+
+import java.awt.Color;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoomSequenceTest {
+
+    @Test
+    public void hostileSpanFromClientIsDiscarded() throws Exception {
+        // 客户端声称这条笔画代表序号 1 到 1000，覆盖历史中之前的所有指令
+        StrokeAction hostile = new StrokeAction(ShapeType.LINE, new int[]{0, 0, 5, 5}, Color.BLACK, 2f);
+        hostile.assignSequence(1000);
+        hostile.assignFirstSequence(1);
+        hostile.assignAuthor("teacher");
+        BinaryActionCodec codec = new BinaryActionCodec();
+        byte[] wire = codec.encode(hostile);
+        Action received = codec.decode(wire, 0, wire.length);
+        assertEquals(1, ((DrawingAction) received).getFirstSequence());
+
+        Room.assignServerSequence((DrawingAction) received, 42, "student");
+
+        assertEquals(42, ((DrawingAction) received).getSequence());
+        assertEquals(42, ((DrawingAction) received).getFirstSequence());
+        assertEquals("student", ((DrawingAction) received).getAuthor());
+    }
+
+    @Test
+    public void removalsFromClientsAreRejected() {
+        assertTrue(Room.isServerGenerated(new RemoveAction(new long[]{1, 2, 3})));
+        assertFalse(Room.isServerGenerated(new StrokeAction(ShapeType.LINE, new int[]{0, 0, 5, 5}, Color.BLACK, 2f)));
+    }
+}
@@ -0,0 +1,92 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.DrawingAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentedHistoryTest {
+
+    /** 与 SegmentedHistory 的分段大小相同。 */
+    private static final int SEGMENT = 1024;
+
+    private final SegmentedHistory history = new SegmentedHistory();
+
+    private void append(long from, long to) {
+        for (long sequence = from; sequence <= to; sequence++) {
+            StrokeAction stroke = new StrokeAction(ShapeType.LINE, new int[]{0, 0, 5, 5}, Color.BLACK, 2f);
+            stroke.assignSequence(sequence);
+            history.append(stroke);
+        }
+    }
+
+    private static void assertSequences(List<Action> actions, long firstFrom, long firstTo, long secondFrom, long secondTo) {
+        int firstCount = (int) (firstTo - firstFrom + 1);
+        assertEquals(firstCount + (secondTo - secondFrom + 1), actions.size());
+        for (int i = 0; i < actions.size(); i++) {
+            long expected = i < firstCount ? firstFrom + i : secondFrom + i - firstCount;
+            assertEquals(expected, ((DrawingAction) actions.get(i)).getSequence());
+        }
+    }
+
+    @Test
+    public void appendsAcrossSegmentsAndGrowsTheDirectory() {
+        // 超过初始目录的 4 个分段
+        append(1, SEGMENT * 5 + 10);
+        assertEquals(SEGMENT * 5 + 10, history.size());
+        assertSequences(history.snapshot(), 1, SEGMENT * 5 + 10, 1, 0);
+    }
+
+    @Test
+    public void snapshotsIgnoreLaterAppendsAndClears() {
+        append(1, 10);
+        List<Action> before = history.snapshot();
+        append(11, 20);
+        history.clear();
+        append(100, 104);
+
+        assertSequences(before, 1, 10, 1, 0);
+        assertSequences(history.snapshot(), 100, 104, 1, 0);
+    }
+
+    @Test
+    public void truncateInsideASegmentKeepsEarlierSnapshots() {
+        append(1, SEGMENT + 100);
+        List<Action> before = history.snapshot();
+
+        history.truncate(SEGMENT + 50);
+        append(5000, 5009);
+
+        assertSequences(before, 1, SEGMENT + 100, 1, 0);
+        assertSequences(history.snapshot(), 1, SEGMENT + 50, 5000, 5009);
+    }
+
+    @Test
+    public void truncateAtASegmentBoundaryDropsLaterSegments() {
+        append(1, SEGMENT * 3);
+        List<Action> before = history.snapshot();
+
+        history.truncate(SEGMENT);
+        append(5000, 5000 + SEGMENT - 1);
+
+        assertSequences(before, 1, SEGMENT * 3, 1, 0);
+        assertSequences(history.snapshot(), 1, SEGMENT, 5000, 5000 + SEGMENT - 1);
+    }
+
+    @Test
+    public void truncateToZeroOrBeyondTheEnd() {
+        append(1, 10);
+        history.truncate(20);
+        assertEquals(10, history.size());
+        history.truncate(0);
+        assertEquals(0, history.size());
+        append(7, 8);
+        assertSequences(history.snapshot(), 7, 8, 1, 0);
+    }
+}
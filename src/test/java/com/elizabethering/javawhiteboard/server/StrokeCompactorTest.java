@@ -0,0 +1,147 @@
+package com.elizabethering.javawhiteboard.server;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.DrawingAction;
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StrokeCompactorTest {
+
+    private final List<Action> history = new ArrayList<>();
+    private final Map<Long, Long> steps = new HashMap<>();
+    private final UndoStacks undoStacks = new UndoStacks();
+
+    private void draw(String user, int x0, int x1) {
+        StrokeAction segment = new StrokeAction(ShapeType.LINE, new int[]{x0, 0, x1, 0}, Color.BLACK, 2f);
+        segment.assignSequence(history.size() + 1);
+        segment.assignAuthor(user);
+        history.add(segment);
+        steps.put(segment.getSequence(), undoStacks.record(user, segment));
+    }
+
+    private void erase(String user, int x0, int x1) {
+        StrokeAction eraser = new StrokeAction(ShapeType.ERASER, new int[]{x0, 0, x1, 0}, Color.WHITE, 40f);
+        eraser.assignSequence(history.size() + 1);
+        eraser.assignAuthor(user);
+        history.add(eraser);
+        steps.put(eraser.getSequence(), undoStacks.record(user, eraser));
+    }
+
+    private StrokeCompactor.Result compact() {
+        return StrokeCompactor.compact(history, Tombstones.EMPTY, steps, undoStacks.liveSequences());
+    }
+
+    @Test
+    public void mergesSegmentsOfOneStep() {
+        draw("alice", 0, 10);
+        draw("alice", 10, 20);
+        draw("alice", 20, 30);
+
+        List<Action> compacted = compact().actions;
+
+        assertEquals(1, compacted.size());
+        assertEquals(1, ((DrawingAction) compacted.get(0)).getFirstSequence());
+        assertEquals(3, ((DrawingAction) compacted.get(0)).getSequence());
+    }
+
+    @Test
+    public void doesNotMergeAcrossAuthors() {
+        draw("alice", 0, 10);
+        draw("bob", 10, 20);
+        draw("bob", 20, 30);
+
+        List<Action> compacted = compact().actions;
+
+        assertEquals(2, compacted.size());
+        assertEquals(1, ((DrawingAction) compacted.get(0)).getSequence());
+        assertEquals(2, ((DrawingAction) compacted.get(1)).getFirstSequence());
+    }
+
+    @Test
+    public void doesNotMergeAcrossUndoSteps() {
+        draw("alice", 0, 10);
+        undoStacks.pushUndo("alice", undoStacks.popUndo("alice")); // 撤销后重做，之后的笔画另起一步
+        draw("alice", 10, 20);
+
+        assertEquals(2, compact().actions.size());
+    }
+
+    @Test
+    public void mergesReplayedSegmentsOfOneAuthor() {
+        // 从日志重放的历史没有步骤记录
+        draw("alice", 0, 10);
+        draw("alice", 10, 20);
+        draw("bob", 20, 30);
+        steps.clear();
+
+        List<Action> compacted = compact().actions;
+
+        assertEquals(2, compacted.size());
+        assertEquals(1, ((DrawingAction) compacted.get(0)).getFirstSequence());
+        assertEquals(2, ((DrawingAction) compacted.get(0)).getSequence());
+        assertEquals("alice", ((DrawingAction) compacted.get(0)).getAuthor());
+    }
+
+    @Test
+    public void doesNotMergeReplayedSegmentsWithUndoableOnes() {
+        draw("alice", 0, 10);
+        steps.clear();
+        draw("alice", 10, 20);
+
+        assertEquals(2, compact().actions.size());
+    }
+
+    @Test
+    public void doesNotMergeSegmentsWithoutAuthor() {
+        draw("alice", 0, 10);
+        draw("alice", 10, 20);
+        steps.clear();
+        for (Action action : history) {
+            ((DrawingAction) action).assignAuthor(null);
+        }
+
+        assertEquals(2, compact().actions.size());
+    }
+
+    @Test
+    public void keepsShapesUnderAnEraserThatCanBeUndone() {
+        draw("alice", 0, 10);
+        erase("bob", -20, 30);
+
+        StrokeCompactor.Result result = compact();
+        assertTrue(result.covered.isEmpty());
+
+        // 压缩之后撤销橡皮擦，被盖住的笔画仍在历史中，重新显示出来
+        Tombstones undone = Tombstones.EMPTY.with(undoStacks.popUndo("bob"));
+        boolean visible = false;
+        for (Action action : result.actions) {
+            long sequence = ((DrawingAction) action).getSequence();
+            if (sequence == 1 && !undone.contains(sequence)) visible = true;
+        }
+        assertTrue(visible);
+    }
+
+    @Test
+    public void dropsShapesUnderAnEraserThatCanNoLongerBeUndone() {
+        draw("alice", 0, 10);
+        erase("bob", -20, 30);
+        undoStacks.clear();
+
+        StrokeCompactor.Result result = compact();
+
+        assertEquals(1, result.covered.size());
+        assertEquals(1, result.covered.get(0).getSequence());
+        assertFalse(result.actions.contains(history.get(0)));
+    }
+}
@@ -0,0 +1,138 @@
+package com.elizabethering.javawhiteboard.shared.model;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StrokePointsTest {
+
+    /** 随机游走的手绘笔画，偶尔有大的跳跃和负坐标。 */
+    private static int[] randomStroke(long seed, int count) {
+        Random random = new Random(seed);
+        int[] points = new int[count * 2];
+        int x = random.nextInt(2000) - 1000;
+        int y = random.nextInt(2000) - 1000;
+        for (int i = 0; i < points.length; i += 2) {
+            boolean jump = random.nextInt(50) == 0;
+            x += jump ? random.nextInt(200_000) - 100_000 : random.nextInt(7) - 3;
+            y += jump ? random.nextInt(200_000) - 100_000 : random.nextInt(7) - 3;
+            points[i] = x;
+            points[i + 1] = y;
+        }
+        return points;
+    }
+
+    @Test
+    public void losslessRoundTrip() {
+        for (long seed = 0; seed < 20; seed++) {
+            int[] points = randomStroke(seed, 500);
+            byte[] encoded = StrokePoints.encode(points, 1);
+            assertArrayEquals(points, StrokePoints.decode(encoded));
+            assertEquals(500, StrokePoints.pointCount(encoded));
+        }
+        assertArrayEquals(new int[0], StrokePoints.decode(StrokePoints.encode(new int[0], 1)));
+    }
+
+    @Test
+    public void quantizedRoundTripStaysWithinHalfAStep() {
+        int[] points = randomStroke(42, 500);
+        for (int quantization = 2; quantization <= 8; quantization *= 2) {
+            int[] decoded = StrokePoints.decode(StrokePoints.encode(points, quantization));
+            assertEquals(points.length, decoded.length);
+            for (int i = 0; i < points.length; i++) {
+                assertEquals(0, decoded[i] % quantization);
+                assertTrue(Math.abs(decoded[i] - points[i]) <= quantization / 2);
+            }
+        }
+    }
+
+    @Test
+    public void decodeRejectsTruncatedAndTrailingBytes() {
+        byte[] encoded = StrokePoints.encode(randomStroke(7, 20), 1);
+        byte[][] corrupt = {
+                Arrays.copyOf(encoded, encoded.length - 1),
+                Arrays.copyOf(encoded, encoded.length + 1),
+        };
+        for (byte[] bytes : corrupt) {
+            try {
+                StrokePoints.decode(bytes);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // 预期之中
+            }
+        }
+    }
+
+    @Test
+    public void boundsMatchDecodedPoints() {
+        int[] points = {10, 20, 13, -22, 400, -5, -7, 8};
+        StrokeAction stroke = new StrokeAction(ShapeType.LINE, points, Color.BLACK, 2f);
+
+        Rectangle expected = stroke.toShape().getBounds();
+        assertEquals(expected, StrokePoints.bounds(StrokePoints.encode(points, 1)));
+        assertEquals(expected, new StrokeAction(ShapeType.LINE, points, Color.BLACK, 2f).getPointBounds());
+        assertEquals(expected, stroke.getPointBounds()); // 已经解码过，使用缓存的坐标
+    }
+
+    @Test
+    public void boundsOfQuantizedPoints() {
+        int[] points = {10, 20, 33, 41};
+        byte[] encoded = StrokePoints.encode(points, 4);
+        int[] decoded = StrokePoints.decode(encoded);
+
+        Rectangle bounds = StrokePoints.bounds(encoded);
+
+        assertEquals(new Rectangle(decoded[0], decoded[1], decoded[2] - decoded[0], decoded[3] - decoded[1]), bounds);
+        assertEquals(new Rectangle(), StrokePoints.bounds(StrokePoints.encode(new int[0], 1)));
+    }
+
+    @Test
+    public void simplifyDropsCollinearPoints() {
+        int[] line = new int[200];
+        for (int i = 0; i < 100; i++) {
+            line[i * 2] = 3 * i;
+            line[i * 2 + 1] = 2 * i;
+        }
+        assertArrayEquals(new int[]{0, 0, 297, 198}, StrokePoints.simplify(line, 0.5));
+        assertSame(line, StrokePoints.simplify(line, 0));
+    }
+
+    @Test
+    public void simplifiedStrokeStaysWithinToleranceAndRoundTrips() {
+        // x 严格递增，每个点都能在原笔画中唯一地找到
+        Random random = new Random(3);
+        int[] points = new int[400 * 2];
+        for (int i = 0; i < 400; i++) {
+            points[i * 2] = i;
+            points[i * 2 + 1] = (int) Math.round(40 * Math.sin(i / 30.0)) + random.nextInt(3) - 1;
+        }
+        double tolerance = 1.5;
+        int[] simplified = StrokePoints.simplify(points, tolerance);
+        assertTrue(simplified.length < points.length / 2);
+        assertEquals(points[0], simplified[0]);
+        assertEquals(points[points.length - 1], simplified[simplified.length - 1]);
+
+        // 每个被删去的点到它两侧保留点之间线段的距离都不超过容差
+        for (int k = 0; k + 3 < simplified.length; k += 2) {
+            int a = simplified[k], b = simplified[k + 2];
+            double ay = simplified[k + 1], by = simplified[k + 3];
+            for (int x = a + 1; x < b; x++) {
+                double px = x, py = points[x * 2 + 1];
+                double dx = b - a, dy = by - ay;
+                double t = Math.max(0, Math.min(1, ((px - a) * dx + (py - ay) * dy) / (dx * dx + dy * dy)));
+                double distance = Math.hypot(a + t * dx - px, ay + t * dy - py);
+                assertTrue("x=" + x + " 偏离 " + distance, distance <= tolerance + 1e-9);
+            }
+        }
+        assertArrayEquals(simplified, StrokePoints.decode(StrokePoints.encode(simplified, 1)));
+    }
+}
@@ -0,0 +1,31 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+import com.elizabethering.javawhiteboard.shared.model.LoginAction;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ActionFramesTest {
+
+    @Test
+    public void rejectsAnUnframedObjectStreamWithAClearReason() throws Exception {
+        // 早期版本的客户端直接在连接上写对象流
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(new LoginAction("student", "secret"));
+        }
+        try {
+            ActionFrames.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail();
+        } catch (StreamCorruptedException e) {
+            assertTrue(e.getMessage().contains("不分帧"));
+        }
+    }
+}
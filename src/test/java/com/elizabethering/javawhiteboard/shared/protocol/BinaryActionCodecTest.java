@@ -0,0 +1,53 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import org.junit.Test;
+
+import java.awt.Color;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryActionCodecTest {
+
+    private final BinaryActionCodec codec = new BinaryActionCodec();
+
+    private static StrokeAction stroke() {
+        return new StrokeAction(ShapeType.LINE, new int[]{10, 20, 13, 22, 400, -5}, Color.RED, 3f);
+    }
+
+    @Test
+    public void strokeRoundTripKeepsSequenceSpanAndAuthor() throws Exception {
+        StrokeAction merged = stroke();
+        merged.assignSequence(300);
+        merged.assignFirstSequence(170);
+        merged.assignAuthor("alice");
+
+        Action decoded = codec.decode(codec.encode(merged), 0, codec.encode(merged).length);
+
+        assertTrue(decoded instanceof StrokeAction);
+        StrokeAction st = (StrokeAction) decoded;
+        assertEquals(300, st.getSequence());
+        assertEquals(170, st.getFirstSequence());
+        assertEquals("alice", st.getAuthor());
+        assertArrayEquals(merged.getPoints(), st.getPoints());
+    }
+
+    @Test
+    public void contentIgnoresSequenceAndSpan() throws Exception {
+        StrokeAction local = stroke();
+        StrokeAction echoed = stroke();
+        echoed.assignSequence(300);
+        echoed.assignFirstSequence(170);
+        echoed.assignAuthor("alice");
+
+        assertArrayEquals(codec.encodeContent(local), codec.encodeContent(echoed));
+
+        byte[] wire = codec.encode(echoed);
+        Action decoded = codec.decode(wire, 0, wire.length);
+        assertArrayEquals(codec.encodeContent(local), codec.encodeContent(decoded));
+    }
+}
@@ -0,0 +1,43 @@
+package com.elizabethering.javawhiteboard.shared.protocol;
+
+import com.elizabethering.javawhiteboard.shared.model.Action;
+import com.elizabethering.javawhiteboard.shared.model.ShapeType;
+import com.elizabethering.javawhiteboard.shared.model.StrokeAction;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.io.StreamCorruptedException;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class SerializedActionCodecTest {
+
+    private final SerializedActionCodec codec = new SerializedActionCodec();
+
+    @Test
+    public void decodesValidStroke() throws Exception {
+        StrokeAction stroke = new StrokeAction(ShapeType.LINE, new int[]{1, 2, 3, 4}, Color.BLUE, 2f);
+        byte[] wire = codec.encode(stroke);
+
+        Action decoded = codec.decode(wire, 0, wire.length);
+
+        assertArrayEquals(stroke.getPoints(), ((StrokeAction) decoded).getPoints());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void rejectsStrokeWithCorruptPoints() throws Exception {
+        // 声称有 100 个点，实际只有一个字节的数据
+        StrokeAction corrupt = new StrokeAction(ShapeType.LINE, new byte[]{1, 100, 2}, Color.BLUE, 2f);
+        byte[] wire = codec.encode(corrupt);
+
+        codec.decode(wire, 0, wire.length);
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void rejectsStrokeWithoutColor() throws Exception {
+        StrokeAction incomplete = new StrokeAction(ShapeType.LINE, new int[]{1, 2, 3, 4}, null, 2f);
+        byte[] wire = codec.encode(incomplete);
+
+        codec.decode(wire, 0, wire.length);
+    }
+}